@@ -0,0 +1,109 @@
+package uk.ac.newcastle.enterprisemiddleware.benchmark;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.validator.HibernateValidator;
+import org.hibernate.validator.messageinterpolation.ParameterMessageInterpolator;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.taxi.Taxi;
+
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.function.IntFunction;
+
+/**
+ * <p>Embedded H2 database and fixtures shared by the benchmarks.</p>
+ *
+ * <p>The service's own entities are mapped by a plain Hibernate bootstrap, so the repositories and validators can be
+ * measured without starting Quarkus. Each benchmark class gets its own in-memory database.</p>
+ *
+ * @author Yi Zhang
+ */
+public final class BenchmarkDatabase {
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * <p>Creates a fresh in-memory H2 database with the service's schema.</p>
+     *
+     * @param name The name of the database, unique per benchmark class
+     * @return The SessionFactory, which is also a JPA EntityManagerFactory
+     */
+    public static SessionFactory open(String name) {
+        return new Configuration()
+                .setProperty(AvailableSettings.DRIVER, "org.h2.Driver")
+                .setProperty(AvailableSettings.URL, "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1")
+                .setProperty(AvailableSettings.USER, "sa")
+                .setProperty(AvailableSettings.DIALECT, "org.hibernate.dialect.H2Dialect")
+                .setProperty(AvailableSettings.HBM2DDL_AUTO, "create-drop")
+                .setProperty(AvailableSettings.STATEMENT_BATCH_SIZE, "50")
+                .setProperty(AvailableSettings.JPA_VALIDATION_MODE, "none")
+                .addAnnotatedClass(Customer.class)
+                .addAnnotatedClass(Taxi.class)
+                .addAnnotatedClass(Booking.class)
+                .buildSessionFactory();
+    }
+
+    /**
+     * <p>Persists the given number of entities in one transaction.</p>
+     */
+    public static void seed(SessionFactory sessionFactory, int rows, IntFunction<Object> factory) {
+        try (Session session = sessionFactory.openSession()) {
+            session.beginTransaction();
+            for (int i = 0; i < rows; i++) {
+                session.persist(factory.apply(i));
+                if (i % 50 == 49) {
+                    session.flush();
+                    session.clear();
+                }
+            }
+            session.getTransaction().commit();
+        }
+    }
+
+    /**
+     * <p>Returns a Bean Validator configured like the service's, but without an expression language dependency.</p>
+     */
+    public static Validator validator() {
+        return Validation.byProvider(HibernateValidator.class)
+                .configure()
+                .messageInterpolator(new ParameterMessageInterpolator())
+                .buildValidatorFactory()
+                .getValidator();
+    }
+
+    public static Customer customer(int i) {
+        Customer customer = new Customer();
+        customer.setFirstName("Ada");
+        customer.setLastName("Lovelace");
+        customer.setEmail("customer" + i + "@example.com");
+        customer.setPhoneNumber(String.format("0%010d", i));
+        Calendar birth = Calendar.getInstance();
+        birth.set(1980, Calendar.JANUARY, 1 + i % 28);
+        customer.setBirthDate(birth.getTime());
+        return customer;
+    }
+
+    public static Taxi taxi(int i) {
+        Taxi taxi = new Taxi();
+        taxi.setRegistrationNumber(String.format("TX%05d", i));
+        taxi.setSeatNumber(2 + i % 19);
+        taxi.setPhoneNumber(String.format("0%010d", i));
+        return taxi;
+    }
+
+    public static Booking booking(long id, long customerId, long taxiId) {
+        Booking booking = new Booking();
+        booking.setId(id);
+        booking.setCustomerId(customerId);
+        booking.setTaxiId(taxiId);
+        booking.setBookDate(new Date(System.currentTimeMillis() + 86_400_000L * (1 + id % 365)));
+        return booking;
+    }
+}
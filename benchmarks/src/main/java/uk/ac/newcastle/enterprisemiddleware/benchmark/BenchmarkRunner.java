@@ -0,0 +1,35 @@
+package uk.ac.newcastle.enterprisemiddleware.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>Runs the benchmarks and writes the results as JSON, so they can be kept and compared between releases.</p>
+ *
+ * <p>Any standard JMH command line option may be passed, for example a regular expression selecting the benchmarks
+ * to run. The results are written to <code>jmh-result.json</code> unless the <code>benchmark.result</code> system
+ * property names another file.</p>
+ *
+ * <pre>
+ * java -Dbenchmark.result=results/1.0.0.json -jar target/benchmarks.jar CustomerBenchmark
+ * </pre>
+ *
+ * @author Yi Zhang
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty("benchmark.result", "jmh-result.json"))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,54 @@
+package uk.ac.newcastle.enterprisemiddleware.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.taxi.Taxi;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmarks the Jackson serialization of the entities returned by the REST services.</p>
+ *
+ * @author Yi Zhang
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+    private ObjectMapper mapper;
+    private Customer customer;
+    private Taxi taxi;
+    private Booking booking;
+
+    @Setup
+    public void setUp() {
+        mapper = new ObjectMapper();
+        customer = BenchmarkDatabase.customer(42);
+        customer.setId(42L);
+        taxi = BenchmarkDatabase.taxi(7);
+        taxi.setId(7L);
+        booking = BenchmarkDatabase.booking(1L, 42L, 7L);
+    }
+
+    @Benchmark
+    public byte[] customer() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(customer);
+    }
+
+    @Benchmark
+    public byte[] taxi() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(taxi);
+    }
+
+    @Benchmark
+    public byte[] booking() throws JsonProcessingException {
+        return mapper.writeValueAsBytes(booking);
+    }
+}
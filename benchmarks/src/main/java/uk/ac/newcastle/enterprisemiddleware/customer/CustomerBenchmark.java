@@ -0,0 +1,99 @@
+package uk.ac.newcastle.enterprisemiddleware.customer;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.newcastle.enterprisemiddleware.benchmark.BenchmarkDatabase;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmarks {@link CustomerValidator#validateCustomer(Customer)} and {@link CustomerRepository#findByEmail(String)}
+ * against an embedded H2 database.</p>
+ *
+ * <p>The benchmark lives in the service's package so it can call the package scoped validator and repository
+ * methods directly, as the service does.</p>
+ *
+ * @author Yi Zhang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomerBenchmark {
+
+    @Param({"1000"})
+    int rows;
+
+    private SessionFactory sessionFactory;
+    private Session session;
+    private CustomerRepository repository;
+    private CustomerValidator validator;
+    private Customer newCustomer;
+    private Customer[] existing;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sessionFactory = BenchmarkDatabase.open("customer_benchmark");
+        BenchmarkDatabase.seed(sessionFactory, rows, BenchmarkDatabase::customer);
+        session = sessionFactory.openSession();
+
+        repository = new CustomerRepository();
+        repository.em = session;
+        repository.log = StructuredLogger.getLogger(CustomerRepository.class.getName());
+
+        validator = new CustomerValidator();
+        validator.validator = BenchmarkDatabase.validator();
+        validator.crud = repository;
+
+        newCustomer = BenchmarkDatabase.customer(rows + 1);
+        existing = new Customer[rows];
+        for (int i = 0; i < rows; i++) {
+            existing[i] = repository.findByEmail(BenchmarkDatabase.customer(i).getEmail());
+        }
+        session.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        sessionFactory.close();
+    }
+
+    private Customer nextExisting() {
+        Customer customer = existing[next];
+        next = (next + 1) % rows;
+        return customer;
+    }
+
+    /**
+     * Lookup of a registered email, the query behind every uniqueness check.
+     */
+    @Benchmark
+    public Customer findByEmail() {
+        return repository.findByEmail(nextExisting().getEmail());
+    }
+
+    /**
+     * Validation of a customer being created, whose email is not registered yet.
+     */
+    @Benchmark
+    public Customer validateNewCustomer() {
+        validator.validateCustomer(newCustomer);
+        return newCustomer;
+    }
+
+    /**
+     * Validation of a customer being updated, whose email is registered to that same customer.
+     */
+    @Benchmark
+    public Customer validateExistingCustomer() {
+        Customer customer = nextExisting();
+        validator.validateCustomer(customer);
+        return customer;
+    }
+}
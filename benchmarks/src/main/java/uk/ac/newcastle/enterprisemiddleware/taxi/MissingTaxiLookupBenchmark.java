@@ -0,0 +1,86 @@
+package uk.ac.newcastle.enterprisemiddleware.taxi;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.newcastle.enterprisemiddleware.benchmark.BenchmarkDatabase;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
+import javax.persistence.NoResultException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Compares ways of finding out that a registration number is not registered yet, which is what every Taxi create
+ * does before it is saved.</p>
+ *
+ * <p><code>exceptionWithStackTrace</code> is the validator's former behaviour of catching the NoResultException and
+ * printing its stack trace, here to a discarded stream so terminal output is not part of the measurement.
+ * <code>exception</code> only catches it, and <code>optional</code> uses
+ * {@link TaxiRepository#findOptionalByRegistrationNumber(String)}, which creates no exception at all.</p>
+ *
+ * @author Yi Zhang
+ * @see TaxiBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MissingTaxiLookupBenchmark {
+
+    @Param({"1000"})
+    int rows;
+
+    private SessionFactory sessionFactory;
+    private Session session;
+    private TaxiRepository repository;
+    private PrintStream discard;
+    private String missing;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sessionFactory = BenchmarkDatabase.open("missing_taxi_lookup_benchmark");
+        BenchmarkDatabase.seed(sessionFactory, rows, BenchmarkDatabase::taxi);
+        session = sessionFactory.openSession();
+
+        repository = new TaxiRepository();
+        repository.em = session;
+        repository.log = StructuredLogger.getLogger(TaxiRepository.class.getName());
+
+        discard = new PrintStream(OutputStream.nullOutputStream());
+        missing = BenchmarkDatabase.taxi(rows + 1).getRegistrationNumber();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public boolean exceptionWithStackTrace() {
+        try {
+            return repository.findByRegistrationNumber(missing) != null;
+        } catch (NoResultException e) {
+            e.printStackTrace(discard);
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean exception() {
+        try {
+            return repository.findByRegistrationNumber(missing) != null;
+        } catch (NoResultException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean optional() {
+        return repository.findOptionalByRegistrationNumber(missing).isPresent();
+    }
+}
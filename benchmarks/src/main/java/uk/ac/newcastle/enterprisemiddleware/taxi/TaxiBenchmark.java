@@ -0,0 +1,88 @@
+package uk.ac.newcastle.enterprisemiddleware.taxi;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.*;
+import uk.ac.newcastle.enterprisemiddleware.benchmark.BenchmarkDatabase;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Benchmarks {@link TaxiValidator#validateTaxi(Taxi)} and {@link TaxiRepository#findByRegistrationNumber(String)}
+ * against an embedded H2 database.</p>
+ *
+ * @author Yi Zhang
+ * @see uk.ac.newcastle.enterprisemiddleware.customer.CustomerBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaxiBenchmark {
+
+    @Param({"1000"})
+    int rows;
+
+    private SessionFactory sessionFactory;
+    private Session session;
+    private TaxiRepository repository;
+    private TaxiValidator validator;
+    private Taxi newTaxi;
+    private Taxi[] existing;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sessionFactory = BenchmarkDatabase.open("taxi_benchmark");
+        BenchmarkDatabase.seed(sessionFactory, rows, BenchmarkDatabase::taxi);
+        session = sessionFactory.openSession();
+
+        repository = new TaxiRepository();
+        repository.em = session;
+        repository.log = StructuredLogger.getLogger(TaxiRepository.class.getName());
+
+        validator = new TaxiValidator();
+        validator.validator = BenchmarkDatabase.validator();
+        validator.crud = repository;
+
+        newTaxi = BenchmarkDatabase.taxi(rows + 1);
+        existing = new Taxi[rows];
+        for (int i = 0; i < rows; i++) {
+            existing[i] = repository.findByRegistrationNumber(BenchmarkDatabase.taxi(i).getRegistrationNumber());
+        }
+        session.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        session.close();
+        sessionFactory.close();
+    }
+
+    private Taxi nextExisting() {
+        Taxi taxi = existing[next];
+        next = (next + 1) % rows;
+        return taxi;
+    }
+
+    @Benchmark
+    public Taxi findByRegistrationNumber() {
+        return repository.findByRegistrationNumber(nextExisting().getRegistrationNumber());
+    }
+
+    @Benchmark
+    public Taxi validateNewTaxi() {
+        validator.validateTaxi(newTaxi);
+        return newTaxi;
+    }
+
+    @Benchmark
+    public Taxi validateExistingTaxi() {
+        Taxi taxi = nextExisting();
+        validator.validateTaxi(taxi);
+        return taxi;
+    }
+}
@@ -0,0 +1,107 @@
+package uk.ac.newcastle.enterprisemiddleware.loadtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * <p>Starts the packaged service in its own JVM, with every rest client pointed at the {@link StubServer}.</p>
+ *
+ * <p>The service runs with its production configuration, on an empty database file in a temporary directory that is
+ * deleted when the launcher is closed. The service's output goes to <code>load-test-app.log</code>.</p>
+ *
+ * @author Yi Zhang
+ */
+final class AppLauncher implements AutoCloseable {
+
+    private final Process process;
+    private final Path databaseDirectory;
+
+    private AppLauncher(Process process, Path databaseDirectory) {
+        this.process = process;
+        this.databaseDirectory = databaseDirectory;
+    }
+
+    /**
+     * <p>Starts the service from the given <code>quarkus-run.jar</code> on the given port.</p>
+     *
+     * @param jar     The service's runnable jar
+     * @param port    The HTTP port for the service
+     * @param stubUrl The base url of the stub server
+     * @param jvmArgs Further JVM options, e.g. heap size or extra <code>-D</code> configuration
+     * @return The launcher, to be closed once the run has finished
+     */
+    static AppLauncher start(Path jar, int port, String stubUrl, List<String> jvmArgs) throws IOException {
+        Path databaseDirectory = Files.createTempDirectory("load-test-db");
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-Dquarkus.http.port=" + port);
+        command.add("-Ddatabase.path=" + databaseDirectory.resolve("csc8104"));
+        command.add("-Dquarkus.rest-client.area-api.url=" + stubUrl);
+        command.add("-Dquarkus.rest-client.flight-api.url=" + stubUrl);
+        command.add("-Dquarkus.rest-client.hotel-api.url=" + stubUrl);
+        command.add("-jar");
+        command.add(jar.toString());
+
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(new File("load-test-app.log"))
+                .start();
+        return new AppLauncher(process, databaseDirectory);
+    }
+
+    /**
+     * <p>Waits until the service answers HTTP requests.</p>
+     */
+    void awaitReady(HttpClient client, URI base, Duration timeout) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        HttpRequest probe = HttpRequest.newBuilder(base.resolve("customers?limit=1"))
+                .timeout(Duration.ofSeconds(2))
+                .build();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IOException("The service exited with status " + process.exitValue()
+                        + ", see load-test-app.log");
+            }
+            try {
+                if (client.send(probe, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Not listening yet.
+            }
+            TimeUnit.MILLISECONDS.sleep(250);
+        }
+        throw new IOException("The service did not start within " + timeout + ", see load-test-app.log");
+    }
+
+    @Override
+    public void close() {
+        process.destroy();
+        try {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+        try (Stream<Path> files = Files.walk(databaseDirectory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            System.err.println("Could not delete " + databaseDirectory + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package uk.ac.newcastle.enterprisemiddleware.loadtest;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * <p>Latencies and outcomes of the requests issued by one worker thread, per {@link Workload.Operation}.</p>
+ *
+ * <p>Every latency is kept, so the percentiles reported are exact rather than estimated. Each worker records into its
+ * own instance without synchronisation, and the instances are merged once the run has finished.</p>
+ *
+ * @author Yi Zhang
+ */
+final class LatencyRecorder {
+
+    /**
+     * <p>How a request ended: a 2xx response, a 4xx response the service is expected to give under load (e.g. a 409
+     * for a taxi that is already booked), or a 5xx response, timeout or connection failure.</p>
+     */
+    enum Outcome { OK, REJECTED, FAILED }
+
+    private final Map<Workload.Operation, Samples> samples = new EnumMap<>(Workload.Operation.class);
+
+    void record(Workload.Operation operation, long latencyNanos, Outcome outcome) {
+        samples.computeIfAbsent(operation, o -> new Samples()).add(latencyNanos, outcome);
+    }
+
+    void clear() {
+        samples.clear();
+    }
+
+    void mergeInto(LatencyRecorder total) {
+        samples.forEach((operation, s) -> total.samples.computeIfAbsent(operation, o -> new Samples()).addAll(s));
+    }
+
+    Map<Workload.Operation, Samples> samples() {
+        return samples;
+    }
+
+    static final class Samples {
+
+        private long[] latencies = new long[1024];
+        private int size;
+        private boolean sorted;
+        private final long[] outcomes = new long[Outcome.values().length];
+
+        void add(long latencyNanos, Outcome outcome) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = latencyNanos;
+            outcomes[outcome.ordinal()]++;
+            sorted = false;
+        }
+
+        void addAll(Samples other) {
+            if (size + other.size > latencies.length) {
+                latencies = Arrays.copyOf(latencies, Math.max(size + other.size, size * 2));
+            }
+            System.arraycopy(other.latencies, 0, latencies, size, other.size);
+            size += other.size;
+            for (int i = 0; i < outcomes.length; i++) {
+                outcomes[i] += other.outcomes[i];
+            }
+            sorted = false;
+        }
+
+        int count() {
+            return size;
+        }
+
+        long count(Outcome outcome) {
+            return outcomes[outcome.ordinal()];
+        }
+
+        /**
+         * <p>Returns the latency at the given percentile, in milliseconds, using the nearest rank.</p>
+         */
+        double percentileMillis(double percentile) {
+            if (size == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(latencies, 0, size);
+                sorted = true;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * size);
+            return latencies[Math.min(size, Math.max(rank, 1)) - 1] / 1_000_000d;
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package uk.ac.newcastle.enterprisemiddleware.loadtest;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Runs a mixed HTTP workload against the service and reports throughput and latency percentiles per operation.</p>
+ *
+ * <p>Unless <code>--app-url</code> points at a service that is already running, the packaged service is started in
+ * its own JVM with the area, flight and hotel rest clients pointed at a {@link StubServer}. Options are given as
+ * <code>--name=value</code>:</p>
+ *
+ * <ul>
+ *     <li><code>--jar</code> the service's runnable jar, <code>target/quarkus-app/quarkus-run.jar</code></li>
+ *     <li><code>--app-url</code> a running service to test instead, e.g. <code>http://localhost:8080/</code></li>
+ *     <li><code>--port</code> the port to start the service on, 8181</li>
+ *     <li><code>--jvm-args</code> space separated JVM options for the service, e.g. <code>-Xmx512m</code></li>
+ *     <li><code>--stub-latency-ms</code>, <code>--stub-jitter-ms</code> and <code>--stub-error-rate</code> the
+ *     behaviour of the remote APIs, 50, 50 and 0.0</li>
+ *     <li><code>--threads</code> concurrent clients, 32</li>
+ *     <li><code>--rate</code> total requests per second, 0 for each client to send as fast as it can</li>
+ *     <li><code>--warmup</code> and <code>--duration</code> in seconds, 15 and 60</li>
+ *     <li><code>--customers</code> and <code>--taxis</code> seeded before the run, 200 and 50</li>
+ *     <li><code>--horizon-days</code> how far ahead bookings are made, 365</li>
+ *     <li><code>--mix</code> operation weights, e.g. <code>CREATE_BOOKING:50,LIST_BOOKINGS:50</code></li>
+ *     <li><code>--report</code> the JSON report, <code>load-test-report.json</code></li>
+ * </ul>
+ *
+ * <p>With a fixed <code>--rate</code> each latency is measured from the time the request was due rather than the time
+ * it was sent, so a stalled service shows up in the percentiles instead of just slowing the clients down.</p>
+ *
+ * @author Yi Zhang
+ */
+public final class LoadTest {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+
+        int threads = Integer.parseInt(options.getOrDefault("threads", "32"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        Duration warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "15")));
+        Duration duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "60")));
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newFixedThreadPool(Math.max(4, threads / 4)))
+                .build();
+
+        StubServer stubs = null;
+        AppLauncher app = null;
+        try {
+            URI base;
+            if (options.containsKey("app-url")) {
+                base = URI.create(withTrailingSlash(options.get("app-url")));
+            } else {
+                stubs = new StubServer(
+                        Long.parseLong(options.getOrDefault("stub-latency-ms", "50")),
+                        Long.parseLong(options.getOrDefault("stub-jitter-ms", "50")),
+                        Double.parseDouble(options.getOrDefault("stub-error-rate", "0.0")));
+                stubs.start();
+
+                int port = Integer.parseInt(options.getOrDefault("port", "8181"));
+                List<String> jvmArgs = options.containsKey("jvm-args")
+                        ? Arrays.asList(options.get("jvm-args").trim().split("\\s+"))
+                        : List.of();
+                app = AppLauncher.start(Path.of(options.getOrDefault("jar", "target/quarkus-app/quarkus-run.jar")),
+                        port, stubs.url(), jvmArgs);
+                base = URI.create("http://localhost:" + port + "/");
+                System.out.println("Starting the service on " + base + " against stubs on " + stubs.url());
+                app.awaitReady(client, base, Duration.ofSeconds(60));
+            }
+
+            Workload workload = new Workload(client, base,
+                    Duration.ofSeconds(Long.parseLong(options.getOrDefault("request-timeout", "30"))),
+                    Integer.parseInt(options.getOrDefault("horizon-days", "365")),
+                    weights(options.get("mix")));
+            workload.seed(Integer.parseInt(options.getOrDefault("customers", "200")),
+                    Integer.parseInt(options.getOrDefault("taxis", "50")));
+
+            System.out.println("Running " + threads + " clients for " + warmup.getSeconds() + "s warm up and "
+                    + duration.getSeconds() + "s measurement" + (rate > 0 ? " at " + rate + " requests/s" : ""));
+            LatencyRecorder total = run(workload, threads, rate, warmup, duration);
+
+            report(total, duration, System.out);
+            Path reportFile = Path.of(options.getOrDefault("report", "load-test-report.json"));
+            Files.writeString(reportFile, json(total, duration, options), StandardCharsets.UTF_8);
+            System.out.println("Report written to " + reportFile.toAbsolutePath());
+        } finally {
+            if (app != null) {
+                app.close();
+            }
+            if (stubs != null) {
+                stubs.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static LatencyRecorder run(Workload workload, int threads, double rate, Duration warmup, Duration duration)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        // Each client sends its share of the rate, at evenly spaced due times.
+        long interval = rate > 0 ? (long) (threads * 1_000_000_000d / rate) : 0;
+
+        LatencyRecorder[] recorders = new LatencyRecorder[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            recorders[t] = recorder;
+            long offset = interval * t / threads;
+            workers.execute(() -> {
+                try {
+                    drive(workload, recorder, start + offset, interval, measureFrom, end);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        workers.shutdown();
+
+        LatencyRecorder total = new LatencyRecorder();
+        for (LatencyRecorder recorder : recorders) {
+            recorder.mergeInto(total);
+        }
+        return total;
+    }
+
+    private static void drive(Workload workload, LatencyRecorder recorder, long firstDue, long interval,
+                              long measureFrom, long end) {
+        boolean measuring = false;
+        long due = firstDue;
+        while (true) {
+            long now = System.nanoTime();
+            if (interval > 0) {
+                if (due > now) {
+                    sleepNanos(due - now);
+                }
+            } else {
+                due = now;
+            }
+            if (due >= end || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            if (!measuring && due >= measureFrom) {
+                recorder.clear();
+                measuring = true;
+            }
+
+            Workload.Operation operation = workload.next();
+            LatencyRecorder.Outcome outcome;
+            try {
+                int status = workload.execute(operation);
+                outcome = status < 400 ? LatencyRecorder.Outcome.OK
+                        : status < 500 ? LatencyRecorder.Outcome.REJECTED
+                        : LatencyRecorder.Outcome.FAILED;
+            } catch (IOException e) {
+                outcome = LatencyRecorder.Outcome.FAILED;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            recorder.record(operation, System.nanoTime() - due, outcome);
+            due += interval;
+        }
+    }
+
+    private static void sleepNanos(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void report(LatencyRecorder total, Duration duration, PrintStream out) {
+        double seconds = duration.toMillis() / 1000d;
+        out.printf(Locale.ROOT, "%n%-16s %8s %8s %8s %8s %10s %9s %9s %9s %9s%n",
+                "operation", "count", "ok", "4xx", "failed", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms");
+        LatencyRecorder.Samples all = new LatencyRecorder.Samples();
+        for (Map.Entry<Workload.Operation, LatencyRecorder.Samples> entry : total.samples().entrySet()) {
+            row(out, entry.getKey().name(), entry.getValue(), seconds);
+            all.addAll(entry.getValue());
+        }
+        row(out, "TOTAL", all, seconds);
+    }
+
+    private static void row(PrintStream out, String name, LatencyRecorder.Samples samples, double seconds) {
+        out.printf(Locale.ROOT, "%-16s %8d %8d %8d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+                name, samples.count(),
+                samples.count(LatencyRecorder.Outcome.OK),
+                samples.count(LatencyRecorder.Outcome.REJECTED),
+                samples.count(LatencyRecorder.Outcome.FAILED),
+                samples.count() / seconds,
+                samples.percentileMillis(PERCENTILES[0]), samples.percentileMillis(PERCENTILES[1]),
+                samples.percentileMillis(PERCENTILES[2]), samples.percentileMillis(PERCENTILES[3]));
+    }
+
+    private static String json(LatencyRecorder total, Duration duration, Map<String, String> options) {
+        double seconds = duration.toMillis() / 1000d;
+        StringBuilder json = new StringBuilder("{\n  \"options\": {");
+        json.append(options.entrySet().stream()
+                .map(e -> "\"" + escape(e.getKey()) + "\": \"" + escape(e.getValue()) + "\"")
+                .collect(Collectors.joining(", ")));
+        json.append("},\n  \"durationSeconds\": ").append(seconds).append(",\n  \"operations\": {");
+        List<String> operations = new ArrayList<>();
+        total.samples().forEach((operation, samples) -> {
+            StringBuilder entry = new StringBuilder("\n    \"").append(operation.name()).append("\": {")
+                    .append("\"count\": ").append(samples.count())
+                    .append(", \"ok\": ").append(samples.count(LatencyRecorder.Outcome.OK))
+                    .append(", \"rejected\": ").append(samples.count(LatencyRecorder.Outcome.REJECTED))
+                    .append(", \"failed\": ").append(samples.count(LatencyRecorder.Outcome.FAILED))
+                    .append(String.format(Locale.ROOT, ", \"throughput\": %.2f", samples.count() / seconds));
+            for (double percentile : PERCENTILES) {
+                entry.append(String.format(Locale.ROOT, ", \"p%s\": %.3f",
+                        percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile),
+                        samples.percentileMillis(percentile)));
+            }
+            operations.add(entry.append('}').toString());
+        });
+        return json.append(String.join(",", operations)).append("\n  }\n}\n").toString();
+    }
+
+    private static Map<Workload.Operation, Integer> weights(String mix) {
+        if (mix == null) {
+            return Workload.defaultWeights();
+        }
+        Map<Workload.Operation, Integer> weights = new HashMap<>();
+        for (String part : mix.split(",")) {
+            String[] pair = part.trim().split(":");
+            weights.put(Workload.Operation.valueOf(pair[0].trim().toUpperCase(Locale.ROOT)),
+                    Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options are given as --name=value, not " + arg);
+            }
+            int split = arg.indexOf('=');
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+        return options;
+    }
+
+    private static String withTrailingSlash(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
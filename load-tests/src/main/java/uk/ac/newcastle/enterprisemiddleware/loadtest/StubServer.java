@@ -0,0 +1,143 @@
+package uk.ac.newcastle.enterprisemiddleware.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>In-process stand-in for the remote area, flight and hotel APIs the service calls.</p>
+ *
+ * <p>Every response is delayed by the configured latency plus a uniformly random jitter, and a configured fraction of
+ * requests fail with 503, so the service can be measured against slow or unreliable providers. The three APIs are
+ * served on one port under their usual paths.</p>
+ *
+ * @author Yi Zhang
+ */
+final class StubServer implements AutoCloseable {
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double errorRate;
+    private final AtomicLong ids = new AtomicLong();
+    private final String areas;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    StubServer(long latencyMillis, long jitterMillis, double errorRate) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.errorRate = errorRate;
+
+        StringBuilder json = new StringBuilder("[");
+        for (int id = 200; id < 1000; id++) {
+            json.append(id == 200 ? "" : ",").append(area(id));
+        }
+        this.areas = json.append(']').toString();
+    }
+
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        // Latency is simulated by sleeping, so every in-flight request needs its own thread.
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/areas", this::handleAreas);
+        server.createContext("/flightBookings", this::handleBookings);
+        server.createContext("/hotelBookings", this::handleBookings);
+        server.start();
+    }
+
+    /**
+     * <p>Returns the base url to configure the service's rest clients with.</p>
+     */
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    private void handleAreas(HttpExchange exchange) throws IOException {
+        if (!delayOrFail(exchange)) {
+            return;
+        }
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        if (path.length > 2) {
+            int id = Integer.parseInt(path[2]);
+            if (id < 200 || id >= 1000) {
+                respond(exchange, 404, "{}");
+            } else {
+                respond(exchange, 200, area(id));
+            }
+        } else {
+            respond(exchange, 200, areas);
+        }
+    }
+
+    private void handleBookings(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+        if (!delayOrFail(exchange)) {
+            return;
+        }
+        String[] path = exchange.getRequestURI().getPath().split("/");
+        switch (exchange.getRequestMethod()) {
+            case "POST":
+                respond(exchange, 200, "{\"id\":" + ids.incrementAndGet() + "}");
+                break;
+            case "DELETE":
+                respond(exchange, 200, "{\"id\":" + (path.length > 2 ? path[2] : "null") + "}");
+                break;
+            default:
+                respond(exchange, 200, "[]");
+        }
+    }
+
+    private boolean delayOrFail(HttpExchange exchange) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+        try {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (random.nextDouble() < errorRate) {
+            respond(exchange, 503, "{\"error\":\"stubbed failure\"}");
+            return false;
+        }
+        return true;
+    }
+
+    private static String area(int id) {
+        return "{\"id\":" + id + ",\"state\":\"Stub State\",\"abbr\":\"ST\"}";
+    }
+
+    private static void drain(InputStream body) throws IOException {
+        try (body) {
+            body.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+}
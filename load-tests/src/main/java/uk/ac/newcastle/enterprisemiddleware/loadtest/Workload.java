@@ -0,0 +1,220 @@
+package uk.ac.newcastle.enterprisemiddleware.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * <p>The requests issued against the service, and the weighted mix they are drawn from.</p>
+ *
+ * <p>Customers and taxis are seeded before the run, so bookings refer to existing rows. Bookings pick a random
+ * customer, taxi and day, so a share of them conflict with earlier ones and are answered with 409, which is counted
+ * as a rejection rather than a failure.</p>
+ *
+ * @author Yi Zhang
+ */
+final class Workload {
+
+    private static final Pattern ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+
+    /**
+     * <p>The operations of the mix, with their default weights.</p>
+     */
+    enum Operation {
+        LIST_CUSTOMERS(15),
+        CREATE_CUSTOMER(10),
+        LIST_TAXIS(10),
+        AVAILABLE_TAXIS(15),
+        CREATE_TAXI(5),
+        LIST_BOOKINGS(10),
+        CREATE_BOOKING(20),
+        GUEST_BOOKING(10),
+        TRAVEL_AGENT(5);
+
+        final int defaultWeight;
+
+        Operation(int defaultWeight) {
+            this.defaultWeight = defaultWeight;
+        }
+    }
+
+    private final HttpClient client;
+    private final URI base;
+    private final Duration requestTimeout;
+    private final int bookingHorizonDays;
+    private final Operation[] mix;
+    private final int[] cumulativeWeights;
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong sequence = new AtomicLong();
+
+    private long[] customerIds = new long[0];
+    private long[] taxiIds = new long[0];
+
+    Workload(HttpClient client, URI base, Duration requestTimeout, int bookingHorizonDays, Map<Operation, Integer> weights) {
+        this.client = client;
+        this.base = base;
+        this.requestTimeout = requestTimeout;
+        this.bookingHorizonDays = bookingHorizonDays;
+
+        Map<Operation, Integer> active = new EnumMap<>(Operation.class);
+        weights.forEach((operation, weight) -> {
+            if (weight > 0) {
+                active.put(operation, weight);
+            }
+        });
+        if (active.isEmpty()) {
+            throw new IllegalArgumentException("The mix must give at least one operation a positive weight");
+        }
+        this.mix = active.keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[mix.length];
+        int total = 0;
+        for (int i = 0; i < mix.length; i++) {
+            total += active.get(mix[i]);
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    static Map<Operation, Integer> defaultWeights() {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            weights.put(operation, operation.defaultWeight);
+        }
+        return weights;
+    }
+
+    /**
+     * <p>Creates the customers and taxis the bookings are made for.</p>
+     */
+    void seed(int customers, int taxis) throws IOException, InterruptedException {
+        customerIds = create("customers", customers, this::customerJson);
+        taxiIds = create("taxis", taxis, this::taxiJson);
+    }
+
+    private long[] create(String path, int count, Supplier<String> body)
+            throws IOException, InterruptedException {
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            HttpResponse<String> response = client.send(post(path, body.get()), HttpResponse.BodyHandlers.ofString());
+            Matcher matcher = ID.matcher(response.body());
+            if (response.statusCode() != 201 || !matcher.find()) {
+                throw new IOException("Seeding " + path + " failed with " + response.statusCode() + ": "
+                        + response.body());
+            }
+            ids.add(Long.parseLong(matcher.group(1)));
+        }
+        return ids.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    Operation next() {
+        int pick = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return mix[i];
+            }
+        }
+        return mix[mix.length - 1];
+    }
+
+    /**
+     * <p>Issues one request of the given operation and returns its HTTP status.</p>
+     */
+    int execute(Operation operation) throws IOException, InterruptedException {
+        return client.send(request(operation), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private HttpRequest request(Operation operation) {
+        switch (operation) {
+            case LIST_CUSTOMERS:
+                return get("customers?limit=50");
+            case CREATE_CUSTOMER:
+                return post("customers", customerJson());
+            case LIST_TAXIS:
+                return get("taxis?limit=50");
+            case AVAILABLE_TAXIS:
+                return get("taxis/available?date=" + futureDay());
+            case CREATE_TAXI:
+                return post("taxis", taxiJson());
+            case LIST_BOOKINGS:
+                return get("bookings?limit=50");
+            case CREATE_BOOKING:
+                return post("bookings", "{\"customerId\":" + customer() + ",\"taxiId\":" + taxi()
+                        + ",\"bookDate\":\"" + futureDay() + "\"}");
+            case GUEST_BOOKING:
+                return post("guestBookings", "{\"customer\":" + customerJson() + ",\"booking\":{\"taxiId\":" + taxi()
+                        + ",\"bookDate\":\"" + futureDay() + "\"}}");
+            case TRAVEL_AGENT:
+                long customerId = customer();
+                String day = futureDay();
+                return post("travelAgent", "{\"customer\":{\"id\":" + customerId + "}"
+                        + ",\"taxiBooking\":{\"customerId\":" + customerId + ",\"taxiId\":" + taxi()
+                        + ",\"bookDate\":\"" + day + "\"}"
+                        + ",\"flightBooking\":{\"flightId\":1,\"customerId\":" + customerId
+                        + ",\"flightDate\":\"" + day + "\"}"
+                        + ",\"hotelBooking\":{\"hotelId\":1,\"customerId\":" + customerId
+                        + ",\"bookingdate\":\"" + day + "\"}}");
+            default:
+                throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(base.resolve(path))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(base.resolve(path))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    private String customerJson() {
+        long n = sequence.incrementAndGet();
+        return "{\"firstName\":\"Load\",\"lastName\":\"Test\",\"email\":\"load-" + runId + "-" + n
+                + "@example.com\",\"phoneNumber\":\"" + phoneNumber(n) + "\",\"birthDate\":\"1990-01-01\"}";
+    }
+
+    private String taxiJson() {
+        long n = sequence.incrementAndGet();
+        // Seven alphanumeric characters, unique per run for up to 36^5 taxis.
+        String suffix = Long.toString(n, 36).toUpperCase();
+        String registration = "LT" + "00000".substring(Math.min(5, suffix.length())) + suffix;
+        return "{\"registrationNumber\":\"" + registration.substring(registration.length() - 7)
+                + "\",\"seatNumber\":" + (2 + n % 19) + ",\"phoneNumber\":\"" + phoneNumber(n) + "\"}";
+    }
+
+    private static String phoneNumber(long n) {
+        return String.format("0%010d", n % 10_000_000_000L);
+    }
+
+    private long customer() {
+        return customerIds[ThreadLocalRandom.current().nextInt(customerIds.length)];
+    }
+
+    private long taxi() {
+        return taxiIds[ThreadLocalRandom.current().nextInt(taxiIds.length)];
+    }
+
+    private String futureDay() {
+        return LocalDate.now().plusDays(1 + ThreadLocalRandom.current().nextInt(bookingHorizonDays)).toString();
+    }
+}
@@ -1,6 +1,8 @@
 package uk.ac.newcastle.enterprisemiddleware.area;
 
+import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+import uk.ac.newcastle.enterprisemiddleware.util.ClientMetricsFilter;
 
 import javax.enterprise.context.Dependent;
 import javax.ws.rs.GET;
@@ -17,6 +19,7 @@ import java.util.List;
  */
 @Path("/areas")
 @RegisterRestClient(configKey = "area-api")
+@RegisterProvider(ClientMetricsFilter.class)
 public interface AreaService {
 
     @GET
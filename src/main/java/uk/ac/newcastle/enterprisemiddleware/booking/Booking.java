@@ -1,6 +1,7 @@
 package uk.ac.newcastle.enterprisemiddleware.booking;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.UpdateTimestamp;
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 import uk.ac.newcastle.enterprisemiddleware.taxi.Taxi;
 
@@ -23,13 +24,56 @@ import java.util.Objects;
 /*
  * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
  * form of query in JPA though is it more error phone due to the syntax being in a String.  This makes it harder to debug.
+ *
+ * findAllAfter repeats the leading sort column as a range (customerId >= :customerId) so the database seeks into
+ * idx_booking_customer at the page boundary instead of reading the index from the start.
+ *
+ * The customer and taxi are lazy and read-only, the ids are the writable columns. Queries that need them load them
+ * in the same statement, either with an entity graph below or with JOIN FETCH, so a list of n Bookings costs one
+ * SELECT and not 1 + n. FIND_VIEWS_BETWEEN reads only the columns of a BookingView and creates no entities.
  */
 @Entity
 @NamedQueries({
-        @NamedQuery(name = Booking.FIND_ALL, query = "SELECT b FROM Booking b ORDER BY b.customerId ASC"),
+        @NamedQuery(name = Booking.FIND_ALL, query = "SELECT b FROM Booking b ORDER BY b.customerId ASC, b.id ASC"),
+        @NamedQuery(name = Booking.FIND_ALL_AFTER, query = "SELECT b FROM Booking b WHERE b.customerId >= :customerId AND " +
+                "(b.customerId > :customerId OR b.id > :id) ORDER BY b.customerId ASC, b.id ASC"),
+        @NamedQuery(name = Booking.FIND_IDS_BY_TAXI_AND_DATE, query = "SELECT b.id FROM Booking b WHERE b.taxiId = :taxiId AND b.bookDate = :bookDate"),
+        @NamedQuery(name = Booking.FIND_TAXI_DATES, query = "SELECT b.taxiId, b.bookDate FROM Booking b WHERE b.bookDate IS NOT NULL"),
+        @NamedQuery(name = Booking.FIND_CONFLICTS, query = "SELECT b.taxiId, b.customerId, b.bookDate FROM Booking b " +
+                "WHERE b.taxiId IN :taxiIds AND (b.bookDate IN :bookDates OR b.customerId IN :customerIds)"),
+        @NamedQuery(name = Booking.FIND_EXISTING_CUSTOMER_IDS, query = "SELECT c.id FROM Customer c WHERE c.id IN :ids"),
+        @NamedQuery(name = Booking.FIND_EXISTING_TAXI_IDS, query = "SELECT t.id FROM Taxi t WHERE t.id IN :ids"),
+        @NamedQuery(name = Booking.FIND_WITH_TAXI_BETWEEN, query = "SELECT b FROM Booking b JOIN FETCH b.taxi " +
+                "WHERE b.bookDate >= :from AND b.bookDate <= :to ORDER BY b.bookDate ASC, b.id ASC"),
+        @NamedQuery(name = Booking.FIND_VIEWS_BETWEEN, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.booking.BookingView(" +
+                "b.id, b.bookDate, c.id, c.firstName, c.lastName, c.email, t.id, t.registrationNumber, t.seatNumber) " +
+                "FROM Booking b JOIN b.customer c JOIN b.taxi t " +
+                "WHERE b.bookDate >= :from AND b.bookDate <= :to ORDER BY b.bookDate ASC, b.id ASC"),
+        // Outer joins keep Booking as the driving table of the two listing queries, so a page is read in order from
+        // idx_booking_customer rather than by scanning customer. Both foreign keys are not null, so they add no rows.
+        @NamedQuery(name = Booking.FIND_VIEWS, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.booking.BookingView(" +
+                "b.id, b.bookDate, c.id, c.firstName, c.lastName, c.email, t.id, t.registrationNumber, t.seatNumber) " +
+                "FROM Booking b LEFT JOIN b.customer c LEFT JOIN b.taxi t ORDER BY b.customerId ASC, b.id ASC"),
+        @NamedQuery(name = Booking.FIND_VIEWS_AFTER, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.booking.BookingView(" +
+                "b.id, b.bookDate, c.id, c.firstName, c.lastName, c.email, t.id, t.registrationNumber, t.seatNumber) " +
+                "FROM Booking b LEFT JOIN b.customer c LEFT JOIN b.taxi t " +
+                "WHERE b.customerId >= :customerId AND (b.customerId > :customerId OR b.id > :id) " +
+                "ORDER BY b.customerId ASC, b.id ASC")
+})
+@NamedEntityGraphs({
+        @NamedEntityGraph(name = Booking.WITH_CUSTOMER, attributeNodes = @NamedAttributeNode("customer")),
+        @NamedEntityGraph(name = Booking.WITH_TAXI, attributeNodes = @NamedAttributeNode("taxi")),
+        @NamedEntityGraph(name = Booking.WITH_CUSTOMER_AND_TAXI, attributeNodes = {
+                @NamedAttributeNode("customer"), @NamedAttributeNode("taxi")})
 })
 @XmlRootElement
-@Table(name = "Booking", uniqueConstraints = @UniqueConstraint(columnNames = {"taxi_id","customer_id"}))
+@Table(name = "Booking", uniqueConstraints = {
+        @UniqueConstraint(name = Booking.UNIQUE_TAXI_CUSTOMER, columnNames = {"taxi_id", "customer_id"}),
+        @UniqueConstraint(name = Booking.UNIQUE_TAXI_DATE, columnNames = {"taxi_id", "book_date"})
+}, indexes = {
+        @Index(name = "idx_booking_customer", columnList = "customer_id, id"),
+        @Index(name = "idx_booking_book_date", columnList = "book_date, id")
+})
 
 public class Booking implements Serializable {
     /**
@@ -38,8 +82,30 @@ public class Booking implements Serializable {
     private static final long serialVersionUID = 1462154887L;
 
     public static final String FIND_ALL = "Booking.findAll";
+    public static final String FIND_ALL_AFTER = "Booking.findAllAfter";
+    public static final String FIND_TAXI_DATES = "Booking.findTaxiDates";
+    public static final String FIND_IDS_BY_TAXI_AND_DATE = "Booking.findIdsByTaxiAndDate";
+    public static final String FIND_CONFLICTS = "Booking.findConflicts";
+    public static final String FIND_EXISTING_CUSTOMER_IDS = "Booking.findExistingCustomerIds";
+    public static final String FIND_EXISTING_TAXI_IDS = "Booking.findExistingTaxiIds";
+    public static final String FIND_WITH_TAXI_BETWEEN = "Booking.findWithTaxiBetween";
+    public static final String FIND_VIEWS_BETWEEN = "Booking.findViewsBetween";
+    public static final String FIND_VIEWS = "Booking.findViews";
+    public static final String FIND_VIEWS_AFTER = "Booking.findViewsAfter";
+
+    public static final String WITH_CUSTOMER = "Booking.withCustomer";
+    public static final String WITH_TAXI = "Booking.withTaxi";
+    public static final String WITH_CUSTOMER_AND_TAXI = "Booking.withCustomerAndTaxi";
+
+    public static final String UNIQUE_TAXI_DATE = "uk_booking_taxi_date";
+    public static final String UNIQUE_TAXI_CUSTOMER = "uk_booking_taxi_customer";
+    /*
+     * Ids come from a pooled sequence rather than an identity column, so Hibernate knows the id before the insert and
+     * can send the inserts of a batch in one JDBC batch. One sequence call hands out a block of 50 ids.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "booking_seq")
+    @SequenceGenerator(name = "booking_seq", sequenceName = "booking_seq", allocationSize = 50)
     private Long id;
 
     @NotNull
@@ -56,6 +122,20 @@ public class Booking implements Serializable {
     @Temporal(TemporalType.DATE)
     private Date bookDate;
 
+    /*
+     * Hibernate increments the version on every update, and an update carrying an older version than the stored row
+     * fails with an OptimisticLockException instead of overwriting the newer change. The version and the time of the
+     * last change are the HTTP validators (ETag and Last-Modified) of GET /bookings/{id}.
+     */
+    @Version
+    @Column(name = "version")
+    private Long version;
+
+    @JsonIgnore
+    @UpdateTimestamp
+    @Column(name = "last_modified")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lastModified;
 
     public Booking( Long id, Date bookingDate) {
         this.id=id;
@@ -97,16 +177,36 @@ public class Booking implements Serializable {
         this.taxiId = taxiId;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
     @JsonIgnore
-    @JoinColumn(name = "customerId", insertable = false, updatable = false)
-    @ManyToOne(cascade = CascadeType.REMOVE)
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "customer_id", insertable = false, updatable = false)
     private Customer customer;
 
     @JsonIgnore
-    @JoinColumn(name = "taxiId", insertable = false, updatable = false)
-    @ManyToOne(cascade = CascadeType.REMOVE)
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "taxi_id", insertable = false, updatable = false)
     private Taxi taxi;
 
+    public Customer getCustomer() {
+        return customer;
+    }
+
+    public Taxi getTaxi() {
+        return taxi;
+    }
+
     @Override
     public String toString() {
         return "Booking{" +
@@ -114,8 +214,6 @@ public class Booking implements Serializable {
                 ", customerId=" + customerId +
                 ", taxiId=" + taxiId +
                 ", bookDate=" + bookDate +
-                ", customer=" + customer +
-                ", taxi=" + taxi +
                 '}';
     }
 }
@@ -0,0 +1,140 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * <p>A change to a {@link Booking}, kept in the booking_event outbox table.</p>
+ *
+ * <p>The event is written in the same transaction as the change, so an event exists exactly when the change was
+ * committed. The payload is the JSON of the Booking after the change, or before it for a deletion.</p>
+ *
+ * <p>The id is taken from a sequence before the transaction commits, so events can commit out of id order. Once an
+ * event has committed the {@link BookingEventBroadcaster} gives it the next stream position, one event at a time,
+ * so the positions follow the order in which the events became visible. The stream position is the id of the
+ * server-sent event and the point a client resumes the stream from. It is null until the event is published.</p>
+ *
+ * @author Yi Zhang
+ * @see BookingEventLog
+ * @see BookingEventBroadcaster
+ */
+@Entity
+@NamedQueries({
+        @NamedQuery(name = BookingEvent.FIND_AFTER, query = "SELECT e FROM BookingEvent e WHERE e.streamPosition > :position ORDER BY e.streamPosition ASC"),
+        @NamedQuery(name = BookingEvent.FIND_UNPUBLISHED, query = "SELECT e FROM BookingEvent e WHERE e.streamPosition IS NULL ORDER BY e.id ASC"),
+        @NamedQuery(name = BookingEvent.FIND_LAST_POSITION, query = "SELECT MAX(e.streamPosition) FROM BookingEvent e"),
+        @NamedQuery(name = BookingEvent.DELETE_BEFORE, query = "DELETE FROM BookingEvent e WHERE e.streamPosition < :position")
+})
+@Table(name = "booking_event", indexes = {
+        @Index(name = "uk_booking_event_stream_position", columnList = "stream_position", unique = true)
+})
+public class BookingEvent implements Serializable {
+
+    private static final long serialVersionUID = 7760124498135L;
+
+    public static final String FIND_AFTER = "BookingEvent.findAfter";
+    public static final String FIND_UNPUBLISHED = "BookingEvent.findUnpublished";
+    public static final String FIND_LAST_POSITION = "BookingEvent.findLastPosition";
+    public static final String DELETE_BEFORE = "BookingEvent.deleteBefore";
+
+    public enum Type {
+        CREATED("BookingCreated"),
+        UPDATED("BookingUpdated"),
+        DELETED("BookingDeleted");
+
+        private final String eventName;
+
+        Type(String eventName) {
+            this.eventName = eventName;
+        }
+
+        /**
+         * @return The name of the server-sent event
+         */
+        public String getEventName() {
+            return eventName;
+        }
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "booking_event_seq")
+    @SequenceGenerator(name = "booking_event_seq", sequenceName = "booking_event_seq", allocationSize = 50)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", nullable = false, length = 16)
+    private Type type;
+
+    @Column(name = "booking_id", nullable = false)
+    private Long bookingId;
+
+    @Column(name = "payload", nullable = false, length = 4000)
+    private String payload;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "created_at", nullable = false)
+    private Date createdAt;
+
+    @Column(name = "stream_position")
+    private Long streamPosition;
+
+    @PrePersist
+    void touch() {
+        createdAt = new Date();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Long getBookingId() {
+        return bookingId;
+    }
+
+    public void setBookingId(Long bookingId) {
+        this.bookingId = bookingId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    public Long getStreamPosition() {
+        return streamPosition;
+    }
+
+    public void setStreamPosition(Long streamPosition) {
+        this.streamPosition = streamPosition;
+    }
+
+    @Override
+    public String toString() {
+        return "BookingEvent{" +
+                "id=" + id +
+                ", type=" + type +
+                ", bookingId=" + bookingId +
+                ", streamPosition=" + streamPosition +
+                '}';
+    }
+}
@@ -0,0 +1,246 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.smallrye.mutiny.subscription.BackPressureFailure;
+import io.smallrye.mutiny.subscription.MultiEmitter;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Sends committed {@link BookingEvent}s to the clients of the booking event stream.</p>
+ *
+ * <p>A single relay thread publishes the events. It is woken when a transaction that wrote events commits, and
+ * otherwise looks every <code>booking-events.poll-millis</code>. Each time it gives the committed events that have
+ * no stream position the next positions, in one transaction, and then sends them in that order. Events are therefore
+ * sent in the order of their positions, and an event that commits late is given a position after every event
+ * already sent, so a client resuming from a position never skips it.</p>
+ *
+ * <p>Each client gets its own {@link Multi}. A client that sends the position of the last event it saw is first sent
+ * the events that followed it, read back from the {@link BookingEventLog}, and then the live events. Live events that
+ * arrive while the missed ones are read are held and sent afterwards, so none is lost or sent twice. A client that
+ * missed more than <code>booking-events.replay-limit</code> events is sent that many and the stream is completed, so
+ * it reconnects from the last one and reads the rest.</p>
+ *
+ * <p>Publishing never waits for a client. The stream only sends as fast as the client reads, and the events it has
+ * not read yet are held in a buffer of <code>booking-events.buffer-size</code> events per client. A client that
+ * falls further behind has its stream failed, and resumes from its last event when it reconnects, which costs a read
+ * of the outbox rather than memory or the time of the writers.</p>
+ *
+ * <p>Every {@link #PRUNE_EVERY} events the outbox is trimmed to the last <code>booking-events.retained</code>
+ * positions.</p>
+ *
+ * @author Yi Zhang
+ * @see BookingEventLog
+ */
+@ApplicationScoped
+public class BookingEventBroadcaster {
+
+    static final int PRUNE_EVERY = 1000;
+
+    static final int RELAY_BATCH = 500;
+
+    @Inject
+    @Named("logger")
+    StructuredLogger log;
+
+    @Inject
+    BookingEventLog eventLog;
+
+    @ConfigProperty(name = "booking-events.buffer-size", defaultValue = "512")
+    int bufferSize;
+
+    @ConfigProperty(name = "booking-events.replay-limit", defaultValue = "256")
+    int replayLimit;
+
+    @ConfigProperty(name = "booking-events.retained", defaultValue = "100000")
+    long retained;
+
+    @ConfigProperty(name = "booking-events.poll-millis", defaultValue = "1000")
+    long pollMillis;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private final Semaphore signal = new Semaphore(0);
+
+    private ExecutorService relay;
+
+    void onStart(@Observes StartupEvent event) {
+        relay = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "booking-event-relay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        relay.execute(this::relay);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (relay != null) {
+            relay.shutdownNow();
+        }
+    }
+
+    /**
+     * <p>Returns the stream of events for one client.</p>
+     *
+     * @param lastPosition The stream position of the last event the client has seen, or null to start with the next
+     *                     live event
+     * @return The events, in stream order
+     */
+    public Multi<BookingEvent> stream(Long lastPosition) {
+        return Multi.createFrom().<BookingEvent>emitter(emitter -> subscribe(emitter, lastPosition))
+                // The missed events are read from the database, which must not block the event loop.
+                .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
+                .onOverflow().buffer(bufferSize)
+                .onFailure(BackPressureFailure.class).invoke(e ->
+                        log.info("BookingEventBroadcaster.slowSubscriber", "bufferSize", bufferSize));
+    }
+
+    /**
+     * <p>Wakes the relay. Called once a transaction that wrote events has committed.</p>
+     */
+    void wake() {
+        signal.release();
+    }
+
+    /**
+     * <p>Sends an event, which already has its stream position, to every client.</p>
+     *
+     * @param event The published event
+     */
+    void publish(BookingEvent event) {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    /**
+     * @return The number of clients connected to the stream
+     */
+    int subscriberCount() {
+        return subscribers.size();
+    }
+
+    /*
+     * The body of the relay thread. The last position is read from the outbox at the start, and again after any
+     * failure, since a failed transaction may or may not have given out positions.
+     */
+    private void relay() {
+        Long position = null;
+        long sincePrune = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                signal.tryAcquire(pollMillis, TimeUnit.MILLISECONDS);
+                signal.drainPermits();
+                if (position == null) {
+                    position = eventLog.findLastPosition();
+                }
+                List<BookingEvent> events;
+                do {
+                    events = eventLog.publishUnpublished(position, RELAY_BATCH);
+                    for (BookingEvent event : events) {
+                        publish(event);
+                        position = event.getStreamPosition();
+                    }
+                    sincePrune += events.size();
+                } while (events.size() == RELAY_BATCH);
+                if (sincePrune >= PRUNE_EVERY && position > retained) {
+                    sincePrune = 0;
+                    prune(position - retained);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                log.warn("BookingEventBroadcaster.relayFailed", e, "position", position);
+                position = null;
+            }
+        }
+    }
+
+    private void subscribe(MultiEmitter<? super BookingEvent> emitter, Long lastPosition) {
+        // Register before reading the missed events, so an event published in between is held rather than lost.
+        Subscriber subscriber = new Subscriber(emitter);
+        subscribers.add(subscriber);
+        emitter.onTermination(() -> subscribers.remove(subscriber));
+
+        long seen = Long.MIN_VALUE;
+        if (lastPosition != null) {
+            seen = lastPosition;
+            List<BookingEvent> missed;
+            try {
+                missed = eventLog.findAfter(lastPosition, replayLimit + 1);
+            } catch (RuntimeException e) {
+                log.warn("BookingEventBroadcaster.replayFailed", e, "lastPosition", lastPosition);
+                emitter.fail(e);
+                return;
+            }
+            for (BookingEvent event : missed.subList(0, Math.min(missed.size(), replayLimit))) {
+                emitter.emit(event);
+                seen = event.getStreamPosition();
+            }
+            if (missed.size() > replayLimit) {
+                emitter.complete();
+                return;
+            }
+        }
+        subscriber.goLive(seen);
+    }
+
+    private void prune(long oldest) {
+        try {
+            eventLog.deleteBefore(oldest);
+        } catch (RuntimeException e) {
+            log.warn("BookingEventBroadcaster.pruneFailed", e, "oldest", oldest);
+        }
+    }
+
+    /**
+     * <p>One client. Until its missed events have been sent, live events are held rather than emitted.</p>
+     */
+    private final class Subscriber {
+        private final MultiEmitter<? super BookingEvent> emitter;
+        private List<BookingEvent> held = new ArrayList<>();
+
+        private Subscriber(MultiEmitter<? super BookingEvent> emitter) {
+            this.emitter = emitter;
+        }
+
+        synchronized void offer(BookingEvent event) {
+            if (held == null) {
+                emitter.emit(event);
+            } else if (held.size() < bufferSize) {
+                held.add(event);
+            } else {
+                emitter.fail(new BackPressureFailure("More than " + bufferSize + " events arrived during the replay"));
+            }
+        }
+
+        /*
+         * Sends the held events that follow the last one the client has seen. Positions are published in order, so
+         * the rest were already sent by the replay.
+         */
+        synchronized void goLive(long seen) {
+            for (BookingEvent event : held) {
+                if (event.getStreamPosition() > seen) {
+                    emitter.emit(event);
+                }
+            }
+            held = null;
+        }
+    }
+}
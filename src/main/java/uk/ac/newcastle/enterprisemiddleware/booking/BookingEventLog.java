@@ -0,0 +1,129 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+import uk.ac.newcastle.enterprisemiddleware.util.TransactionCallbacks;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.control.ActivateRequestContext;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.List;
+
+/**
+ * <p>The outbox of {@link BookingEvent}s.</p>
+ *
+ * <p>{@link #record(BookingEvent.Type, Booking)} writes an event in the transaction that changes the Booking, and
+ * wakes the {@link BookingEventBroadcaster} once that transaction commits. The broadcaster then gives the committed
+ * events their stream positions with {@link #publishUnpublished(long, int)} and sends them. An event therefore
+ * reaches the stream only if the change is durable, and a client that missed it can read it back with
+ * {@link #findAfter(long, int)}.</p>
+ *
+ * <p>The other methods are called from the broadcaster's and the stream's own threads, so they activate a request
+ * context of their own.</p>
+ *
+ * @author Yi Zhang
+ * @see BookingEvent
+ */
+@ApplicationScoped
+public class BookingEventLog {
+
+    @Inject
+    @Named("logger")
+    StructuredLogger log;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @Inject
+    TransactionCallbacks transactionCallbacks;
+
+    @Inject
+    BookingEventBroadcaster broadcaster;
+
+    /**
+     * <p>Writes an event for a change to the Booking in the current transaction.</p>
+     *
+     * @param type    The kind of change
+     * @param booking The Booking after the change, or before it for a deletion
+     */
+    @Transactional(Transactional.TxType.MANDATORY)
+    public void record(BookingEvent.Type type, Booking booking) {
+        BookingEvent event = new BookingEvent();
+        event.setType(type);
+        event.setBookingId(booking.getId());
+        try {
+            event.setPayload(mapper.writeValueAsString(booking));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("The booking cannot be written as an event", e);
+        }
+        em.persist(event);
+        transactionCallbacks.afterCommit(broadcaster::wake);
+    }
+
+    /**
+     * <p>Gives the next stream positions to the committed events which have none yet, in id order, and returns
+     * them. Only the broadcaster's relay thread calls this, so positions are never given out twice.</p>
+     *
+     * @param lastPosition The last position given out
+     * @param limit        The maximum number of events to publish
+     * @return The events published, in stream order
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public List<BookingEvent> publishUnpublished(long lastPosition, int limit) {
+        List<BookingEvent> events = em.createNamedQuery(BookingEvent.FIND_UNPUBLISHED, BookingEvent.class)
+                .setMaxResults(limit)
+                .getResultList();
+        long position = lastPosition;
+        for (BookingEvent event : events) {
+            event.setStreamPosition(++position);
+        }
+        return events;
+    }
+
+    /**
+     * <p>Returns the last stream position given out, or 0 if none has been.</p>
+     */
+    @ActivateRequestContext
+    public long findLastPosition() {
+        Long last = em.createNamedQuery(BookingEvent.FIND_LAST_POSITION, Long.class).getSingleResult();
+        return last == null ? 0 : last;
+    }
+
+    /**
+     * <p>Returns the published events that follow the given stream position, in stream order.</p>
+     *
+     * @param position The stream position of the last event the client has seen
+     * @param limit    The maximum number of events to return
+     * @return List of at most limit BookingEvents
+     */
+    @ActivateRequestContext
+    public List<BookingEvent> findAfter(long position, int limit) {
+        return em.createNamedQuery(BookingEvent.FIND_AFTER, BookingEvent.class)
+                .setParameter("position", position)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * <p>Deletes the published events before the given stream position. A client that resumes from a deleted event
+     * is sent the events that are left.</p>
+     *
+     * @param position The stream position of the oldest event to keep
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void deleteBefore(long position) {
+        int deleted = em.createNamedQuery(BookingEvent.DELETE_BEFORE)
+                .setParameter("position", position)
+                .executeUpdate();
+        log.debug("BookingEventLog.deleteBefore", "position", position, "deleted", deleted);
+    }
+}
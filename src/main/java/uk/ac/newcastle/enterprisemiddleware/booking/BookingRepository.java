@@ -1,6 +1,9 @@
 package uk.ac.newcastle.enterprisemiddleware.booking;
 
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.util.Metered;
+import uk.ac.newcastle.enterprisemiddleware.util.ReadOnlyQueries;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
 
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
@@ -8,8 +11,11 @@ import javax.inject.Named;
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 import javax.validation.ConstraintViolationException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Set;
 
 /**
  * <p>This is a Repository class and connects the Service/Control layer (see {@link BookingService} with the
@@ -22,12 +28,15 @@ import java.util.logging.Logger;
  * @see Booking
  * @see EntityManager
  */
+@Metered
 @RequestScoped
 public class BookingRepository {
 
+    private static final String FETCH_GRAPH = "javax.persistence.fetchgraph";
+
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     EntityManager em;
@@ -42,6 +51,108 @@ public class BookingRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns one page of persistent {@link Booking} objects, sorted by customerId and then id.</p>
+     *
+     * <p>The page starts directly after the Booking with the given sort key. If the key is null the first page is
+     * returned.</p>
+     *
+     * @param customerId The customerId of the last Booking on the previous page, or null for the first page
+     * @param id         The id of the last Booking on the previous page
+     * @param limit      The maximum number of Bookings to return
+     * @return List of at most limit Booking objects
+     */
+    List<Booking> findPageOrderedByCustomer(Long customerId, Long id, int limit) {
+        TypedQuery<Booking> query;
+        if (customerId == null) {
+            query = em.createNamedQuery(Booking.FIND_ALL, Booking.class);
+        } else {
+            query = em.createNamedQuery(Booking.FIND_ALL_AFTER, Booking.class)
+                    .setParameter("customerId", customerId)
+                    .setParameter("id", id);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * <p>Returns the same page as {@link #findPageOrderedByCustomer(Long, Long, int)}, with the Customer and Taxi of
+     * every Booking loaded by the same SELECT.</p>
+     *
+     * @param customerId The customerId of the last Booking on the previous page, or null for the first page
+     * @param id         The id of the last Booking on the previous page
+     * @param limit      The maximum number of Bookings to return
+     * @return List of at most limit Booking objects with their Customer and Taxi
+     */
+    List<Booking> findPageWithCustomerAndTaxi(Long customerId, Long id, int limit) {
+        TypedQuery<Booking> query;
+        if (customerId == null) {
+            query = em.createNamedQuery(Booking.FIND_ALL, Booking.class);
+        } else {
+            query = em.createNamedQuery(Booking.FIND_ALL_AFTER, Booking.class)
+                    .setParameter("customerId", customerId)
+                    .setParameter("id", id);
+        }
+        return query.setHint(FETCH_GRAPH, em.getEntityGraph(Booking.WITH_CUSTOMER_AND_TAXI))
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * <p>Returns the Bookings from one date to another, inclusive, sorted by date, with the Taxi of every Booking
+     * loaded by the same SELECT.</p>
+     *
+     * @param from  The first date
+     * @param to    The last date
+     * @param limit The maximum number of Bookings to return
+     * @return List of at most limit Booking objects with their Taxi
+     */
+    List<Booking> findBetweenWithTaxi(Date from, Date to, int limit) {
+        return em.createNamedQuery(Booking.FIND_WITH_TAXI_BETWEEN, Booking.class)
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    /**
+     * <p>Returns the same page as {@link #findPageOrderedByCustomer(Long, Long, int)} as read-only
+     * {@link BookingView} objects, read with one SELECT joining Customer and Taxi. No entities are created.</p>
+     *
+     * @param customerId The customerId of the last Booking on the previous page, or null for the first page
+     * @param id         The id of the last Booking on the previous page
+     * @param limit      The maximum number of Bookings to return
+     * @return List of at most limit BookingView objects
+     */
+    List<BookingView> findViewPage(Long customerId, Long id, int limit) {
+        TypedQuery<BookingView> query;
+        if (customerId == null) {
+            query = em.createNamedQuery(Booking.FIND_VIEWS, BookingView.class);
+        } else {
+            query = em.createNamedQuery(Booking.FIND_VIEWS_AFTER, BookingView.class)
+                    .setParameter("customerId", customerId)
+                    .setParameter("id", id);
+        }
+        return ReadOnlyQueries.readOnly(query).setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * <p>Returns a {@link BookingView} of each Booking from one date to another, inclusive, sorted by date.</p>
+     *
+     * <p>The views are built from the columns of one SELECT joining Customer and Taxi. No entities are created.</p>
+     *
+     * @param from  The first date
+     * @param to    The last date
+     * @param limit The maximum number of views to return
+     * @return List of at most limit BookingView objects
+     */
+    List<BookingView> findViewsBetween(Date from, Date to, int limit) {
+        return ReadOnlyQueries.readOnly(em.createNamedQuery(Booking.FIND_VIEWS_BETWEEN, BookingView.class))
+                .setParameter("from", from)
+                .setParameter("to", to)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
     /**
      * <p>Returns a single Booking object, specified by a Long booking id.<p/>
      *
@@ -52,6 +163,85 @@ public class BookingRepository {
         return em.find(Booking.class, bookingId);
     }
 
+    /**
+     * <p>Checks whether another Booking already holds the given taxi on the given date.</p>
+     *
+     * <p>The lookup is served by the unique index on (taxi_id, book_date).</p>
+     *
+     * @param taxiId    The id of the taxi
+     * @param bookDate  The booking date
+     * @param excludeId The id of the Booking being updated, which may hold the slot itself, or null
+     * @return true if a different Booking holds the taxi on that date
+     */
+    boolean isTaxiBookedOn(Long taxiId, Date bookDate, Long excludeId) {
+        List<Long> ids = em.createNamedQuery(Booking.FIND_IDS_BY_TAXI_AND_DATE, Long.class)
+                .setParameter("taxiId", taxiId)
+                .setParameter("bookDate", bookDate)
+                .setMaxResults(2)
+                .getResultList();
+        for (Long id : ids) {
+            if (!id.equals(excludeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>Returns the existing bookings which share a taxi with the given bookings and also share either a date or a
+     * customer, as [taxiId, customerId, bookDate] rows. This is everything needed to check a chunk of new bookings
+     * against both unique constraints of the Booking table in one query.</p>
+     *
+     * @param taxiIds     The taxis of the new bookings
+     * @param bookDates   The dates of the new bookings
+     * @param customerIds The customers of the new bookings
+     * @return List of [taxiId, customerId, bookDate] rows
+     */
+    List<Object[]> findConflicts(Collection<Long> taxiIds, Collection<Date> bookDates, Collection<Long> customerIds) {
+        return em.createNamedQuery(Booking.FIND_CONFLICTS, Object[].class)
+                .setParameter("taxiIds", taxiIds)
+                .setParameter("bookDates", bookDates)
+                .setParameter("customerIds", customerIds)
+                .getResultList();
+    }
+
+    /**
+     * <p>Returns which of the given customer ids belong to an existing Customer.</p>
+     */
+    Set<Long> findExistingCustomerIds(Collection<Long> ids) {
+        return new HashSet<>(em.createNamedQuery(Booking.FIND_EXISTING_CUSTOMER_IDS, Long.class)
+                .setParameter("ids", ids)
+                .getResultList());
+    }
+
+    /**
+     * <p>Returns which of the given taxi ids belong to an existing Taxi.</p>
+     */
+    Set<Long> findExistingTaxiIds(Collection<Long> ids) {
+        return new HashSet<>(em.createNamedQuery(Booking.FIND_EXISTING_TAXI_IDS, Long.class)
+                .setParameter("ids", ids)
+                .getResultList());
+    }
+
+    /**
+     * <p>Persists a chunk of Bookings in one flush, so the inserts are sent as JDBC batches, then clears the
+     * persistence context so the next chunk starts empty.</p>
+     *
+     * @param books The Bookings to be persisted
+     * @return The persisted Bookings, with their ids set
+     */
+    List<Booking> createAll(List<Booking> books) {
+        log.debug("BookingRepository.createAll", "size", books.size());
+
+        for (Booking book : books) {
+            em.persist(book);
+        }
+        em.flush();
+        em.clear();
+
+        return books;
+    }
+
     /**
      * <p>Persists the provided Booking object to the application database using the EntityManager.</p>
      *
@@ -65,10 +255,11 @@ public class BookingRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     public Booking create(Booking book) throws Exception {
-        log.info("BookingService.create() - Creating "+ book.toString());
+        log.debug("BookingRepository.create", "taxiId", book.getTaxiId(), "customerId", book.getCustomerId());
 
-        // Write the booking to the database.
+        // Write the booking to the database, and flush so a unique index violation is reported here.
         em.persist(book);
+        em.flush();
 
         return book;
     }
@@ -87,12 +278,13 @@ public class BookingRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     public Booking update(Booking book) throws Exception {
-        log.info("TaxiRepository.update() - Updating " + book.getId() );
+        log.debug("BookingRepository.update", "id", book.getId());
 
         // Either update the booking or add it if it can't be found.
-        em.merge(book);
+        Booking merged = em.merge(book);
+        em.flush();
 
-        return book;
+        return merged;
     }
 
     /**
@@ -103,7 +295,7 @@ public class BookingRepository {
      * @throws Exception
      */
     public Booking delete(Booking book) throws Exception {
-        log.info("TaxiRepository.delete() - Deleting " + book.getId() );
+        log.debug("BookingRepository.delete", "id", book.getId());
 
         if (book.getId() != null) {
             /*
@@ -122,7 +314,7 @@ public class BookingRepository {
             em.remove(em.merge(book));
 
         } else {
-            log.info("TaxiRepository.delete() - No ID was found so can't Delete.");
+            log.debug("BookingRepository.delete.noId");
         }
 
         return book;
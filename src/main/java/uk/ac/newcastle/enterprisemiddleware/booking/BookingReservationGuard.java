@@ -0,0 +1,96 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import javax.enterprise.context.ApplicationScoped;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>Serialises booking attempts that compete for the same taxi on the same date.</p>
+ *
+ * <p>Each (taxiId, bookDate) key is hashed onto one of a fixed set of lock stripes. Attempts on the same key always
+ * meet on the same stripe and run one at a time, while attempts on unrelated taxis almost always land on different
+ * stripes and run in parallel. The stripe count grows with the number of cores so the chance of two unrelated
+ * bookings sharing a stripe stays low.</p>
+ *
+ * <p>A stripe is a {@link Semaphore} rather than a lock so it can be released from the transaction completion
+ * callback, which is not guaranteed to run on the thread that acquired it. Acquisition has a timeout so a caller
+ * that cannot get the stripe quickly fails fast instead of queueing behind a convoy.</p>
+ *
+ * <p>The guard only prevents races between the check and the insert inside this JVM. The unique index on
+ * (taxi_id, book_date) remains the final word across processes, and is all a batch relies on: a chunk of hundreds
+ * of bookings would hold nearly every stripe and stall the unrelated bookings written meanwhile.</p>
+ *
+ * @author Yi Zhang
+ * @see BookingService
+ */
+@ApplicationScoped
+public class BookingReservationGuard {
+
+    private final Semaphore[] stripes;
+    private final int mask;
+
+    public BookingReservationGuard() {
+        this(Math.max(64, Runtime.getRuntime().availableProcessors() * 16));
+    }
+
+    BookingReservationGuard(int minimumStripes) {
+        int size = Integer.highestOneBit(Math.max(1, minimumStripes - 1)) << 1;
+        this.stripes = new Semaphore[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Semaphore(1);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * <p>Tries to reserve the given taxi and date for the caller.</p>
+     *
+     * @param taxiId   The id of the taxi to be booked
+     * @param epochDay The booking date as a number of days since 1970-01-01
+     * @param timeout  How long to wait for a competing attempt to finish
+     * @param unit     The unit of the timeout
+     * @return The Reservation, which must be closed once the booking transaction has completed, or null if the
+     * stripe could not be acquired within the timeout
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Reservation tryReserve(long taxiId, long epochDay, long timeout, TimeUnit unit) throws InterruptedException {
+        Semaphore stripe = stripes[stripeOf(taxiId, epochDay)];
+        if (!stripe.tryAcquire(timeout, unit)) {
+            return null;
+        }
+        return new Reservation(stripe);
+    }
+
+    int stripeOf(long taxiId, long epochDay) {
+        // Mix both halves of the key so neighbouring taxis and dates spread over the stripes.
+        long h = taxiId * 0x9E3779B97F4A7C15L + epochDay;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+
+    int stripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * <p>A held reservation. Closing it more than once has no further effect.</p>
+     */
+    public static final class Reservation implements AutoCloseable {
+        private final Semaphore stripe;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Reservation(Semaphore stripe) {
+            this.stripe = stripe;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                stripe.release();
+            }
+        }
+    }
+}
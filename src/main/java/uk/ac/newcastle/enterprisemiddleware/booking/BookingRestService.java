@@ -1,5 +1,9 @@
 package uk.ac.newcastle.enterprisemiddleware.booking;
 
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.subscription.Cancellable;
+import io.vertx.core.http.HttpServerResponse;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
@@ -7,20 +11,36 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.jboss.resteasy.reactive.Cache;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.util.ContinuationToken;
+import uk.ac.newcastle.enterprisemiddleware.util.EntityTags;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonExporter;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonReader;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.OptimisticLockException;
+import javax.transaction.SystemException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 /**
  * <p>This class produces a RESTful service exposing the functionality of {@link BookingService}.</p>
@@ -45,32 +65,270 @@ import java.util.logging.Logger;
 public class BookingRestService {
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     BookingService service;
 
+    @Inject
+    NdjsonExporter exporter;
+
+    @Inject
+    NdjsonReader ndjsonReader;
+
+    @Inject
+    BookingEventBroadcaster eventBroadcaster;
+
+    @ConfigProperty(name = "booking.batch.max-size", defaultValue = "10000")
+    int maxBatchSize;
+
     /**
-     * <p>Return all the Bookings. They are sorted alphabetically by booking id.</p>
+     * <p>Return all the Bookings. They are sorted by customer id and then booking id.</p>
      *
      * <p>The url may optionally include query parameters specifying a Booking's bookingId</p>
      *
-     * <p>Examples: <pre>GET api/bookings?bookingId=1x25894</pre>, <pre>GET api/booking?bookingId=1x25894</pre></p>
+     * <p>Examples: <pre>GET api/bookings?id=25894</pre></p>
+     *
+     * <p>Without a booking id the Bookings are returned one page at a time. The page size is set with the
+     * <code>limit</code> query parameter and the next page is requested by passing the value of the
+     * {@link ContinuationToken#HEADER} response header back as the <code>after</code> query parameter.</p>
      *
      * @return A Response containing a list of Bookings
      */
     @GET
-    @Operation(summary = "Fetch all Bookings", description = "Returns a JSON array of all stored Booking objects.")
-    public Response retrieveAllBookings(@QueryParam("id") long id) {
+    @Operation(summary = "Fetch all Bookings", description = "Returns a JSON array of stored Booking objects, one page at a time.")
+    public Response retrieveAllBookings(@QueryParam("id") Long id,
+                                        @QueryParam("limit") Integer limit, @QueryParam("after") String after) {
         //Create an empty collection to contain the intersection of Bookings to be returned
-        List<Booking> books = null;
+        List<Booking> books = new ArrayList<>();
 
-        if (id == 0) {
-            books = (List<Booking>) service.findById(id);
+        if (id != null) {
+            Booking book = service.findById(id);
+            if (book != null) {
+                books.add(book);
+            }
+            return Response.ok(books).build();
+        }
+
+        int pageSize = ContinuationToken.clampLimit(limit);
+        if (after == null) {
+            books = service.findPageOrderedByCustomer(null, null, pageSize);
         } else {
-            books .add(service.findById(id)) ;
+            String[] key = ContinuationToken.decode(after, 2);
+            books = service.findPageOrderedByCustomer(ContinuationToken.parseLong(key[0]), ContinuationToken.parseLong(key[1]), pageSize);
+        }
+
+        Response.ResponseBuilder builder = Response.ok(books);
+        if (books.size() == pageSize) {
+            Booking last = books.get(books.size() - 1);
+            builder.header(ContinuationToken.HEADER, ContinuationToken.encode(last.getCustomerId(), last.getId()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * <p>Export all the Bookings as newline delimited JSON, one Booking per line.</p>
+     *
+     * <p>The Bookings are streamed from the database as they are read, so the response starts straight away and the
+     * export uses the same amount of memory however many Bookings are stored.</p>
+     *
+     * <p>Example: <pre>GET api/bookings/export</pre></p>
+     *
+     * @return A Response streaming every Booking
+     */
+    @GET
+    @Path("/export")
+    @Produces(NdjsonExporter.APPLICATION_NDJSON)
+    @Operation(summary = "Export all Bookings", description = "Streams every stored Booking object as newline delimited JSON.")
+    public Response exportBookings() {
+        return Response.ok(exporter.export(Booking.FIND_ALL, Booking.class)).build();
+    }
+
+    /**
+     * <p>Return read-only views of the Bookings, with the name and email of their Customer and the registration
+     * number and seats of their Taxi.</p>
+     *
+     * <p>With <code>from</code> and <code>to</code> the Bookings between the two dates, inclusive, are returned
+     * sorted by date. Without them the views are returned in the same pages as {@link #retrieveAllBookings}.</p>
+     *
+     * <p>The views are read with one SELECT however many Bookings there are, and no entities are loaded.</p>
+     *
+     * <p>Examples: <pre>GET api/bookings/views?from=2030-01-01&to=2030-01-31&limit=100</pre>,
+     * <pre>GET api/bookings/views?limit=100</pre></p>
+     *
+     * @param from  The first date, in the format yyyy-MM-dd
+     * @param to    The last date, in the format yyyy-MM-dd
+     * @param limit The maximum number of Bookings returned
+     * @param after The continuation token of the previous page, when no dates are given
+     * @return A Response containing a list of BookingView objects
+     */
+    @GET
+    @Path("/views")
+    @Operation(summary = "Fetch Booking views with their Customer and Taxi",
+            description = "Returns a JSON array of read-only views of the Bookings between two dates, or one page at a time.")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Booking views returned"),
+            @APIResponse(responseCode = "400", description = "Missing or invalid date")
+    })
+    public Response retrieveBookingViews(
+            @Parameter(description = "First date (yyyy-MM-dd)") @QueryParam("from") String from,
+            @Parameter(description = "Last date (yyyy-MM-dd)") @QueryParam("to") String to,
+            @QueryParam("limit") Integer limit, @QueryParam("after") String after) {
+        int pageSize = ContinuationToken.clampLimit(limit);
+        if (from != null || to != null) {
+            return Response.ok(service.findViewsBetween(parseDate("from", from), parseDate("to", to), pageSize)).build();
+        }
+
+        List<BookingView> views;
+        if (after == null) {
+            views = service.findViewPage(null, null, pageSize);
+        } else {
+            String[] key = ContinuationToken.decode(after, 2);
+            views = service.findViewPage(ContinuationToken.parseLong(key[0]), ContinuationToken.parseLong(key[1]), pageSize);
+        }
+
+        Response.ResponseBuilder builder = Response.ok(views);
+        if (views.size() == pageSize) {
+            BookingView last = views.get(views.size() - 1);
+            builder.header(ContinuationToken.HEADER, ContinuationToken.encode(last.getCustomerId(), last.getId()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * <p>Streams the changes to Bookings as server-sent events, as they are committed.</p>
+     *
+     * <p>Each event is named BookingCreated, BookingUpdated or BookingDeleted, and its data is the JSON of the
+     * Booking after the change, or before it for a deletion. The id of an event is its position in the stream, which
+     * follows the order in which the changes were committed. A client that reconnects sends the id of the last event
+     * it received as the <code>Last-Event-ID</code> header, which browsers do by themselves, or as the
+     * <code>lastEventId</code> query parameter, and is sent the events it missed before the live ones.</p>
+     *
+     * <p>The events are written to the {@link SseEventSink} one at a time, each once the previous one has been
+     * written, so a slow client fills its buffer in the {@link BookingEventBroadcaster} rather than the socket's. The
+     * subscription is cancelled when the client goes away, and the stream is closed when the broadcaster ends it.</p>
+     *
+     * <p>Example: <pre>GET api/bookings/stream</pre></p>
+     *
+     * @param lastEventIdHeader The id of the last event received, from the header
+     * @param lastEventIdParam  The id of the last event received, from the query string
+     * @param sink              The connection to the client
+     * @param sse               The factory of the events
+     * @param response          The HTTP response, told when the client goes away
+     */
+    @GET
+    @Path("/stream")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Operation(summary = "Stream Booking changes",
+            description = "Sends BookingCreated, BookingUpdated and BookingDeleted server-sent events as Bookings change.")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Event stream opened"),
+            @APIResponse(responseCode = "400", description = "Invalid last event id")
+    })
+    public void streamBookingEvents(
+            @Parameter(description = "Id of the last event received") @HeaderParam("Last-Event-ID") String lastEventIdHeader,
+            @Parameter(description = "Id of the last event received") @QueryParam("lastEventId") String lastEventIdParam,
+            @Context SseEventSink sink, @Context Sse sse, @Context HttpServerResponse response) {
+        Long lastEventId = parseEventId(lastEventIdHeader != null ? lastEventIdHeader : lastEventIdParam);
+        log.debug("BookingRestService.streamBookingEvents", "lastEventId", lastEventId);
+
+        // A Multi returned from here would be written as data only, without the event ids and names.
+        Cancellable subscription = eventBroadcaster.stream(lastEventId)
+                .onItem().transformToUniAndConcatenate(event ->
+                        Uni.createFrom().completionStage(sink.send(toSseEvent(sse, event))).replaceWithVoid())
+                .subscribe().with(ignored -> { }, failure -> sink.close(), sink::close);
+        response.closeHandler(ignored -> subscription.cancel());
+        if (sink.isClosed()) {
+            subscription.cancel();
+        }
+    }
+
+    private static OutboundSseEvent toSseEvent(Sse sse, BookingEvent event) {
+        return sse.newEventBuilder()
+                .id(String.valueOf(event.getStreamPosition()))
+                .name(event.getType().getEventName())
+                // The payload is JSON already, so it is written out as it is.
+                .mediaType(MediaType.TEXT_PLAIN_TYPE)
+                .data(String.class, event.getPayload())
+                .build();
+    }
+
+    /**
+     * <p>Creates many bookings at once from a JSON array. Every booking is validated and the response holds one
+     * result per booking, in request order, with the status that booking would have got on its own.</p>
+     *
+     * @param bookings The Booking objects to be <i>created</i> via {@link BookingService#createBatch(List)}
+     * @return A Response containing the list of results
+     */
+    @POST
+    @Path("/batch")
+    @Operation(description = "Add many Bookings to the database in one request")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Bookings processed, see the result of each item."),
+            @APIResponse(responseCode = "400", description = "The request body is not a list of Bookings"),
+            @APIResponse(responseCode = "413", description = "The batch holds too many Bookings")
+    })
+    public Response createBookings(
+            @Parameter(description = "JSON array of Booking objects to be added to the database", required = true)
+            List<Booking> bookings) {
+
+        if (bookings == null) {
+            throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
+        }
+        if (bookings.size() > maxBatchSize) {
+            throw new RestServiceException("A batch may hold at most " + maxBatchSize + " items",
+                    Response.Status.REQUEST_ENTITY_TOO_LARGE);
+        }
+        return createBatch(bookings);
+    }
+
+    /**
+     * <p>Creates many bookings at once from newline delimited JSON, one booking per line.</p>
+     *
+     * @param body The request body
+     * @return A Response containing the list of results
+     * @see #createBookings(List)
+     */
+    @POST
+    @Path("/batch")
+    @Consumes(NdjsonExporter.APPLICATION_NDJSON)
+    @Operation(description = "Add many Bookings to the database from newline delimited JSON")
+    public Response createBookingsFromNdjson(InputStream body) {
+        return createBatch(ndjsonReader.readAll(body, Booking.class, maxBatchSize));
+    }
+
+    private static Date parseDate(String name, String value) {
+        if (value == null) {
+            throw new RestServiceException("The " + name + " query parameter is required", Response.Status.BAD_REQUEST);
+        }
+        try {
+            return java.sql.Date.valueOf(LocalDate.parse(value));
+        } catch (DateTimeParseException e) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put(name, "The date must be in the format yyyy-MM-dd");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        }
+    }
+
+    private static Long parseEventId(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("lastEventId", "The last event id must be a number");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        }
+    }
+
+    private Response createBatch(List<Booking> bookings) {
+        try {
+            return Response.ok(service.createBatch(bookings)).build();
+        } catch (SystemException e) {
+            throw new RestServiceException(e);
         }
-        return Response.ok(books).build();
     }
 
 
@@ -114,19 +372,75 @@ public class BookingRestService {
             builder = Response.status(Response.Status.CREATED).entity(booking);
 
 
-        }catch (Exception e) {
+        } catch (ConstraintViolationException ce) {
+            //Handle bean validation issues
+            Map<String, String> responseObj = new HashMap<>();
+
+            for (ConstraintViolation<?> violation : ce.getConstraintViolations()) {
+                responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+            }
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, ce);
+        } catch (UniqueTaxiIdException e) {
+            // Handle the taxi already being booked on that date
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("taxiId", "That taxi is already booked on that date, please choose another taxi or date");
+            throw new RestServiceException("Booking supplied in request body conflicts with an existing Booking",
+                    responseObj, Response.Status.CONFLICT, e);
+        } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
-        log.info("createBooking completed. Booking = " + booking);
+        log.debug("BookingRestService.createBooking", "id", booking.getId());
         return builder.build();
     }
 
+    /**
+     * <p>Search for and return a Booking identified by id.</p>
+     *
+     * <p>The response carries an ETag and a Last-Modified header. A client polling the Booking sends them back as
+     * <code>If-None-Match</code> or <code>If-Modified-Since</code> and gets 304 without a body while the Booking is
+     * unchanged.</p>
+     *
+     * @param id The long parameter value provided as a Booking's id
+     * @return A Response containing a single Booking
+     */
+    @GET
+    @Cache(maxAge = 0, mustRevalidate = true)
+    @Path("/{id:[0-9]+}")
+    @Operation(
+            summary = "Fetch a Booking by id",
+            description = "Returns a JSON representation of the Booking object with the provided id."
+    )
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Booking found"),
+            @APIResponse(responseCode = "304", description = "Booking not modified"),
+            @APIResponse(responseCode = "404", description = "Booking with id not found")
+    })
+    public Response retrieveBookingById(
+            @Parameter(description = "Id of Booking to be fetched")
+            @Schema(minimum = "0", required = true)
+            @PathParam("id")
+            long id,
+            @Context Request request) {
+
+        Booking book = service.findById(id);
+        if (book == null) {
+            // Verify that the Booking exists. Return 404, if not present.
+            throw new RestServiceException("No Booking with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+        log.debug("BookingRestService.retrieveBookingById", "id", id);
+
+        return EntityTags.get(request, book, EntityTags.of(book.getId(), book.getVersion()), book.getLastModified());
+    }
+
     /**
      * <p>Updates the Booking with the ID provided in the database. Performs validation, and will return a JAX-RS response
      * with either 200 (ok), or with a map of fields, and related errors.</p>
      *
+     * <p>An <code>If-Match</code> header that does not hold the Booking's current ETag fails the update with 412. A
+     * <code>version</code> in the body older than the stored one fails it with 409.</p>
+     *
      * @param book      The Booking object, constructed automatically from JSON input, to be <i>updated</i> via
      *                  {@link BookingService#update(Booking)}
      * @param bookingId The long parameter value provided as the id of the Booking to be updated
@@ -140,6 +454,7 @@ public class BookingRestService {
             @APIResponse(responseCode = "400", description = "Invalid Booking supplied in request body"),
             @APIResponse(responseCode = "404", description = "Booking with id not found"),
             @APIResponse(responseCode = "409", description = "Booking details supplied in request body conflict with another existing Contact"),
+            @APIResponse(responseCode = "412", description = "Booking changed since the version named by If-Match"),
             @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
     })
     @Transactional
@@ -149,7 +464,8 @@ public class BookingRestService {
             @PathParam("Id")
             long bookingId,
             @Parameter(description = "JSON representation of Booking object to be updated in the database", required = true)
-            Booking book) {
+            Booking book,
+            @Context Request request) {
 
         if (book == null || book.getId() == null) {
             throw new RestServiceException("Invalid Booking supplied in request body", Response.Status.BAD_REQUEST);
@@ -163,19 +479,27 @@ public class BookingRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(book.getId()) == null) {
+        Booking current = service.findById(book.getId());
+        if (current == null) {
             // Verify that the Booking exists. Return 404, if not present.
             throw new RestServiceException("No Booking with the id " + bookingId + " was found!", Response.Status.NOT_FOUND);
         }
 
+        EntityTags.checkPreconditions(request, "Booking", EntityTags.of(current.getId(), current.getVersion()),
+                current.getLastModified());
+        if (book.getVersion() == null) {
+            book.setVersion(current.getVersion());
+        }
+
         Response.ResponseBuilder builder;
 
         try {
             // Apply the changes the Booking.
-            service.update(book);
+            Booking updated = service.update(book);
 
-            // Create an OK Response and pass the Booking back in case it is needed.
-            builder = Response.ok(book);
+            // Create an OK Response and pass the Booking back, with its new version, in case it is needed.
+            builder = EntityTags.withValidators(Response.ok(updated),
+                    EntityTags.of(updated.getId(), updated.getVersion()), updated.getLastModified());
 
 
         } catch (ConstraintViolationException ce) {
@@ -189,19 +513,25 @@ public class BookingRestService {
         } catch (UniqueTaxiIdException e) {
             // Handle the unique constraint violation
             Map<String, String> responseObj = new HashMap<>();
-            responseObj.put("email", "That email is already used, please use a unique email");
+            responseObj.put("taxiId", "That taxi is already booked on that date, please choose another taxi or date");
             throw new RestServiceException("Booking details supplied in request body conflict with another Booking",
                     responseObj, Response.Status.CONFLICT, e);
         } catch (InvalidAreaCodeException e) {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        } catch (OptimisticLockException e) {
+            // Handle an update based on an older version of the Booking
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Booking has been changed since this version, please fetch it again");
+            throw new RestServiceException("Booking details supplied in request body conflict with a newer version of the Booking",
+                    responseObj, Response.Status.CONFLICT, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
-        log.info("updateBooking completed. Booking = " + book);
+        log.debug("BookingRestService.updateBooking", "id", book.getId());
         return builder.build();
     }
 
@@ -246,7 +576,7 @@ public class BookingRestService {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
-        log.info("deleteBooking completed. Booking = " + book);
+        log.debug("BookingRestService.deleteBooking", "id", book.getId());
         return builder.build();
     }
 }
\ No newline at end of file
@@ -1,18 +1,34 @@
 package uk.ac.newcastle.enterprisemiddleware.booking;
 
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
 import uk.ac.newcastle.enterprisemiddleware.area.AreaService;
-import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.taxi.TaxiAvailabilityIndex;
+import uk.ac.newcastle.enterprisemiddleware.util.BatchItemResult;
+import uk.ac.newcastle.enterprisemiddleware.util.ResponseCache;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+import uk.ac.newcastle.enterprisemiddleware.util.TransactionCallbacks;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.PersistenceException;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
-import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>This Service assumes the Control responsibility in the ECB pattern.</p>
@@ -32,7 +48,7 @@ public class BookingService {
 
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     BookingValidator validator;
@@ -40,11 +56,87 @@ public class BookingService {
     @Inject
     BookingRepository crud;
 
+    @Inject
+    TaxiAvailabilityIndex availabilityIndex;
+
+    @Inject
+    TransactionCallbacks transactionCallbacks;
+
+    @Inject
+    ResponseCache responseCache;
+
+    @Inject
+    BookingReservationGuard reservationGuard;
+
+    @Inject
+    BookingEventLog eventLog;
+
+    @ConfigProperty(name = "booking.reservation.timeout-ms", defaultValue = "250")
+    long reservationTimeoutMs;
+
+    @ConfigProperty(name = "booking.batch.chunk-size", defaultValue = "500")
+    int batchChunkSize;
+
+    @Inject
+    UserTransaction transaction;
+
     //Removed temporarily due to non-existing AreaService
     @RestClient
     AreaService areaService;
 
 
+    /**
+     * <p>Returns one page of persisted {@link Booking} objects, sorted by customerId.<p/>
+     *
+     * @param customerId The customerId of the last Booking on the previous page, or null for the first page
+     * @param id         The id of the last Booking on the previous page
+     * @param limit      The maximum number of Bookings to return
+     * @return List of Booking objects
+     */
+    List<Booking> findPageOrderedByCustomer(Long customerId, Long id, int limit) {
+        return crud.findPageOrderedByCustomer(customerId, id, limit);
+    }
+
+    /**
+     * <p>Returns one page of persisted {@link Booking} objects, sorted by customerId, with their Customer and Taxi
+     * loaded.<p/>
+     *
+     * @param customerId The customerId of the last Booking on the previous page, or null for the first page
+     * @param id         The id of the last Booking on the previous page
+     * @param limit      The maximum number of Bookings to return
+     * @return List of Booking objects
+     */
+    public List<Booking> findPageWithCustomerAndTaxi(Long customerId, Long id, int limit) {
+        return crud.findPageWithCustomerAndTaxi(customerId, id, limit);
+    }
+
+    /**
+     * <p>Returns the Bookings from one date to another, inclusive, with their Taxi loaded.<p/>
+     *
+     * @return List of Booking objects
+     */
+    public List<Booking> findBetweenWithTaxi(Date from, Date to, int limit) {
+        return crud.findBetweenWithTaxi(from, to, limit);
+    }
+
+    /**
+     * <p>Returns one page of read-only {@link BookingView} objects, sorted by customerId and id.<p/>
+     *
+     * @return List of BookingView objects
+     */
+    List<BookingView> findViewPage(Long customerId, Long id, int limit) {
+        return crud.findViewPage(customerId, id, limit);
+    }
+
+    /**
+     * <p>Returns a read-only {@link BookingView} of each Booking from one date to another, inclusive.<p/>
+     *
+     * @return List of BookingView objects
+     */
+    public List<BookingView> findViewsBetween(Date from, Date to, int limit) {
+        return crud.findViewsBetween(from, to, limit);
+    }
+
     /**
      * <p>Returns a single Booking object, specified by a Long id.<p/>
      *
@@ -65,16 +157,230 @@ public class BookingService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     public Booking create(Booking book) throws Exception {
-        log.info("BookingService.create() - Creating "+ book.toString());
+        log.debug("BookingService.create", "taxiId", book.getTaxiId(), "customerId", book.getCustomerId(), "bookDate", book.getBookDate());
 
         // Check to make sure the data fits with the parameters in the Booking model and passes validation.
-        //validator.validateBooking(book);
+        validator.validateBooking(book);
 
-        // Write the booking to the database.
-        return crud.create(book);
+        // Make sure no other booking holds the taxi on that date, then write the booking to the database.
+        reserve(book);
+        Booking created;
+        try {
+            created = crud.create(book);
+        } catch (PersistenceException e) {
+            throw translateTaxiDateConflict(e);
+        }
+        eventLog.record(BookingEvent.Type.CREATED, created);
+        Long taxiId = created.getTaxiId();
+        Date bookDate = created.getBookDate();
+        Long customerId = created.getCustomerId();
+        transactionCallbacks.afterCommit(() -> {
+            availabilityIndex.book(taxiId, bookDate);
+            responseCache.invalidate(ResponseCache.CUSTOMERS + customerId);
+        });
+        return created;
     }
 
 
+    /**
+     * <p>Writes a batch of Bookings to the application database and returns the outcome of each one, in order.</p>
+     *
+     * <p>The whole batch is validated in one pass first: bean validation, then clashes between items of the batch.
+     * The valid items are then written in chunks of <code>booking.batch.chunk-size</code>, each in its own
+     * transaction. A chunk takes a handful of queries to check that the customers and taxis exist and that no
+     * existing booking clashes, then one flush, which Hibernate sends as JDBC insert batches.</p>
+     *
+     * <p>An item which fails only fails itself, apart from an unexpected database error, which fails the rest of
+     * its chunk.</p>
+     *
+     * @param books The Bookings to be written
+     * @return One result per Booking, in the same order
+     * @throws SystemException If a failed chunk cannot be rolled back
+     */
+    public List<BatchItemResult> createBatch(List<Booking> books) throws SystemException {
+        log.info("BookingService.createBatch", "size", books.size());
+
+        BatchItemResult[] results = new BatchItemResult[books.size()];
+        List<Integer> accepted = new ArrayList<>(books.size());
+        Set<String> taxiDates = new HashSet<>();
+        Set<String> taxiCustomers = new HashSet<>();
+
+        for (int i = 0; i < books.size(); i++) {
+            Booking book = books.get(i);
+            if (book == null) {
+                results[i] = rejected(i, Response.Status.BAD_REQUEST, "booking", "A booking is required");
+                continue;
+            }
+            book.setId(null);
+
+            Set<ConstraintViolation<Booking>> violations = validator.findViolations(book);
+            if (!violations.isEmpty()) {
+                Map<String, String> reasons = new HashMap<>();
+                for (ConstraintViolation<Booking> violation : violations) {
+                    reasons.put(violation.getPropertyPath().toString(), violation.getMessage());
+                }
+                results[i] = BatchItemResult.rejected(i, Response.Status.BAD_REQUEST, reasons);
+            } else if (book.getBookDate() == null) {
+                results[i] = rejected(i, Response.Status.BAD_REQUEST, "bookDate", "A booking date is required");
+            } else if (!taxiDates.add(taxiDateKey(book.getTaxiId(), book.getBookDate()))) {
+                results[i] = rejected(i, Response.Status.CONFLICT, "taxiId",
+                        "That taxi is already booked on that date earlier in this batch");
+            } else if (!taxiCustomers.add(taxiCustomerKey(book.getTaxiId(), book.getCustomerId()))) {
+                results[i] = rejected(i, Response.Status.CONFLICT, "taxiId",
+                        "That customer already books that taxi earlier in this batch");
+            } else {
+                accepted.add(i);
+            }
+        }
+
+        for (int from = 0; from < accepted.size(); from += batchChunkSize) {
+            List<Integer> chunk = accepted.subList(from, Math.min(accepted.size(), from + batchChunkSize));
+            if (!writeChunk(books, chunk, results, true)) {
+                // Another writer took a taxi and date of the chunk after it was checked. The second check sees it.
+                writeChunk(books, chunk, results, false);
+            }
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * <p>Writes one chunk of a batch in its own transaction, filling in the result of each of its items.</p>
+     *
+     * <p>A chunk takes no {@link BookingReservationGuard} stripes. Holding them for the whole chunk transaction would
+     * hold nearly all of them, and make every unrelated booking written meanwhile wait for them and fail. The chunk
+     * is checked against the committed bookings instead, and the unique indexes on (taxi_id, book_date) and
+     * (taxi_id, customer_id) reject a booking written by someone else between that check and the insert.</p>
+     *
+     * @param retryOnClash Whether to roll back and leave the results unset when another writer won such a race, so
+     *                     the chunk can be checked and written again
+     * @return False if the chunk was rolled back to be written again, otherwise true
+     */
+    private boolean writeChunk(List<Booking> books, List<Integer> indexes, BatchItemResult[] results,
+                               boolean retryOnClash) throws SystemException {
+        List<Integer> written = new ArrayList<>(indexes.size());
+        try {
+            transaction.begin();
+
+            Set<Long> taxiIds = new HashSet<>();
+            Set<Long> customerIds = new HashSet<>();
+            Set<Date> bookDates = new HashSet<>();
+            for (int i : indexes) {
+                Booking book = books.get(i);
+                taxiIds.add(book.getTaxiId());
+                customerIds.add(book.getCustomerId());
+                bookDates.add(book.getBookDate());
+            }
+            Set<Long> existingTaxis = crud.findExistingTaxiIds(taxiIds);
+            Set<Long> existingCustomers = crud.findExistingCustomerIds(customerIds);
+
+            List<Integer> candidates = new ArrayList<>(indexes.size());
+            for (int i : indexes) {
+                Booking book = books.get(i);
+                if (!existingCustomers.contains(book.getCustomerId())) {
+                    results[i] = rejected(i, Response.Status.NOT_FOUND, "customerId", "No Customer with that id was found");
+                } else if (!existingTaxis.contains(book.getTaxiId())) {
+                    results[i] = rejected(i, Response.Status.NOT_FOUND, "taxiId", "No Taxi with that id was found");
+                } else {
+                    candidates.add(i);
+                }
+            }
+
+            Set<String> takenDates = new HashSet<>();
+            Set<String> takenCustomers = new HashSet<>();
+            for (Object[] row : crud.findConflicts(taxiIds, bookDates, customerIds)) {
+                takenCustomers.add(taxiCustomerKey((Long) row[0], (Long) row[1]));
+                if (row[2] != null) {
+                    takenDates.add(taxiDateKey((Long) row[0], (Date) row[2]));
+                }
+            }
+
+            List<Booking> chunk = new ArrayList<>(candidates.size());
+            for (int i : candidates) {
+                Booking book = books.get(i);
+                if (takenDates.contains(taxiDateKey(book.getTaxiId(), book.getBookDate()))) {
+                    results[i] = rejected(i, Response.Status.CONFLICT, "taxiId", "That taxi is already booked on that date");
+                } else if (takenCustomers.contains(taxiCustomerKey(book.getTaxiId(), book.getCustomerId()))) {
+                    results[i] = rejected(i, Response.Status.CONFLICT, "taxiId", "That customer has already booked that taxi");
+                } else {
+                    chunk.add(book);
+                    written.add(i);
+                    Long taxiId = book.getTaxiId();
+                    Date bookDate = book.getBookDate();
+                    Long customerId = book.getCustomerId();
+                    transactionCallbacks.afterCommit(() -> {
+                        availabilityIndex.book(taxiId, bookDate);
+                        responseCache.invalidate(ResponseCache.CUSTOMERS + customerId);
+                    });
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                crud.createAll(chunk);
+                for (Booking book : chunk) {
+                    eventLog.record(BookingEvent.Type.CREATED, book);
+                }
+            }
+            transaction.commit();
+
+            for (int i : written) {
+                results[i] = BatchItemResult.created(i, books.get(i).getId());
+            }
+            return true;
+        } catch (Exception e) {
+            if (transaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                transaction.rollback();
+            }
+            if (retryOnClash && isBookingClash(e)) {
+                log.info("BookingService.createBatch.chunkRetried", "size", indexes.size());
+                for (int i : indexes) {
+                    // The rolled back insert left its id and version on the Booking.
+                    books.get(i).setId(null);
+                    books.get(i).setVersion(null);
+                    results[i] = null;
+                }
+                return false;
+            }
+            log.warn("BookingService.createBatch.chunkFailed", e, "size", indexes.size());
+            for (int i : indexes) {
+                if (results[i] == null || results[i].isCreated()) {
+                    results[i] = rejected(i, Response.Status.INTERNAL_SERVER_ERROR, "booking",
+                            "The chunk holding this booking could not be written, please retry");
+                }
+            }
+            return true;
+        }
+    }
+
+    /*
+     * Whether the failure is a violation of one of the unique indexes that keep two bookings of a taxi apart.
+     */
+    private static boolean isBookingClash(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof org.hibernate.exception.ConstraintViolationException) {
+                String constraint = ((org.hibernate.exception.ConstraintViolationException) cause).getConstraintName();
+                if (constraint != null) {
+                    String name = constraint.toLowerCase();
+                    return name.contains(Booking.UNIQUE_TAXI_DATE) || name.contains(Booking.UNIQUE_TAXI_CUSTOMER);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static BatchItemResult rejected(int index, Response.Status status, String field, String reason) {
+        Map<String, String> reasons = new HashMap<>();
+        reasons.put(field, reason);
+        return BatchItemResult.rejected(index, status, reasons);
+    }
+
+    private static String taxiDateKey(Long taxiId, Date bookDate) {
+        return taxiId + "@" + TaxiAvailabilityIndex.epochDay(bookDate);
+    }
+
+    private static String taxiCustomerKey(Long taxiId, Long customerId) {
+        return taxiId + "/" + customerId;
+    }
+
     /**
      * <p>Updates an existing Booking object in the application database with the provided Booking object.<p/>
      *
@@ -90,13 +396,36 @@ public class BookingService {
      * @throws Exception
      */
     Booking update(Booking book) throws Exception {
-        log.info("BookingService.update() - Updating " + book.getId() + " " + book.getBookDate());
+        log.debug("BookingService.update", "id", book.getId(), "bookDate", book.getBookDate());
 
         // Check to make sure the data fits with the parameters in the Booking model and passes validation.
         validator.validateBooking(book);
 
+        // Remember which taxi and date the booking held before the change so the index can free it.
+        Booking existing = crud.findByBookingId(book.getId());
+        Long oldTaxiId = existing == null ? null : existing.getTaxiId();
+        Date oldBookDate = existing == null ? null : existing.getBookDate();
+        Long oldCustomerId = existing == null ? null : existing.getCustomerId();
+
         // Either update the booking or add it if it can't be found.
-        return crud.update(book);
+        reserve(book);
+        Booking updated;
+        try {
+            updated = crud.update(book);
+        } catch (PersistenceException e) {
+            throw translateTaxiDateConflict(e);
+        }
+        eventLog.record(BookingEvent.Type.UPDATED, updated);
+        Long taxiId = updated.getTaxiId();
+        Date bookDate = updated.getBookDate();
+        Long customerId = updated.getCustomerId();
+        transactionCallbacks.afterCommit(() -> {
+            availabilityIndex.release(oldTaxiId, oldBookDate);
+            availabilityIndex.book(taxiId, bookDate);
+            responseCache.invalidate(ResponseCache.CUSTOMERS + oldCustomerId);
+            responseCache.invalidate(ResponseCache.CUSTOMERS + customerId);
+        });
+        return updated;
     }
 
     /**
@@ -107,16 +436,68 @@ public class BookingService {
      * @throws Exception
      */
     public Booking delete(Booking book) throws Exception {
-        log.info("delete() - Deleting " + book.toString());
+        log.debug("BookingService.delete", "id", book.getId());
 
         Booking deletedBooking = null;
 
         if (book.getId() != null) {
             deletedBooking = crud.delete(book);
+            eventLog.record(BookingEvent.Type.DELETED, book);
+            Long taxiId = book.getTaxiId();
+            Date bookDate = book.getBookDate();
+            Long customerId = book.getCustomerId();
+            transactionCallbacks.afterCommit(() -> {
+                availabilityIndex.release(taxiId, bookDate);
+                responseCache.invalidate(ResponseCache.CUSTOMERS + customerId);
+            });
         } else {
-            log.info("delete() - No ID was found so can't Delete.");
+            log.debug("BookingService.delete.noId");
         }
 
         return deletedBooking;
     }
+
+    /**
+     * <p>Reserves the taxi and date of the given Booking until the current transaction completes, and checks that no
+     * other Booking already holds them.</p>
+     *
+     * <p>Conflicting attempts are serialised by the {@link BookingReservationGuard}. If the reservation cannot be
+     * taken within the configured timeout the attempt is rejected rather than queued.</p>
+     *
+     * @param book The Booking about to be written
+     * @throws UniqueTaxiIdException If the taxi is already booked on that date, or another attempt holds it
+     */
+    private void reserve(Booking book) throws InterruptedException {
+        if (book.getTaxiId() == null || book.getBookDate() == null) {
+            return;
+        }
+
+        BookingReservationGuard.Reservation reservation = reservationGuard.tryReserve(book.getTaxiId(),
+                TaxiAvailabilityIndex.epochDay(book.getBookDate()), reservationTimeoutMs, TimeUnit.MILLISECONDS);
+        if (reservation == null) {
+            throw new UniqueTaxiIdException("Another booking for this taxi and date is in progress");
+        }
+        // Keep the reservation until the booking is committed or rolled back, so the next attempt sees the outcome.
+        transactionCallbacks.afterCompletion(reservation::close);
+
+        if (crud.isTaxiBookedOn(book.getTaxiId(), book.getBookDate(), book.getId())) {
+            throw new UniqueTaxiIdException("The taxi is already booked on that date");
+        }
+    }
+
+    /**
+     * <p>Turns a violation of the (taxi_id, book_date) unique index into a {@link UniqueTaxiIdException}. This covers
+     * bookings written by another process, which the in-memory reservation cannot see.</p>
+     */
+    private static RuntimeException translateTaxiDateConflict(PersistenceException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof org.hibernate.exception.ConstraintViolationException) {
+                String constraint = ((org.hibernate.exception.ConstraintViolationException) cause).getConstraintName();
+                if (constraint != null && constraint.toLowerCase().contains(Booking.UNIQUE_TAXI_DATE)) {
+                    return new UniqueTaxiIdException("The taxi is already booked on that date", e);
+                }
+            }
+        }
+        return e;
+    }
 }
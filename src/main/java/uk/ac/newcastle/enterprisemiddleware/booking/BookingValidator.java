@@ -53,6 +53,17 @@ public class BookingValidator {
     }
 
 
+    /**
+     * <p>Returns the bean validation violations of the given booking without throwing, so a batch can report every
+     * invalid item at once.</p>
+     *
+     * @param book The booking to be validated
+     * @return The violations, empty if the booking is valid
+     */
+    Set<ConstraintViolation<Booking>> findViolations(Booking book) {
+        return validator.validate(book);
+    }
+
     /**
      * <p>Checks if a customer with the same email address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "email")" constraint from the Customer class.</p>
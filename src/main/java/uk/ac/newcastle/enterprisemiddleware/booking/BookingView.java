@@ -0,0 +1,69 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import java.util.Date;
+
+/**
+ * <p>Read-only view of a Booking together with its Customer and Taxi, as listed by
+ * <code>GET api/bookings/views</code>.</p>
+ *
+ * <p>Views are created by the {@link Booking#FIND_VIEWS_BETWEEN} constructor expression directly from the columns
+ * of one joined SELECT. No entity is loaded, so there is nothing for Hibernate to track.</p>
+ *
+ * @author Yi Zhang
+ * @see BookingRepository#findViewsBetween(Date, Date, int)
+ */
+public class BookingView {
+
+    private final Long id;
+    private final Date bookDate;
+    private final Long customerId;
+    private final String customerName;
+    private final String customerEmail;
+    private final Long taxiId;
+    private final String registrationNumber;
+    private final int seatNumber;
+
+    public BookingView(Long id, Date bookDate, Long customerId, String firstName, String lastName, String customerEmail,
+                       Long taxiId, String registrationNumber, int seatNumber) {
+        this.id = id;
+        this.bookDate = bookDate;
+        this.customerId = customerId;
+        this.customerName = firstName + " " + lastName;
+        this.customerEmail = customerEmail;
+        this.taxiId = taxiId;
+        this.registrationNumber = registrationNumber;
+        this.seatNumber = seatNumber;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Date getBookDate() {
+        return bookDate;
+    }
+
+    public Long getCustomerId() {
+        return customerId;
+    }
+
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public String getCustomerEmail() {
+        return customerEmail;
+    }
+
+    public Long getTaxiId() {
+        return taxiId;
+    }
+
+    public String getRegistrationNumber() {
+        return registrationNumber;
+    }
+
+    public int getSeatNumber() {
+        return seatNumber;
+    }
+}
@@ -1,5 +1,10 @@
 package uk.ac.newcastle.enterprisemiddleware.customer;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.UpdateTimestamp;
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 
 import javax.persistence.*;
@@ -22,14 +27,42 @@ import java.util.Objects;
 /*
  * The @NamedQueries included here are for searching against the table that reflects this object.  This is the most efficient
  * form of query in JPA though is it more error phone due to the syntax being in a String.  This makes it harder to debug.
+ *
+ * findAllAfter repeats the leading sort column as a range (lastName >= :lastName) so the database seeks into
+ * idx_customer_name at the page boundary instead of reading the index from the start.
  */
 @Entity
 @NamedQueries({
-        @NamedQuery(name = Customer.FIND_ALL, query = "SELECT c FROM Customer c ORDER BY c.lastName ASC, c.firstName ASC"),
-        @NamedQuery(name = Customer.FIND_BY_EMAIL, query = "SELECT c FROM Customer c WHERE c.email = :email")
+        @NamedQuery(name = Customer.FIND_ALL, query = "SELECT c FROM Customer c ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Customer.FIND_ALL_AFTER, query = "SELECT c FROM Customer c WHERE c.lastName >= :lastName AND " +
+                "(c.lastName > :lastName OR c.firstName > :firstName OR (c.firstName = :firstName AND c.id > :id)) " +
+                "ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Customer.FIND_BY_EMAIL, query = "SELECT c FROM Customer c WHERE c.email = :email"),
+        @NamedQuery(name = Customer.FIND_ID_BY_EMAIL, query = "SELECT c.id FROM Customer c WHERE c.email = :email"),
+        @NamedQuery(name = Customer.FIND_OTHER_ID_BY_EMAIL, query = "SELECT c.id FROM Customer c WHERE c.email = :email " +
+                "AND c.id <> :id"),
+        @NamedQuery(name = Customer.FIND_EXISTING_EMAILS, query = "SELECT c.email FROM Customer c WHERE c.email IN :emails"),
+        @NamedQuery(name = Customer.FIND_VIEWS, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.customer.CustomerView(" +
+                "c.id, c.firstName, c.lastName, c.email, c.phoneNumber, c.birthDate) FROM Customer c " +
+                "ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC"),
+        @NamedQuery(name = Customer.FIND_VIEWS_AFTER, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.customer.CustomerView(" +
+                "c.id, c.firstName, c.lastName, c.email, c.phoneNumber, c.birthDate) FROM Customer c " +
+                "WHERE c.lastName >= :lastName AND " +
+                "(c.lastName > :lastName OR c.firstName > :firstName OR (c.firstName = :firstName AND c.id > :id)) " +
+                "ORDER BY c.lastName ASC, c.firstName ASC, c.id ASC")
 })
+/*
+ * Customers are looked up by id and email on every booking and validation, so they are kept in the second-level
+ * cache. Writes through the EntityManager update the cached copy. The email is the natural id, and its resolution to
+ * the primary key is cached too, so lookups by email are served from memory when warm.
+ */
+@Cacheable
+@NaturalIdCache
 @XmlRootElement
-@Table(name = "customer", uniqueConstraints = @UniqueConstraint(columnNames = "email"))
+@Table(name = "customer", indexes = {
+        @Index(name = "idx_customer_name", columnList = "last_name, first_name, id"),
+        @Index(name = "idx_customer_first_name", columnList = "first_name")
+})
 public class Customer implements Serializable {
     /**
      * Default value included to remove warning. Remove or modify at will.
@@ -37,10 +70,20 @@ public class Customer implements Serializable {
     private static final long serialVersionUID = 14654887L;
 
     public static final String FIND_ALL = "Customer.findAll";
+    public static final String FIND_ALL_AFTER = "Customer.findAllAfter";
     public static final String FIND_BY_EMAIL = "Customer.findByEmail";
-
+    public static final String FIND_ID_BY_EMAIL = "Customer.findIdByEmail";
+    public static final String FIND_OTHER_ID_BY_EMAIL = "Customer.findOtherIdByEmail";
+    public static final String FIND_EXISTING_EMAILS = "Customer.findExistingEmails";
+    public static final String FIND_VIEWS = "Customer.findViews";
+    public static final String FIND_VIEWS_AFTER = "Customer.findViewsAfter";
+
+    /*
+     * A pooled sequence lets Hibernate batch the inserts of a bulk import, which an identity column prevents.
+     */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "customer_seq")
+    @SequenceGenerator(name = "customer_seq", sequenceName = "customer_seq", allocationSize = 50)
     private Long id;
 
 
@@ -59,11 +102,17 @@ public class Customer implements Serializable {
     @NotNull
     @NotEmpty
     @Email(message = "The email address must be in the format of name@domain.com")
+    @NaturalId(mutable = true)
+    @Column(unique = true)
     private String email;
 
 
-    @OneToMany(cascade = CascadeType.ALL, targetEntity = Booking.class, fetch = FetchType.LAZY)
-    @JoinColumn(name = "customer_id")
+    /*
+     * The bookings are owned by Booking.customer. When a list of Customers is serialised, the bookings of up to 50 of
+     * them are loaded with one SELECT rather than one each.
+     */
+    @OneToMany(mappedBy = "customer", cascade = CascadeType.ALL, targetEntity = Booking.class, fetch = FetchType.LAZY)
+    @BatchSize(size = 50)
     private List<Booking> bookings;
 
     @NotNull
@@ -77,6 +126,20 @@ public class Customer implements Serializable {
     @Temporal(TemporalType.DATE)
     private Date birthDate;
 
+    /*
+     * Hibernate increments the version on every update, and an update carrying an older version than the stored row
+     * fails with an OptimisticLockException instead of overwriting the newer change. The ETag of GET /customers/{id} is
+     * built from the version and bookingsVersion(), as the bookings are part of the Customer's JSON.
+     */
+    @Version
+    @Column(name = "version")
+    private Long version;
+
+    @JsonIgnore
+    @UpdateTimestamp
+    @Column(name = "last_modified")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lastModified;
     public Customer() {
     }
 
@@ -145,6 +208,41 @@ public class Customer implements Serializable {
         this.birthDate = birthDate;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * <p>Returns a number that changes whenever one of the Customer's bookings is created, changed or removed. The
+     * bookings are part of the Customer's JSON but do not change its version.</p>
+     *
+     * <p>Each booking contributes a mix of its id and version, and the contributions are added up, so the result does
+     * not depend on the order the bookings were loaded in.</p>
+     *
+     * @return The combined versions of the bookings
+     */
+    public long bookingsVersion() {
+        long sum = 0;
+        if (bookings != null) {
+            for (Booking booking : bookings) {
+                long id = booking.getId() == null ? 0 : booking.getId();
+                long version = booking.getVersion() == null ? 0 : booking.getVersion();
+                long mix = (id * 0x9E3779B97F4A7C15L) ^ (version + 0x632BE59BD9B4E019L);
+                mix = (mix ^ (mix >>> 31)) * 0xBF58476D1CE4E5B9L;
+                sum += mix ^ (mix >>> 29);
+            }
+        }
+        return sum;
+    }
+
 
 
     @Override
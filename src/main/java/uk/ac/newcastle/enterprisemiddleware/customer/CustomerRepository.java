@@ -1,16 +1,25 @@
 package uk.ac.newcastle.enterprisemiddleware.customer;
 
+import org.hibernate.Session;
+import uk.ac.newcastle.enterprisemiddleware.util.Metered;
+import uk.ac.newcastle.enterprisemiddleware.util.ReadOnlyQueries;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * <p>This is a Repository class and connects the Service/Control layer (see {@link CustomerService} with the
@@ -23,12 +32,13 @@ import java.util.logging.Logger;
  * @see Customer
  * @see EntityManager
  */
+@Metered
 @RequestScoped
 public class CustomerRepository {
 
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     EntityManager em;
@@ -43,6 +53,55 @@ public class CustomerRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns one page of persisted {@link Customer} objects, sorted alphabetically by last name, then first name
+     * and then id.</p>
+     *
+     * <p>The page starts directly after the Customer with the given sort key. If the key is null the first page is
+     * returned.</p>
+     *
+     * @param lastName  The lastName of the last Customer on the previous page, or null for the first page
+     * @param firstName The firstName of the last Customer on the previous page
+     * @param id        The id of the last Customer on the previous page
+     * @param limit     The maximum number of Customers to return
+     * @return List of at most limit Customer objects
+     */
+    List<Customer> findPageOrderedByName(String lastName, String firstName, Long id, int limit) {
+        TypedQuery<Customer> query;
+        if (lastName == null) {
+            query = em.createNamedQuery(Customer.FIND_ALL, Customer.class);
+        } else {
+            query = em.createNamedQuery(Customer.FIND_ALL_AFTER, Customer.class)
+                    .setParameter("lastName", lastName)
+                    .setParameter("firstName", firstName)
+                    .setParameter("id", id);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * <p>Returns the same page as {@link #findPageOrderedByName(String, String, Long, int)} as read-only
+     * {@link CustomerView} objects. No entities are created.</p>
+     *
+     * @param lastName  The lastName of the last Customer on the previous page, or null for the first page
+     * @param firstName The firstName of the last Customer on the previous page
+     * @param id        The id of the last Customer on the previous page
+     * @param limit     The maximum number of Customers to return
+     * @return List of at most limit CustomerView objects
+     */
+    List<CustomerView> findViewPage(String lastName, String firstName, Long id, int limit) {
+        TypedQuery<CustomerView> query;
+        if (lastName == null) {
+            query = em.createNamedQuery(Customer.FIND_VIEWS, CustomerView.class);
+        } else {
+            query = em.createNamedQuery(Customer.FIND_VIEWS_AFTER, CustomerView.class)
+                    .setParameter("lastName", lastName)
+                    .setParameter("firstName", firstName)
+                    .setParameter("id", id);
+        }
+        return ReadOnlyQueries.readOnly(query).setMaxResults(limit).getResultList();
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a Long id.<p/>
      *
@@ -54,16 +113,61 @@ public class CustomerRepository {
     }
 
     /**
-     * <p>Returns a single Customer object, specified by a String email.</p>
+     * <p>Returns the Customer with the given email, or null if there is none.</p>
      *
-     * <p>If there is more than one Customer with the specified email, only the first encountered will be returned.<p/>
+     * <p>The email is the Customer's natural id, so it is resolved through the persistence context and the natural id
+     * cache, and only reaches the database when neither holds it.<p/>
      *
      * @param email The email field of the Customer to be returned
-     * @return The first Customer with the specified email
+     * @return The Customer with the specified email, or null
+     */
+    Customer findByNaturalId(String email) {
+        return em.unwrap(Session.class).bySimpleNaturalId(Customer.class).load(email);
+    }
+
+    /**
+     * <p>Returns the Customer with the given email, if there is one.</p>
+     *
+     * <p>Use this rather than {@link #findByEmail(String)} when a missing Customer is an expected outcome, so no
+     * exception is created.<p/>
+     *
+     * @param email The email field of the Customer to be returned
+     * @return The Customer with the specified email, or an empty Optional
+     */
+    Optional<Customer> findOptionalByEmail(String email) {
+        return Optional.ofNullable(findByNaturalId(email));
+    }
+
+    /**
+     * <p>Checks whether a Customer other than the given one has the given email.</p>
+     *
+     * <p>This is a single query for at most one id, served by the unique index on email, so it costs one round trip
+     * however many Customers are stored and loads no entity.<p/>
+     *
+     * @param email     The email to check
+     * @param excludeId The id of the Customer being updated, which may hold the email itself, or null
+     * @return true if a different Customer has the email
+     */
+    boolean emailTaken(String email, Long excludeId) {
+        TypedQuery<Long> query = excludeId == null
+                ? em.createNamedQuery(Customer.FIND_ID_BY_EMAIL, Long.class)
+                : em.createNamedQuery(Customer.FIND_OTHER_ID_BY_EMAIL, Long.class).setParameter("id", excludeId);
+        return !query.setParameter("email", email).setMaxResults(1).getResultList().isEmpty();
+    }
+
+    /**
+     * <p>Returns a single Customer object, specified by a String email.</p>
+     *
+     * @param email The email field of the Customer to be returned
+     * @return The Customer with the specified email
+     * @throws NoResultException If there is no Customer with the specified email
      */
     Customer findByEmail(String email) {
-        TypedQuery<Customer> query = em.createNamedQuery(Customer.FIND_BY_EMAIL, Customer.class).setParameter("email", email);
-        return query.getSingleResult();
+        Customer customer = findByNaturalId(email);
+        if (customer == null) {
+            throw new NoResultException("No Customer with email " + email);
+        }
+        return customer;
     }
 
     /**
@@ -98,6 +202,37 @@ public class CustomerRepository {
         return em.createQuery(criteria).getResultList();
     }
 
+    /**
+     * <p>Returns which of the given email addresses are already used by a Customer, in one query.</p>
+     *
+     * @param emails The email addresses to check
+     * @return The email addresses which are taken
+     */
+    Set<String> findExistingEmails(Collection<String> emails) {
+        return new HashSet<>(em.createNamedQuery(Customer.FIND_EXISTING_EMAILS, String.class)
+                .setParameter("emails", emails)
+                .getResultList());
+    }
+
+    /**
+     * <p>Persists a chunk of Customers in one flush, so the inserts are sent as JDBC batches, then clears the
+     * persistence context so the next chunk starts empty.</p>
+     *
+     * @param customers The Customers to be persisted
+     * @return The persisted Customers, with their ids set
+     */
+    List<Customer> createAll(List<Customer> customers) {
+        log.debug("CustomerRepository.createAll", "size", customers.size());
+
+        for (Customer customer : customers) {
+            em.persist(customer);
+        }
+        em.flush();
+        em.clear();
+
+        return customers;
+    }
+
     /**
      * <p>Persists the provided Customer object to the application database using the EntityManager.</p>
      *
@@ -111,7 +246,7 @@ public class CustomerRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Customer create(Customer customer) throws Exception {
-        log.info("TaxiRepository.create() - Creating " + customer.getFirstName() + " " + customer.getLastName());
+        log.debug("CustomerRepository.create", "email", customer.getEmail());
 
         // Write the customer to the database.
         em.persist(customer);
@@ -133,12 +268,13 @@ public class CustomerRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Customer update(Customer customer) throws Exception {
-        log.info("TaxiRepository.update() - Updating " + customer.getFirstName() + " " + customer.getLastName());
+        log.debug("CustomerRepository.update", "id", customer.getId());
 
-        // Either update the customer or add it if it can't be found.
-        em.merge(customer);
+        // Either update the customer or add it if it can't be found. Flush so a stale version is reported here.
+        Customer merged = em.merge(customer);
+        em.flush();
 
-        return customer;
+        return merged;
     }
 
     /**
@@ -149,7 +285,7 @@ public class CustomerRepository {
      * @throws Exception
      */
     Customer delete(Customer customer) throws Exception {
-        log.info("TaxiRepository.delete() - Deleting " + customer.getFirstName() + " " + customer.getLastName());
+        log.debug("CustomerRepository.delete", "id", customer.getId());
 
         if (customer.getId() != null) {
             /*
@@ -168,7 +304,7 @@ public class CustomerRepository {
             em.remove(em.merge(customer));
 
         } else {
-            log.info("TaxiRepository.delete() - No ID was found so can't Delete.");
+            log.debug("CustomerRepository.delete.noId");
         }
 
         return customer;
@@ -1,5 +1,6 @@
 package uk.ac.newcastle.enterprisemiddleware.customer;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
@@ -7,21 +8,31 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.jboss.resteasy.reactive.Cache;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.util.ContinuationToken;
+import uk.ac.newcastle.enterprisemiddleware.util.EntityTags;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonExporter;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonReader;
+import uk.ac.newcastle.enterprisemiddleware.util.ResponseCache;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.persistence.NoResultException;
+import javax.persistence.OptimisticLockException;
+import javax.transaction.SystemException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 
 /**
@@ -48,11 +59,23 @@ import java.util.logging.Logger;
 public class CustomerRestService {
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     CustomerService service;
 
+    @Inject
+    NdjsonExporter exporter;
+
+    @Inject
+    NdjsonReader ndjsonReader;
+
+    @Inject
+    ResponseCache responseCache;
+
+    @ConfigProperty(name = "customer.import.max-size", defaultValue = "50000")
+    int maxImportSize;
+
     /**
      * <p>Return all the Customers.  They are sorted alphabetically by name.</p>
      *
@@ -60,16 +83,37 @@ public class CustomerRestService {
      *
      * <p>Examples: <pre>GET api/customer?firstname=John</pre>, <pre>GET api/customers?firstname=John&lastname=Smith</pre></p>
      *
+     * <p>Without a name filter the Customers are returned one page at a time. The page size is set with the
+     * <code>limit</code> query parameter and the next page is requested by passing the value of the
+     * {@link ContinuationToken#HEADER} response header back as the <code>after</code> query parameter.</p>
+     *
+     * <p>Examples: <pre>GET api/customers?limit=100</pre>, <pre>GET api/customers?limit=100&after=U21pdGg.Sm9obg.NDI</pre></p>
+     *
      * @return A Response containing a list of Customers
      */
     @GET
-    @Operation(summary = "Fetch all Customers", description = "Returns a JSON array of all stored Customer objects.")
-    public Response retrieveAllCustomers(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname) {
+    @Operation(summary = "Fetch all Customers", description = "Returns a JSON array of stored Customer objects, one page at a time.")
+    public Response retrieveAllCustomers(@QueryParam("firstname") String firstname, @QueryParam("lastname") String lastname,
+                                         @QueryParam("limit") Integer limit, @QueryParam("after") String after) {
         //Create an empty collection to contain the intersection of Customers to be returned
         List<Customer> customers;
 
         if (firstname == null && lastname == null) {
-            customers = service.findAllOrderedByName();
+            int pageSize = ContinuationToken.clampLimit(limit);
+            if (after == null) {
+                customers = service.findPageOrderedByName(null, null, null, pageSize);
+            } else {
+                String[] key = ContinuationToken.decode(after, 3);
+                customers = service.findPageOrderedByName(key[0], key[1], ContinuationToken.parseLong(key[2]), pageSize);
+            }
+
+            Response.ResponseBuilder builder = Response.ok(customers);
+            if (customers.size() == pageSize) {
+                Customer last = customers.get(customers.size() - 1);
+                builder.header(ContinuationToken.HEADER,
+                        ContinuationToken.encode(last.getLastName(), last.getFirstName(), last.getId()));
+            }
+            return builder.build();
         } else if (lastname == null) {
             customers = service.findAllByFirstName(firstname);
         } else if (firstname == null) {
@@ -81,6 +125,56 @@ public class CustomerRestService {
         return Response.ok(customers).build();
     }
 
+    /**
+     * <p>Returns the same pages as {@link #retrieveAllCustomers}, as read-only views without the Customers'
+     * bookings.</p>
+     *
+     * <p>The views are selected directly into DTOs, so no entity is loaded, tracked or dirty checked.</p>
+     *
+     * <p>Example: <pre>GET api/customers/views?limit=100</pre></p>
+     *
+     * @return A Response containing a list of CustomerView objects
+     */
+    @GET
+    @Path("/views")
+    @Operation(summary = "Fetch Customer views", description = "Returns a JSON array of read-only Customer views, one page at a time.")
+    public Response retrieveCustomerViews(@QueryParam("limit") Integer limit, @QueryParam("after") String after) {
+        int pageSize = ContinuationToken.clampLimit(limit);
+        List<CustomerView> views;
+        if (after == null) {
+            views = service.findViewPage(null, null, null, pageSize);
+        } else {
+            String[] key = ContinuationToken.decode(after, 3);
+            views = service.findViewPage(key[0], key[1], ContinuationToken.parseLong(key[2]), pageSize);
+        }
+
+        Response.ResponseBuilder builder = Response.ok(views);
+        if (views.size() == pageSize) {
+            CustomerView last = views.get(views.size() - 1);
+            builder.header(ContinuationToken.HEADER,
+                    ContinuationToken.encode(last.getLastName(), last.getFirstName(), last.getId()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * <p>Export all the Customers as newline delimited JSON, one Customer per line.</p>
+     *
+     * <p>The Customers are streamed from the database as they are read, so the response starts straight away and the
+     * export uses the same amount of memory however many Customers are stored.</p>
+     *
+     * <p>Example: <pre>GET api/customers/export</pre></p>
+     *
+     * @return A Response streaming every Customer
+     */
+    @GET
+    @Path("/export")
+    @Produces(NdjsonExporter.APPLICATION_NDJSON)
+    @Operation(summary = "Export all Customers", description = "Streams every stored Customer object as newline delimited JSON.")
+    public Response exportCustomers() {
+        return Response.ok(exporter.export(Customer.FIND_ALL, Customer.class)).build();
+    }
+
     /**
      * <p>Search for and return a Customer identified by email address.<p/>
      *
@@ -91,7 +185,7 @@ public class CustomerRestService {
      * @return A Response containing a single Customer
      */
     @GET
-    @Cache
+    @Cache(maxAge = 0, mustRevalidate = true)
     @Path("/email/{email:.+[%40|@].+}")
     @Operation(
             summary = "Fetch a Customer by Email",
@@ -99,31 +193,33 @@ public class CustomerRestService {
     )
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Customer found"),
+            @APIResponse(responseCode = "304", description = "Customer not modified"),
             @APIResponse(responseCode = "404", description = "Customer with email not found")
     })
     public Response retrieveCustomersByEmail(
             @Parameter(description = "Email of Customer to be fetched", required = true)
             @PathParam("email")
-            String email) {
+            String email,
+            @Context Request request) {
 
-        Customer customer;
-        try {
-            customer = service.findByEmail(email);
-        } catch (NoResultException e) {
-            // Verify that the customer exists. Return 404, if not present.
-            throw new RestServiceException("No Customer with the email " + email + " was found!", Response.Status.NOT_FOUND);
-        }
-        return Response.ok(customer).build();
+        // Verify that the customer exists. Return 404, if not present.
+        Customer customer = service.findOptionalByEmail(email).orElseThrow(() ->
+                new RestServiceException("No Customer with the email " + email + " was found!", Response.Status.NOT_FOUND));
+        return EntityTags.get(request, customer, tag(customer), null);
     }
 
     /**
      * <p>Search for and return a Customer identified by id.</p>
      *
+     * <p>The response carries an ETag, which covers the Customer's bookings too. A client sending it back as
+     * <code>If-None-Match</code> gets 304 without a body while neither the Customer nor its bookings have changed.
+     * There is no Last-Modified header, because removing a booking moves no timestamp.</p>
+     *
      * @param id The long parameter value provided as a Customer's id
      * @return A Response containing a single Customer
      */
     @GET
-    @Cache
+    @Cache(maxAge = 0, mustRevalidate = true)
     @Path("/{id:[0-9]+}")
     @Operation(
             summary = "Fetch a Customer by id",
@@ -132,22 +228,82 @@ public class CustomerRestService {
 
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Customer found"),
+            @APIResponse(responseCode = "304", description = "Customer not modified"),
             @APIResponse(responseCode = "404", description = "Customer with id not found")
     })
     public Response retrieveCustomerById(
             @Parameter(description = "Id of Customer to be fetched")
             @Schema(minimum = "0", required = true)
             @PathParam("id")
-            long id) {
+            long id,
+            @Context Request request) {
+
+        String key = ResponseCache.CUSTOMERS + id;
+        ResponseCache.Entry cached = responseCache.get(key);
+        if (cached == null) {
+            long generation = responseCache.generation();
+            Customer customer = service.findById(id);
+            if (customer == null) {
+                // Verify that the customer exists. Return 404, if not present.
+                throw new RestServiceException("No Customer with the id " + id + " was found!", Response.Status.NOT_FOUND);
+            }
+            cached = responseCache.putEntity(key, generation, customer, tag(customer), null);
+        }
+        log.debug("CustomerRestService.retrieveCustomerById", "id", id);
 
-        Customer customer = service.findById(id);
-        if (customer == null) {
-            // Verify that the customer exists. Return 404, if not present.
-            throw new RestServiceException("No Customer with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        return cached.toResponse(request);
+    }
+
+    /**
+     * <p>Imports many customers at once from a JSON array. Every customer is validated and the response holds one
+     * result per customer, in request order, with the status that customer would have got on its own.</p>
+     *
+     * @param customers The Customer objects to be <i>imported</i> via {@link CustomerService#importCustomers(List)}
+     * @return A Response containing the list of results
+     */
+    @POST
+    @Path("/import")
+    @Operation(description = "Import many Customers into the database in one request")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Customers processed, see the result of each item."),
+            @APIResponse(responseCode = "400", description = "The request body is not a list of Customers"),
+            @APIResponse(responseCode = "413", description = "The import holds too many Customers")
+    })
+    public Response importCustomers(
+            @Parameter(description = "JSON array of Customer objects to be added to the database", required = true)
+            List<Customer> customers) {
+
+        if (customers == null) {
+            throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
+        }
+        if (customers.size() > maxImportSize) {
+            throw new RestServiceException("An import may hold at most " + maxImportSize + " items",
+                    Response.Status.REQUEST_ENTITY_TOO_LARGE);
         }
-        log.info("findById " + id + ": found Customer = " + customer);
+        return importAll(customers);
+    }
 
-        return Response.ok(customer).build();
+    /**
+     * <p>Imports many customers at once from newline delimited JSON, one customer per line.</p>
+     *
+     * @param body The request body
+     * @return A Response containing the list of results
+     * @see #importCustomers(List)
+     */
+    @POST
+    @Path("/import")
+    @Consumes(NdjsonExporter.APPLICATION_NDJSON)
+    @Operation(description = "Import many Customers into the database from newline delimited JSON")
+    public Response importCustomersFromNdjson(InputStream body) {
+        return importAll(ndjsonReader.readAll(body, Customer.class, maxImportSize));
+    }
+
+    private Response importAll(List<Customer> customers) {
+        try {
+            return Response.ok(service.importCustomers(customers)).build();
+        } catch (SystemException e) {
+            throw new RestServiceException(e);
+        }
     }
 
     /**
@@ -212,7 +368,7 @@ public class CustomerRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("createCustomer completed. Customer = " + customer);
+        log.debug("CustomerRestService.createCustomer", "id", customer.getId());
         return builder.build();
     }
 
@@ -220,6 +376,9 @@ public class CustomerRestService {
      * <p>Updates the customer with the ID provided in the database. Performs validation, and will return a JAX-RS response
      * with either 200 (ok), or with a map of fields, and related errors.</p>
      *
+     * <p>An <code>If-Match</code> header that does not hold the Customer's current ETag fails the update with 412. A
+     * <code>version</code> in the body older than the stored one fails it with 409.</p>
+     *
      * @param customer The Customer object, constructed automatically from JSON input, to be <i>updated</i> via
      *                 {@link CustomerService#update(Customer)}
      * @param id       The long parameter value provided as the id of the Customer to be updated
@@ -233,6 +392,7 @@ public class CustomerRestService {
             @APIResponse(responseCode = "400", description = "Invalid Customer supplied in request body"),
             @APIResponse(responseCode = "404", description = "Customer with id not found"),
             @APIResponse(responseCode = "409", description = "Customer details supplied in request body conflict with another existing Customer"),
+            @APIResponse(responseCode = "412", description = "Customer changed since the version named by If-Match"),
             @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
     })
     @Transactional
@@ -242,7 +402,8 @@ public class CustomerRestService {
             @PathParam("id")
             long id,
             @Parameter(description = "JSON representation of Customer object to be updated in the database", required = true)
-            Customer customer) {
+            Customer customer,
+            @Context Request request) {
 
         if (customer == null || customer.getId() == null) {
             throw new RestServiceException("Invalid Customer supplied in request body", Response.Status.BAD_REQUEST);
@@ -256,19 +417,25 @@ public class CustomerRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(customer.getId()) == null) {
+        Customer current = service.findById(customer.getId());
+        if (current == null) {
             // Verify that the customer exists. Return 404, if not present.
             throw new RestServiceException("No Customer with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
 
+        EntityTags.checkPreconditions(request, "Customer", tag(current), null);
+        if (customer.getVersion() == null) {
+            customer.setVersion(current.getVersion());
+        }
+
         Response.ResponseBuilder builder;
 
         try {
             // Apply the changes the customer.
-            service.update(customer);
+            Customer updated = service.update(customer);
 
-            // Create an OK Response and pass the customer back in case it is needed.
-            builder = Response.ok(customer);
+            // Create an OK Response and pass the customer back, with its new version, in case it is needed.
+            builder = EntityTags.withValidators(Response.ok(updated), tag(updated), null);
 
 
         } catch (ConstraintViolationException ce) {
@@ -289,12 +456,18 @@ public class CustomerRestService {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("area_code", "The telephone area code provided is not recognised, please provide another");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        } catch (OptimisticLockException e) {
+            // Handle an update based on an older version of the customer
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Customer has been changed since this version, please fetch it again");
+            throw new RestServiceException("Customer details supplied in request body conflict with a newer version of the Customer",
+                    responseObj, Response.Status.CONFLICT, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
-        log.info("updateCustomer completed. Customer = " + customer);
+        log.debug("CustomerRestService.updateCustomer", "id", customer.getId());
         return builder.build();
     }
 
@@ -339,7 +512,11 @@ public class CustomerRestService {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
-        log.info("deleteCustomer completed. Customer = " + customer);
+        log.debug("CustomerRestService.deleteCustomer", "id", customer.getId());
         return builder.build();
     }
-}
\ No newline at end of file
+
+    private static EntityTag tag(Customer customer) {
+        return EntityTags.of(customer.getId(), customer.getVersion(), customer.bookingsVersion());
+    }
+}
@@ -1,19 +1,35 @@
 package uk.ac.newcastle.enterprisemiddleware.customer;
 
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
-import uk.ac.newcastle.enterprisemiddleware.area.Area;
 import uk.ac.newcastle.enterprisemiddleware.area.AreaService;
-import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingEvent;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingEventLog;
+import uk.ac.newcastle.enterprisemiddleware.taxi.TaxiAvailabilityIndex;
+import uk.ac.newcastle.enterprisemiddleware.util.BatchItemResult;
+import uk.ac.newcastle.enterprisemiddleware.util.ResponseCache;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+import uk.ac.newcastle.enterprisemiddleware.util.TransactionCallbacks;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
-import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * <p>This Service assumes the Control responsibility in the ECB pattern.</p>
@@ -34,7 +50,7 @@ public class CustomerService {
 
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     CustomerValidator validator;
@@ -42,6 +58,24 @@ public class CustomerService {
     @Inject
     CustomerRepository crud;
 
+    @Inject
+    TaxiAvailabilityIndex availabilityIndex;
+
+    @Inject
+    TransactionCallbacks transactionCallbacks;
+
+    @Inject
+    ResponseCache responseCache;
+
+    @Inject
+    BookingEventLog bookingEventLog;
+
+    @Inject
+    UserTransaction transaction;
+
+    @ConfigProperty(name = "customer.import.chunk-size", defaultValue = "500")
+    int importChunkSize;
+
     //Removed temporarily due to non-existing AreaService
     @RestClient
     AreaService areaService;
@@ -55,6 +89,28 @@ public class CustomerService {
         return crud.findAllOrderedByName();
     }
 
+    /**
+     * <p>Returns one page of persisted {@link Customer} objects, sorted alphabetically by last name.<p/>
+     *
+     * @param lastName  The lastName of the last Customer on the previous page, or null for the first page
+     * @param firstName The firstName of the last Customer on the previous page
+     * @param id        The id of the last Customer on the previous page
+     * @param limit     The maximum number of Customers to return
+     * @return List of Customer objects
+     */
+    List<Customer> findPageOrderedByName(String lastName, String firstName, Long id, int limit) {
+        return crud.findPageOrderedByName(lastName, firstName, id, limit);
+    }
+
+    /**
+     * <p>Returns one page of read-only {@link CustomerView} objects, sorted by lastName, firstName and id.<p/>
+     *
+     * @return List of CustomerView objects
+     */
+    List<CustomerView> findViewPage(String lastName, String firstName, Long id, int limit) {
+        return crud.findViewPage(lastName, firstName, id, limit);
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a Long id.<p/>
      *
@@ -77,6 +133,16 @@ public class CustomerService {
         return crud.findByEmail(email);
     }
 
+    /**
+     * <p>Returns the Customer with the given email, if there is one.</p>
+     *
+     * @param email The email field of the Customer to be returned
+     * @return The Customer with the specified email, or an empty Optional
+     */
+    public Optional<Customer> findOptionalByEmail(String email) {
+        return crud.findOptionalByEmail(email);
+    }
+
     /**
      * <p>Returns a single Customer object, specified by a String firstName.<p/>
      *
@@ -107,7 +173,7 @@ public class CustomerService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     public Customer create(Customer customer) throws Exception {
-        log.info("CustomerService.create() - Creating " + customer.getFirstName() + " " + customer.getLastName());
+        log.debug("CustomerService.create", "email", customer.getEmail());
 
         customer.setId(null);
         // Check to make sure the data fits with the parameters in the Customer model and passes validation.
@@ -115,7 +181,113 @@ public class CustomerService {
 
 
         // Write the customer to the database.
-        return crud.create(customer);
+        Customer created = crud.create(customer);
+        Long id = created.getId();
+        transactionCallbacks.afterCommit(() -> responseCache.invalidate(ResponseCache.CUSTOMERS + id));
+        return created;
+    }
+
+    /**
+     * <p>Imports a list of Customers and returns the outcome of each one, in order.</p>
+     *
+     * <p>All the customers are bean validated in parallel first (see {@link CustomerValidator#findViolations(List)}),
+     * and customers repeating an email address seen earlier in the import are rejected using a hash set. The rest
+     * are written in chunks of <code>customer.import.chunk-size</code>, each in its own transaction. A chunk checks
+     * its email addresses against the database with a single <code>IN</code> query and then writes the new
+     * customers in one flush, which Hibernate sends as JDBC insert batches.</p>
+     *
+     * @param customers The Customers to be imported
+     * @return One result per Customer, in the same order
+     * @throws SystemException If a failed chunk cannot be rolled back
+     */
+    public List<BatchItemResult> importCustomers(List<Customer> customers) throws SystemException {
+        log.info("CustomerService.importCustomers", "size", customers.size());
+
+        BatchItemResult[] results = new BatchItemResult[customers.size()];
+        List<Set<ConstraintViolation<Customer>>> violations = validator.findViolations(customers);
+        List<Integer> accepted = new ArrayList<>(customers.size());
+        Set<String> emails = new HashSet<>();
+
+        for (int i = 0; i < customers.size(); i++) {
+            Customer customer = customers.get(i);
+            if (customer == null) {
+                results[i] = rejected(i, Response.Status.BAD_REQUEST, "customer", "A customer is required");
+            } else if (!violations.get(i).isEmpty()) {
+                Map<String, String> reasons = new HashMap<>();
+                for (ConstraintViolation<Customer> violation : violations.get(i)) {
+                    reasons.put(violation.getPropertyPath().toString(), violation.getMessage());
+                }
+                results[i] = BatchItemResult.rejected(i, Response.Status.BAD_REQUEST, reasons);
+            } else if (!emails.add(customer.getEmail())) {
+                results[i] = rejected(i, Response.Status.CONFLICT, "email",
+                        "That email is already used earlier in this import, please use a unique email");
+            } else {
+                customer.setId(null);
+                // Bookings are not imported with their customer.
+                customer.setBookings(null);
+                accepted.add(i);
+            }
+        }
+
+        for (int from = 0; from < accepted.size(); from += importChunkSize) {
+            importChunk(customers, accepted.subList(from, Math.min(accepted.size(), from + importChunkSize)), results);
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * <p>Writes one chunk of an import in its own transaction, filling in the result of each of its items.</p>
+     */
+    private void importChunk(List<Customer> customers, List<Integer> indexes, BatchItemResult[] results)
+            throws SystemException {
+        List<Integer> written = new ArrayList<>(indexes.size());
+        try {
+            transaction.begin();
+
+            List<String> emails = new ArrayList<>(indexes.size());
+            for (int i : indexes) {
+                emails.add(customers.get(i).getEmail());
+            }
+            Set<String> taken = crud.findExistingEmails(emails);
+
+            List<Customer> chunk = new ArrayList<>(indexes.size());
+            for (int i : indexes) {
+                Customer customer = customers.get(i);
+                if (taken.contains(customer.getEmail())) {
+                    results[i] = rejected(i, Response.Status.CONFLICT, "email",
+                            "That email is already used, please use a unique email");
+                } else {
+                    chunk.add(customer);
+                    written.add(i);
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                crud.createAll(chunk);
+            }
+            transaction.commit();
+
+            for (int i : written) {
+                results[i] = BatchItemResult.created(i, customers.get(i).getId());
+            }
+        } catch (Exception e) {
+            log.warn("CustomerService.importCustomers.chunkFailed", e, "size", indexes.size());
+            if (transaction.getStatus() != Status.STATUS_NO_TRANSACTION) {
+                transaction.rollback();
+            }
+            for (int i : indexes) {
+                if (results[i] == null || results[i].isCreated()) {
+                    results[i] = rejected(i, Response.Status.INTERNAL_SERVER_ERROR, "customer",
+                            "The chunk holding this customer could not be written, please retry");
+                }
+            }
+        }
+    }
+
+    private static BatchItemResult rejected(int index, Response.Status status, String field, String reason) {
+        Map<String, String> reasons = new HashMap<>();
+        reasons.put(field, reason);
+        return BatchItemResult.rejected(index, status, reasons);
     }
 
     /**
@@ -128,25 +300,20 @@ public class CustomerService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Customer update(Customer customer) throws Exception {
-        log.info("CustomerService.update() - Updating " + customer.getFirstName() + " " + customer.getLastName());
+        log.debug("CustomerService.update", "id", customer.getId());
 
         // Check to make sure the data fits with the parameters in the Customer model and passes validation.
         validator.validateCustomer(customer);
 
-        try {
-            //Removed temporarily due to non-existing AreaService
-//            Area area = areaService.getAreaById(Integer.parseInt(customer.getPhoneNumber().substring(1, 4)));
-//            customer.setState(area.getState());
-        } catch (ClientErrorException e) {
-            if (e.getResponse().getStatusInfo() == Response.Status.NOT_FOUND) {
-                throw new InvalidAreaCodeException("The area code provided does not exist", e);
-            } else {
-                throw e;
-            }
-        }
+        //Removed temporarily due to non-existing AreaService
+//        Area area = areaService.getAreaById(Integer.parseInt(customer.getPhoneNumber().substring(1, 4)));
+//        customer.setState(area.getState());
 
         // Either update the customer or add it if it can't be found.
-        return crud.update(customer);
+        Customer updated = crud.update(customer);
+        Long id = updated.getId();
+        transactionCallbacks.afterCommit(() -> responseCache.invalidate(ResponseCache.CUSTOMERS + id));
+        return updated;
     }
 
     /**
@@ -157,14 +324,26 @@ public class CustomerService {
      * @throws Exception
      */
     public Customer delete(Customer customer) throws Exception {
-        log.info("delete() - Deleting " + customer.toString());
+        log.debug("CustomerService.delete", "id", customer.getId());
 
         Customer deletedCustomer = null;
 
         if (customer.getId() != null) {
+            // The customer's bookings are removed with it, so their taxis become free again.
+            List<Booking> bookings = customer.getBookings() == null ? List.of() : List.copyOf(customer.getBookings());
+            Long id = customer.getId();
             deletedCustomer = crud.delete(customer);
+            for (Booking booking : bookings) {
+                bookingEventLog.record(BookingEvent.Type.DELETED, booking);
+            }
+            transactionCallbacks.afterCommit(() -> {
+                for (Booking booking : bookings) {
+                    availabilityIndex.release(booking.getTaxiId(), booking.getBookDate());
+                }
+                responseCache.invalidate(ResponseCache.CUSTOMERS + id);
+            });
         } else {
-            log.info("delete() - No ID was found so can't Delete.");
+            log.debug("CustomerService.delete.noId");
         }
 
         return deletedCustomer;
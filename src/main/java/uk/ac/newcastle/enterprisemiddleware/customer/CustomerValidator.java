@@ -1,14 +1,22 @@
 package uk.ac.newcastle.enterprisemiddleware.customer;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
 import javax.validation.Validator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 /**
  * <p>This class provides methods to check Customer objects against arbitrary requirements.</p>
@@ -26,6 +34,21 @@ public class CustomerValidator {
     @Inject
     CustomerRepository crud;
 
+    @ConfigProperty(name = "customer.import.parallelism", defaultValue = "0")
+    int parallelism;
+
+    private ForkJoinPool pool;
+
+    @PostConstruct
+    void startPool() {
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @PreDestroy
+    void stopPool() {
+        pool.shutdown();
+    }
+
     /**
      * <p>Validates the given customer object and throws validation exceptions based on the type of error. If the error is standard
      * bean validation errors then it will throw a ConstraintValidationException with the set of the constraints violated.<p/>
@@ -53,6 +76,32 @@ public class CustomerValidator {
         }
     }
 
+    /**
+     * <p>Returns the bean validation violations of each of the given customers without throwing, so an import can
+     * report every invalid item at once.</p>
+     *
+     * <p>The customers are validated in parallel on a dedicated ForkJoin pool of
+     * <code>customer.import.parallelism</code> threads (one per core by default), so a large import does not take
+     * over the common pool used by the rest of the application.</p>
+     *
+     * @param customers The customers to be validated
+     * @return The violations of each customer, in the same order, empty if it is valid and null if it is null
+     */
+    List<Set<ConstraintViolation<Customer>>> findViolations(List<Customer> customers) {
+        Callable<List<Set<ConstraintViolation<Customer>>>> task = () -> customers.parallelStream()
+                .map(customer -> customer == null ? null : validator.validate(customer))
+                .collect(Collectors.toList());
+        try {
+            // A parallel stream started from inside a ForkJoin pool runs on that pool.
+            return pool.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValidationException("Validation was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new ValidationException("Validation failed", e.getCause());
+        }
+    }
+
     /**
      * <p>Checks if a customer with the same email address is already registered. This is the only way to easily capture the
      * "@UniqueConstraint(columnNames = "email")" constraint from the Customer class.</p>
@@ -65,25 +114,7 @@ public class CustomerValidator {
      * @return boolean which represents whether the email was found, and if so if it belongs to the user with id
      */
     boolean emailAlreadyExists(String email, Long id) {
-        Customer customer = null;
-        Customer customerWithID = null;
-        try {
-            customer = crud.findByEmail(email);
-        } catch (NoResultException e) {
-            // ignore
-        }
-
-        if (customer != null && id != null) {
-            try {
-                customerWithID = crud.findById(id);
-                if (customerWithID != null && customerWithID.getEmail().equals(email)) {
-                    customer = null;
-                }
-            } catch (NoResultException e) {
-                // ignore
-            }
-        }
-        return customer != null;
+        return crud.emailTaken(email, id);
     }
 }
 
@@ -0,0 +1,55 @@
+package uk.ac.newcastle.enterprisemiddleware.customer;
+
+import java.util.Date;
+
+/**
+ * <p>Read-only view of a Customer, as listed by <code>GET api/customers/views</code>.</p>
+ *
+ * <p>Views are created by a constructor expression directly from the selected columns, so no entity is loaded and
+ * the Customer's bookings are not touched.</p>
+ *
+ * @author Yi Zhang
+ * @see Customer#FIND_VIEWS
+ */
+public class CustomerView {
+
+    private final Long id;
+    private final String firstName;
+    private final String lastName;
+    private final String email;
+    private final String phoneNumber;
+    private final Date birthDate;
+
+    public CustomerView(Long id, String firstName, String lastName, String email, String phoneNumber, Date birthDate) {
+        this.id = id;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.email = email;
+        this.phoneNumber = phoneNumber;
+        this.birthDate = birthDate;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public Date getBirthDate() {
+        return birthDate;
+    }
+}
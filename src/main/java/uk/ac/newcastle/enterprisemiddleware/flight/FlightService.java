@@ -1,13 +1,17 @@
 package uk.ac.newcastle.enterprisemiddleware.flight;
 
 
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+import uk.ac.newcastle.enterprisemiddleware.util.ClientMetricsFilter;
 
 import javax.ws.rs.*;
 import java.util.List;
 
 @Path("/flightBookings")
 @RegisterRestClient(configKey = "flight-api")
+@RegisterProvider(ClientMetricsFilter.class)
 public interface FlightService {
 
     @GET
@@ -23,9 +27,9 @@ public interface FlightService {
     List<FlightBooking> getFlightBookingsByCustomer(@PathParam("customerId") Long id);
 
     @POST
-    FlightBooking createFlightBooking(FlightBooking flightbooking);
+    Uni<FlightBooking> createFlightBooking(FlightBooking flightbooking);
 
     @DELETE
     @Path("/{id:[0-9]+}")
-    FlightBooking deleteFlightBooking(@PathParam("id") Long id);
+    Uni<FlightBooking> deleteFlightBooking(@PathParam("id") Long id);
 }
\ No newline at end of file
@@ -10,11 +10,13 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 import uk.ac.newcastle.enterprisemiddleware.booking.BookingService;
+import uk.ac.newcastle.enterprisemiddleware.booking.UniqueTaxiIdException;
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 import uk.ac.newcastle.enterprisemiddleware.customer.CustomerService;
 import uk.ac.newcastle.enterprisemiddleware.customer.UniqueEmailException;
 import uk.ac.newcastle.enterprisemiddleware.taxi.TaxiService;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -31,7 +33,6 @@ import java.util.HashMap;
 
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 
 /**
@@ -58,7 +59,7 @@ import java.util.logging.Logger;
 public class GuestBookingRestService {
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     CustomerService service;
@@ -91,7 +92,8 @@ public class GuestBookingRestService {
     public Response createGuestBooking(
             @Parameter(description = "JSON representation of Customer object to be added to the database", required = true)
             GuestBooking guestBooking) throws SystemException {
-        log.info("GuestBookingRestService -- createGuestBooking starts executing");
+        log.debug("GuestBookingRestService.createGuestBooking", "taxiId",
+                guestBooking == null || guestBooking.getBooking() == null ? null : guestBooking.getBooking().getTaxiId());
 
         if (guestBooking == null) {
             throw new RestServiceException("Bad Request", Response.Status.BAD_REQUEST);
@@ -101,16 +103,12 @@ public class GuestBookingRestService {
 
         try {
             transaction.begin();
-            Customer customer = guestBooking.getCustomer();
-            try{
-                customer = service.findByEmail(guestBooking.getCustomer().getEmail());
-            }catch(Exception e){
+            Customer customer = service.findOptionalByEmail(guestBooking.getCustomer().getEmail()).orElse(null);
+            if (customer == null) {
+                customer = guestBooking.getCustomer();
                 customer.setId(null);
                 customer = service.create(customer);
             }
-//            if(customer == null){
-//                customer = service.create(customer);
-//            }
             Booking book = guestBooking.getBooking();
             book.setCustomerId(customer.getId());
             book.setId(null);
@@ -136,6 +134,11 @@ public class GuestBookingRestService {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("email", "That email is already used, please use a unique email");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, e);
+        } catch (UniqueTaxiIdException e) {
+            transaction.rollback();
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("taxiId", "That taxi is already booked on that date, please choose another taxi or date");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, e);
         } catch (InvalidAreaCodeException e) {
             transaction.rollback();
             Map<String, String> responseObj = new HashMap<>();
@@ -143,11 +146,9 @@ public class GuestBookingRestService {
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
         } catch (Exception e) {
             transaction.rollback();
-            e.printStackTrace();
             throw new RestServiceException(e);
         }
 
-        log.info("GuestBookingRestService -- createGuestBooking starts executing");
         return builder.build();
     }
 
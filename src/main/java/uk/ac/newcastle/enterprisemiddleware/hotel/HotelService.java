@@ -1,6 +1,9 @@
 package uk.ac.newcastle.enterprisemiddleware.hotel;
 
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.rest.client.annotation.RegisterProvider;
 import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+import uk.ac.newcastle.enterprisemiddleware.util.ClientMetricsFilter;
 
 import javax.ws.rs.*;
 import java.util.List;
@@ -8,6 +11,7 @@ import java.util.List;
 
 @Path("/hotelBookings")
 @RegisterRestClient(configKey = "hotel-api")
+@RegisterProvider(ClientMetricsFilter.class)
 public interface HotelService {
 
     @GET
@@ -23,9 +27,9 @@ public interface HotelService {
     List<HotelBooking> getHotelBookingsByCustomer(@PathParam("customerId") Long id);
 
     @POST
-    HotelBooking createHotelBooking(HotelBooking hotelBooking);
+    Uni<HotelBooking> createHotelBooking(HotelBooking hotelBooking);
 
     @DELETE
     @Path("/{id:[0-9]+}")
-    HotelBooking deleteHotelBooking(@PathParam("id") Long id);
+    Uni<HotelBooking> deleteHotelBooking(@PathParam("id") Long id);
 }
@@ -0,0 +1,88 @@
+package uk.ac.newcastle.enterprisemiddleware.slowQuery;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>The slow executions of one SQL statement, as reported by {@link SlowQueryRestService}.</p>
+ *
+ * <p>Only executions over the threshold are counted. The parameters and origin are those of the slowest one.</p>
+ *
+ * @author Yi Zhang
+ * @see SlowQueryLog
+ */
+public class SlowQuery {
+
+    private final String sql;
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+    private String parameters;
+    private String origin;
+    private Instant lastSeen;
+
+    SlowQuery(String sql) {
+        this.sql = sql;
+    }
+
+    private SlowQuery(SlowQuery other) {
+        this.sql = other.sql;
+        this.count = other.count;
+        this.totalNanos = other.totalNanos;
+        this.maxNanos = other.maxNanos;
+        this.parameters = other.parameters;
+        this.origin = other.origin;
+        this.lastSeen = other.lastSeen;
+    }
+
+    synchronized void record(long nanos, String parameters, String origin) {
+        count++;
+        totalNanos += nanos;
+        if (nanos >= maxNanos) {
+            maxNanos = nanos;
+            this.parameters = parameters;
+            this.origin = origin;
+        }
+        lastSeen = Instant.now();
+    }
+
+    synchronized SlowQuery snapshot() {
+        return new SlowQuery(this);
+    }
+
+    synchronized long maxNanos() {
+        return maxNanos;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    public long getMaxMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxNanos);
+    }
+
+    public long getAverageMillis() {
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos / count);
+    }
+
+    public String getParameters() {
+        return parameters;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public Instant getLastSeen() {
+        return lastSeen;
+    }
+}
@@ -0,0 +1,173 @@
+package uk.ac.newcastle.enterprisemiddleware.slowQuery;
+
+import org.eclipse.microprofile.config.ConfigProvider;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * <p>JDBC driver that times every statement the application executes and reports the slow ones to
+ * {@link SlowQueryLog}.</p>
+ *
+ * <p>It is set as <code>quarkus.datasource.jdbc.driver</code> and opens its connections with the driver named by
+ * <code>slow-query.driver</code>, H2 by default, using the same url. The connections and statements it returns
+ * are proxies that record the bind parameters and time the execute methods, so every statement sent by Hibernate,
+ * Flyway or the exporters is covered. With <code>slow-query.enabled=false</code> the connections are returned
+ * unwrapped.</p>
+ *
+ * <p>The driver does not register itself with the DriverManager, it is only used by the connection pool.</p>
+ *
+ * @author Yi Zhang
+ * @see SlowQueryLog
+ */
+public class SlowQueryDriver implements Driver {
+
+    private final Driver delegate;
+
+    public SlowQueryDriver() throws ReflectiveOperationException {
+        String name = ConfigProvider.getConfig().getOptionalValue("slow-query.driver", String.class)
+                .orElse("org.h2.Driver");
+        this.delegate = (Driver) Class.forName(name, true, Thread.currentThread().getContextClassLoader())
+                .getDeclaredConstructor()
+                .newInstance();
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        Connection connection = delegate.connect(url, info);
+        if (connection == null || !SlowQueryLog.get().isEnabled()) {
+            return connection;
+        }
+        return proxy(Connection.class, new ConnectionHandler(connection));
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+        return delegate.acceptsURL(url);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+        return delegate.getPropertyInfo(url, info);
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return delegate.getMajorVersion();
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return delegate.getMinorVersion();
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return delegate.jdbcCompliant();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return delegate.getParentLogger();
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(SlowQueryDriver.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+     * Wraps the statements the connection creates. Every other call goes straight to the connection.
+     */
+    private static final class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = SlowQueryDriver.invoke(connection, method, args);
+            switch (method.getName()) {
+                case "prepareStatement":
+                case "prepareCall":
+                    return proxy(method.getReturnType(), new StatementHandler((Statement) result, (String) args[0]));
+                case "createStatement":
+                    return proxy(Statement.class, new StatementHandler((Statement) result, null));
+                default:
+                    return result;
+            }
+        }
+    }
+
+    /*
+     * Keeps the bind parameters as they are set and times the execute methods. A statement is only used by one
+     * thread at a time, so no synchronisation is needed.
+     */
+    private static final class StatementHandler implements InvocationHandler {
+
+        private final Statement statement;
+        private final String sql;
+        private Object[] parameters = new Object[8];
+        private int parameterCount;
+        private int batchSize;
+
+        StatementHandler(Statement statement, String sql) {
+            this.statement = statement;
+            this.sql = sql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                long start = System.nanoTime();
+                try {
+                    return SlowQueryDriver.invoke(statement, method, args);
+                } finally {
+                    long elapsed = System.nanoTime() - start;
+                    SlowQueryLog log = SlowQueryLog.get();
+                    if (log.isSlow(elapsed)) {
+                        String executed = sql != null ? sql : args != null && args.length > 0 ? (String) args[0] : name;
+                        log.record(executed, elapsed, parameters, parameterCount, batchSize);
+                    }
+                    if (name.equals("executeBatch")) {
+                        batchSize = 0;
+                    }
+                }
+            }
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                bind((Integer) args[0], name.equals("setNull") ? null : args[1]);
+            } else if (name.equals("clearParameters")) {
+                Arrays.fill(parameters, null);
+                parameterCount = 0;
+            } else if (name.equals("addBatch")) {
+                batchSize++;
+            }
+            return SlowQueryDriver.invoke(statement, method, args);
+        }
+
+        private void bind(int index, Object value) {
+            if (index > parameters.length) {
+                parameters = Arrays.copyOf(parameters, Math.max(index, parameters.length * 2));
+            }
+            parameters[index - 1] = value;
+            parameterCount = Math.max(parameterCount, index);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package uk.ac.newcastle.enterprisemiddleware.slowQuery;
+
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Logs the SQL statements that took longer than <code>slow-query.threshold-ms</code>, with their bind parameters
+ * and the application method they were issued from, and keeps the slowest ones for {@link SlowQueryRestService}.</p>
+ *
+ * <p>Bind parameters are often personal data, such as email addresses and phone numbers, so each one is shown as
+ * <code>?</code> unless <code>slow-query.log-parameters</code> is set.</p>
+ *
+ * <p>Statements are timed by {@link SlowQueryDriver}. Nothing but a comparison is done for a statement under the
+ * threshold. The origin is found by walking the stack, which is only done for slow statements. It is the innermost
+ * application method, e.g. <code>CustomerRepository.findAllByLastName</code>. Inserts and updates are usually
+ * sent when the transaction commits, so their origin is the transactional REST method.</p>
+ *
+ * <p>At most <code>slow-query.max-statements</code> distinct statements are kept. When a new one arrives, the one
+ * with the shortest slowest execution is dropped.</p>
+ *
+ * @author Yi Zhang
+ * @see SlowQueryDriver
+ */
+public final class SlowQueryLog {
+
+    private static final String APPLICATION_PACKAGE = "uk.ac.newcastle.enterprisemiddleware.";
+    private static final String OWN_PACKAGE = SlowQueryLog.class.getPackageName() + ".";
+    private static final int MAX_PARAMETER_LENGTH = 100;
+    private static final StackWalker STACK = StackWalker.getInstance();
+
+    private static final SlowQueryLog INSTANCE = new SlowQueryLog(ConfigProvider.getConfig());
+
+    private final StructuredLogger log = StructuredLogger.getLogger(SlowQueryLog.class.getName());
+    private final boolean enabled;
+    private final boolean logParameters;
+    private final long thresholdNanos;
+    private final int maxStatements;
+    private final Map<String, SlowQuery> statements = new ConcurrentHashMap<>();
+
+    private SlowQueryLog(Config config) {
+        this.enabled = config.getOptionalValue("slow-query.enabled", Boolean.class).orElse(true);
+        this.logParameters = config.getOptionalValue("slow-query.log-parameters", Boolean.class).orElse(false);
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(
+                config.getOptionalValue("slow-query.threshold-ms", Long.class).orElse(100L));
+        this.maxStatements = config.getOptionalValue("slow-query.max-statements", Integer.class).orElse(100);
+    }
+
+    public static SlowQueryLog get() {
+        return INSTANCE;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    /**
+     * <p>Logs and keeps one slow execution.</p>
+     *
+     * @param sql        The statement as sent to the database
+     * @param nanos      How long it took
+     * @param parameters The bind parameters, the first at index 0
+     * @param count      The number of bind parameters set
+     * @param batchSize  The number of rows of a batch, 0 if it was not batched
+     */
+    void record(String sql, long nanos, Object[] parameters, int count, int batchSize) {
+        String origin = origin();
+        String rendered = render(parameters, count, batchSize, logParameters);
+        log.warn("slowQuery", null, "millis", TimeUnit.NANOSECONDS.toMillis(nanos), "origin", origin,
+                "sql", sql, "parameters", rendered);
+
+        SlowQuery statement = statements.get(sql);
+        if (statement == null) {
+            if (statements.size() >= maxStatements) {
+                evictFastest();
+            }
+            statement = statements.computeIfAbsent(sql, SlowQuery::new);
+        }
+        statement.record(nanos, rendered, origin);
+    }
+
+    /**
+     * <p>Returns the statements with the slowest executions, slowest first.</p>
+     */
+    public List<SlowQuery> top(int limit) {
+        return statements.values().stream()
+                .map(SlowQuery::snapshot)
+                .sorted(Comparator.comparingLong(SlowQuery::getMaxMillis).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    public void clear() {
+        statements.clear();
+    }
+
+    private void evictFastest() {
+        statements.values().stream()
+                .min(Comparator.comparingLong(SlowQuery::maxNanos))
+                .ifPresent(fastest -> statements.remove(fastest.getSql(), fastest));
+    }
+
+    private static String origin() {
+        return STACK.walk(frames -> frames
+                .filter(frame -> frame.getClassName().startsWith(APPLICATION_PACKAGE)
+                        && !frame.getClassName().startsWith(OWN_PACKAGE))
+                .findFirst()
+                .map(frame -> simpleName(frame.getClassName()) + "." + frame.getMethodName())
+                .orElse("unknown"));
+    }
+
+    /*
+     * Drops the package, and the suffix of the subclasses and proxies Quarkus generates, e.g.
+     * BookingRestService_Subclass.
+     */
+    private static String simpleName(String className) {
+        String name = className.substring(className.lastIndexOf('.') + 1);
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) == '_' || name.charAt(i) == '$') {
+                return name.substring(0, i);
+            }
+        }
+        return name;
+    }
+
+    private static String render(Object[] parameters, int count, int batchSize, boolean values) {
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (int i = 0; i < count; i++) {
+            if (!values) {
+                joiner.add("?");
+                continue;
+            }
+            Object value = parameters[i];
+            String text = value instanceof String ? "'" + value + "'" : String.valueOf(value);
+            joiner.add(text.length() > MAX_PARAMETER_LENGTH ? text.substring(0, MAX_PARAMETER_LENGTH) + "..." : text);
+        }
+        return batchSize > 1 ? joiner + " (last of a batch of " + batchSize + ")" : joiner.toString();
+    }
+}
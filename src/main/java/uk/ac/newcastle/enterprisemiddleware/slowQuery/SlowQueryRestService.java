@@ -0,0 +1,66 @@
+package uk.ac.newcastle.enterprisemiddleware.slowQuery;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.List;
+
+/**
+ * <p>This class produces a RESTFul service for operators that reports the slowest SQL statements recorded by
+ * {@link SlowQueryLog} since startup or the last reset.</p>
+ *
+ * <p>The service has no authentication, so it answers 404 unless <code>slow-query.endpoint.enabled</code> is set,
+ * which it is only in dev mode by default. Bind parameters are only reported if
+ * <code>slow-query.log-parameters</code> is set as well. Even then this path should only be reachable from the
+ * operators' network.</p>
+ *
+ * @author Yi Zhang
+ * @see SlowQueryLog
+ */
+@Path("/admin/slow-queries")
+@Produces(MediaType.APPLICATION_JSON)
+public class SlowQueryRestService {
+
+    @ConfigProperty(name = "slow-query.endpoint.enabled", defaultValue = "false")
+    boolean endpointEnabled;
+
+    /**
+     * <p>Returns the statements with the slowest executions, slowest first.</p>
+     *
+     * <p>Example: <pre>GET api/admin/slow-queries?limit=10</pre></p>
+     *
+     * @param limit The number of statements returned, 20 by default
+     * @return A Response containing a list of SlowQuery objects
+     */
+    @GET
+    @Operation(summary = "Fetch the slowest SQL statements", description = "Returns the statements that took longer " +
+            "than the slow query threshold, slowest first, with the bind parameters and origin of their slowest execution.")
+    public Response retrieveSlowQueries(@QueryParam("limit") @DefaultValue("20") int limit) {
+        checkEnabled();
+        List<SlowQuery> slowest = SlowQueryLog.get().top(Math.max(1, limit));
+        return Response.ok(slowest).build();
+    }
+
+    /**
+     * <p>Forgets every recorded statement, e.g. after an index was added.</p>
+     *
+     * @return A Response with no content
+     */
+    @DELETE
+    @Operation(summary = "Reset the slow query report")
+    public Response resetSlowQueries() {
+        checkEnabled();
+        SlowQueryLog.get().clear();
+        return Response.noContent().build();
+    }
+
+    private void checkEnabled() {
+        if (!endpointEnabled) {
+            throw new RestServiceException("Not Found", Response.Status.NOT_FOUND);
+        }
+    }
+}
@@ -1,12 +1,16 @@
 package uk.ac.newcastle.enterprisemiddleware.taxi;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
+import org.hibernate.annotations.UpdateTimestamp;
 import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
 
 import javax.persistence.*;
 import javax.validation.constraints.*;
 import javax.xml.bind.annotation.XmlRootElement;
 import java.io.Serializable;
+import java.util.Date;
 import java.util.List;
 import java.util.Objects;
 
@@ -26,10 +30,29 @@ import java.util.Objects;
 @Entity
 @NamedQueries({
         @NamedQuery(name = Taxi.FIND_ALL, query = "SELECT t FROM Taxi t ORDER BY t.registrationNumber ASC"),
-        @NamedQuery(name = Taxi.FIND_BY_REG, query = "SELECT c FROM Taxi c WHERE c.registrationNumber = :registrationNumber")
+        @NamedQuery(name = Taxi.FIND_ALL_AFTER, query = "SELECT t FROM Taxi t WHERE t.registrationNumber > :registrationNumber " +
+                "ORDER BY t.registrationNumber ASC"),
+        @NamedQuery(name = Taxi.FIND_BY_REG, query = "SELECT c FROM Taxi c WHERE c.registrationNumber = :registrationNumber"),
+        @NamedQuery(name = Taxi.FIND_ID_BY_REG, query = "SELECT t.id FROM Taxi t WHERE t.registrationNumber = :registrationNumber"),
+        @NamedQuery(name = Taxi.FIND_OTHER_ID_BY_REG, query = "SELECT t.id FROM Taxi t " +
+                "WHERE t.registrationNumber = :registrationNumber AND t.id <> :id"),
+        @NamedQuery(name = Taxi.FIND_VIEWS, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.taxi.TaxiView(" +
+                "t.id, t.registrationNumber, t.seatNumber, t.phoneNumber) FROM Taxi t ORDER BY t.registrationNumber ASC"),
+        @NamedQuery(name = Taxi.FIND_VIEWS_AFTER, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.taxi.TaxiView(" +
+                "t.id, t.registrationNumber, t.seatNumber, t.phoneNumber) FROM Taxi t " +
+                "WHERE t.registrationNumber > :registrationNumber ORDER BY t.registrationNumber ASC")
 })
+/*
+ * Taxis are read far more often than they are written, so they are kept in the second-level cache. Writes through
+ * the EntityManager update the cached copy. The registration number is the natural id, and its resolution to the
+ * primary key is cached too, so lookups by registration number are served from memory when warm.
+ */
+@Cacheable
+@NaturalIdCache
 @XmlRootElement
-@Table(name = "taxi", uniqueConstraints = @UniqueConstraint(columnNames = "registration_number"))
+@Table(name = "taxi", indexes = {
+        @Index(name = "idx_taxi_seat_number", columnList = "seat_number")
+})
 
 public class Taxi implements Serializable {
     /**
@@ -38,7 +61,12 @@ public class Taxi implements Serializable {
     private static final long serialVersionUID = 1456723867L;
 
     public static final String FIND_ALL = "Taxi.findAll";
+    public static final String FIND_ALL_AFTER = "Taxi.findAllAfter";
     public static final String FIND_BY_REG = "Taxi.findByRegistrationNumber";
+    public static final String FIND_ID_BY_REG = "Taxi.findIdByRegistrationNumber";
+    public static final String FIND_OTHER_ID_BY_REG = "Taxi.findOtherIdByRegistrationNumber";
+    public static final String FIND_VIEWS = "Taxi.findViews";
+    public static final String FIND_VIEWS_AFTER = "Taxi.findViewsAfter";
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -47,7 +75,8 @@ public class Taxi implements Serializable {
     @NotNull
     @NotEmpty
     @Pattern(regexp = "^[a-zA-Z0-9]{7}$", message = "Please enter a seven-digit registrationNumber number consisting of numbers and letters.")
-    @Column(name = "registration_number")
+    @NaturalId(mutable = true)
+    @Column(name = "registration_number", unique = true)
     private String registrationNumber;
 
     @NotNull
@@ -62,10 +91,23 @@ public class Taxi implements Serializable {
     private String phoneNumber;
 
     @JsonIgnore
-    @OneToMany(cascade = CascadeType.ALL, targetEntity = Booking.class, fetch = FetchType.LAZY)
-    @JoinColumn(name = "taxi_id")
+    @OneToMany(mappedBy = "taxi", cascade = CascadeType.ALL, targetEntity = Booking.class, fetch = FetchType.LAZY)
     private List<Booking> taxiId;
 
+    /*
+     * Hibernate increments the version on every update, and an update carrying an older version than the stored row
+     * fails with an OptimisticLockException instead of overwriting the newer change. The version and the time of the
+     * last change are the HTTP validators (ETag and Last-Modified) of GET /taxis/{id}.
+     */
+    @Version
+    @Column(name = "version")
+    private Long version;
+
+    @JsonIgnore
+    @UpdateTimestamp
+    @Column(name = "last_modified")
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date lastModified;
 
     public Long getId() {
         return id;
@@ -107,6 +149,18 @@ public class Taxi implements Serializable {
         this.taxiId = taxiId;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
+
 
 
     @Override
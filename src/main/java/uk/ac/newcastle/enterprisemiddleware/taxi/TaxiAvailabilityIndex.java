@@ -0,0 +1,195 @@
+package uk.ac.newcastle.enterprisemiddleware.taxi;
+
+import io.quarkus.runtime.StartupEvent;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * <p>In-memory index answering "which taxis are free on a given date" without touching the database.</p>
+ *
+ * <p>For every date with at least one booking the index holds a bitmap (a <code>long[]</code> with one bit per taxi
+ * id) of the taxis booked on that date. It also holds a snapshot of every taxi so the seat filter can be applied
+ * without a query. A lookup is a walk over the taxi snapshots testing one bit each.</p>
+ *
+ * <p>Bitmaps are copy-on-write: writers replace the array for a date atomically, so readers never take a lock and
+ * always see a consistent bitmap. The index is loaded from the database at startup and then kept up to date by
+ * {@link TaxiService} and {@link uk.ac.newcastle.enterprisemiddleware.booking.BookingService}, which only apply a
+ * change once its transaction has committed.</p>
+ *
+ * @author Yi Zhang
+ * @see TaxiRestService#retrieveAvailableTaxis(String, Integer)
+ */
+@ApplicationScoped
+public class TaxiAvailabilityIndex {
+
+    @Inject
+    @Named("logger")
+    StructuredLogger log;
+
+    @Inject
+    EntityManager em;
+
+    private final Map<Long, long[]> bookedByDay = new ConcurrentHashMap<>();
+
+    private final Map<Long, Taxi> taxis = new ConcurrentSkipListMap<>();
+
+    @Transactional
+    void onStart(@Observes StartupEvent event) {
+        for (Taxi taxi : em.createNamedQuery(Taxi.FIND_ALL, Taxi.class).getResultList()) {
+            putTaxi(taxi);
+        }
+        List<Object[]> bookings = em.createNamedQuery(Booking.FIND_TAXI_DATES, Object[].class).getResultList();
+        for (Object[] booking : bookings) {
+            book((Long) booking[0], (Date) booking[1]);
+        }
+        log.info("TaxiAvailabilityIndex.onStart", "taxis", taxis.size(), "bookings", bookings.size());
+    }
+
+    /**
+     * <p>Returns the taxis with at least the given number of seats that have no booking on the given date, in id
+     * order.</p>
+     *
+     * @param date     The date to check
+     * @param minSeats The minimum number of seats
+     * @return List of the available Taxis
+     */
+    public List<Taxi> findAvailable(LocalDate date, int minSeats) {
+        long[] booked = bookedByDay.get(date.toEpochDay());
+        List<Taxi> available = new ArrayList<>();
+        for (Taxi taxi : taxis.values()) {
+            if (taxi.getSeatNumber() >= minSeats && !isSet(booked, taxi.getId())) {
+                available.add(taxi);
+            }
+        }
+        return available;
+    }
+
+    /**
+     * <p>Returns whether the taxi has a committed booking on the given date.</p>
+     *
+     * @param taxiId The id of the taxi
+     * @param date   The booking date
+     * @return true if the taxi is booked on that date
+     */
+    public boolean isBooked(Long taxiId, Date date) {
+        return taxiId != null && date != null && isSet(bookedByDay.get(epochDay(date)), taxiId);
+    }
+
+    /**
+     * <p>Marks the taxi as booked on the given date.</p>
+     *
+     * @param taxiId The id of the booked taxi
+     * @param date   The booking date
+     */
+    public void book(Long taxiId, Date date) {
+        if (taxiId == null || date == null) {
+            return;
+        }
+        int bit = bitOf(taxiId);
+        bookedByDay.compute(epochDay(date), (day, words) -> {
+            int index = bit >>> 6;
+            long[] copy = words == null ? new long[index + 1]
+                    : Arrays.copyOf(words, Math.max(words.length, index + 1));
+            copy[index] |= 1L << bit;
+            return copy;
+        });
+    }
+
+    /**
+     * <p>Marks the taxi as free on the given date.</p>
+     *
+     * @param taxiId The id of the taxi
+     * @param date   The date of the removed booking
+     */
+    public void release(Long taxiId, Date date) {
+        if (taxiId == null || date == null) {
+            return;
+        }
+        int bit = bitOf(taxiId);
+        bookedByDay.computeIfPresent(epochDay(date), (day, words) -> {
+            int index = bit >>> 6;
+            if (index >= words.length) {
+                return words;
+            }
+            long[] copy = words.clone();
+            copy[index] &= ~(1L << bit);
+            for (long word : copy) {
+                if (word != 0) {
+                    return copy;
+                }
+            }
+            // No taxi is booked on this date any more.
+            return null;
+        });
+    }
+
+    /**
+     * <p>Adds or replaces the snapshot of the given taxi.</p>
+     *
+     * @param taxi The created or updated Taxi
+     */
+    public void putTaxi(Taxi taxi) {
+        // Reject ids the bitmaps cannot hold before the taxi becomes visible.
+        bitOf(taxi.getId());
+        Taxi snapshot = new Taxi();
+        snapshot.setId(taxi.getId());
+        snapshot.setRegistrationNumber(taxi.getRegistrationNumber());
+        snapshot.setSeatNumber(taxi.getSeatNumber());
+        snapshot.setPhoneNumber(taxi.getPhoneNumber());
+        taxis.put(snapshot.getId(), snapshot);
+    }
+
+    /**
+     * <p>Removes the snapshot of the given taxi so it is no longer offered as available.</p>
+     *
+     * @param taxiId The id of the deleted Taxi
+     */
+    public void removeTaxi(Long taxiId) {
+        taxis.remove(taxiId);
+    }
+
+    /**
+     * <p>Converts a booking date to the day number used to key the bitmaps.</p>
+     *
+     * @param date The booking date
+     * @return The number of days since 1970-01-01
+     */
+    public static long epochDay(Date date) {
+        if (date instanceof java.sql.Date) {
+            // java.sql.Date does not support toInstant()
+            return ((java.sql.Date) date).toLocalDate().toEpochDay();
+        }
+        return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    private static boolean isSet(long[] words, long taxiId) {
+        if (words == null || taxiId < 0 || taxiId > Integer.MAX_VALUE) {
+            return false;
+        }
+        int index = (int) (taxiId >>> 6);
+        return index < words.length && (words[index] & (1L << taxiId)) != 0;
+    }
+
+    private static int bitOf(Long taxiId) {
+        if (taxiId == null || taxiId < 0 || taxiId > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Taxi id out of range for the availability index: " + taxiId);
+        }
+        return taxiId.intValue();
+    }
+}
@@ -1,17 +1,23 @@
 package uk.ac.newcastle.enterprisemiddleware.taxi;
 
 
+import org.hibernate.Session;
+import uk.ac.newcastle.enterprisemiddleware.util.Metered;
+import uk.ac.newcastle.enterprisemiddleware.util.ReadOnlyQueries;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.persistence.EntityManager;
+import javax.persistence.NoResultException;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolationException;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Optional;
 
 /**
  * <p>This is a Repository class and connects the Service/Control layer (see {@link TaxiService} with the
@@ -25,12 +31,13 @@ import java.util.logging.Logger;
  * @see EntityManager
  * @see EntityManager
  */
+@Metered
 @RequestScoped
 public class TaxiRepository {
 
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     EntityManager em;
@@ -45,6 +52,46 @@ public class TaxiRepository {
         return query.getResultList();
     }
 
+    /**
+     * <p>Returns one page of persistent {@link Taxi} objects, sort by registration number order.</p>
+     *
+     * <p>The page starts directly after the given registration number. If it is null the first page is returned.</p>
+     *
+     * @param registrationNumber The registrationNumber of the last Taxi on the previous page, or null for the first page
+     * @param limit              The maximum number of Taxis to return
+     * @return List of at most limit Taxi objects
+     */
+    List<Taxi> findPageOrderedByRegistration(String registrationNumber, int limit) {
+        TypedQuery<Taxi> query;
+        if (registrationNumber == null) {
+            query = em.createNamedQuery(Taxi.FIND_ALL, Taxi.class);
+        } else {
+            query = em.createNamedQuery(Taxi.FIND_ALL_AFTER, Taxi.class)
+                    .setParameter("registrationNumber", registrationNumber);
+        }
+        return query.setMaxResults(limit).getResultList();
+    }
+
+    /**
+     * <p>Returns the same page as {@link #findPageOrderedByRegistration(String, int)} as read-only
+     * {@link TaxiView} objects. No entities are created.</p>
+     *
+     * @param registrationNumber The registration number of the last Taxi on the previous page, or null for the first
+     *                           page
+     * @param limit              The maximum number of Taxis to return
+     * @return List of at most limit TaxiView objects
+     */
+    List<TaxiView> findViewPage(String registrationNumber, int limit) {
+        TypedQuery<TaxiView> query;
+        if (registrationNumber == null) {
+            query = em.createNamedQuery(Taxi.FIND_VIEWS, TaxiView.class);
+        } else {
+            query = em.createNamedQuery(Taxi.FIND_VIEWS_AFTER, TaxiView.class)
+                    .setParameter("registrationNumber", registrationNumber);
+        }
+        return ReadOnlyQueries.readOnly(query).setMaxResults(limit).getResultList();
+    }
+
     /**
      * <p>Returns a single Taxi object, specified by a Long id.<p/>
      *
@@ -56,16 +103,61 @@ public class TaxiRepository {
     }
 
     /**
-     * <p>Returns a single Taxi object, specified by a String registrationNumber.</p>
+     * <p>Returns the Taxi with the given registrationNumber, or null if there is none.</p>
+     *
+     * <p>The registrationNumber is the Taxi's natural id, so it is resolved through the persistence context and the
+     * natural id cache, and only reaches the database when neither holds it.<p/>
+     *
+     * @param registrationNumber The registrationNumber field of the Taxi to be returned
+     * @return The Taxi with the specified registrationNumber, or null
+     */
+    Taxi findByNaturalId(String registrationNumber) {
+        return em.unwrap(Session.class).bySimpleNaturalId(Taxi.class).load(registrationNumber);
+    }
+
+    /**
+     * <p>Returns the Taxi with the given registrationNumber, if there is one.</p>
+     *
+     * <p>Use this rather than {@link #findByRegistrationNumber(String)} when a missing Taxi is an expected outcome, so
+     * no exception is created.<p/>
+     *
+     * @param registrationNumber The registrationNumber field of the Taxi to be returned
+     * @return The Taxi with the specified registrationNumber, or an empty Optional
+     */
+    Optional<Taxi> findOptionalByRegistrationNumber(String registrationNumber) {
+        return Optional.ofNullable(findByNaturalId(registrationNumber));
+    }
+
+    /**
+     * <p>Checks whether a Taxi other than the given one has the given registrationNumber.</p>
+     *
+     * <p>This is a single query for at most one id, served by the unique index on registration_number, so it costs
+     * one round trip however many Taxis are stored and loads no entity.<p/>
      *
-     * <p>If there is more than one Taxi with the specified registrationNumber, only the first encountered will be returned.<p/>
+     * @param registrationNumber The registrationNumber to check
+     * @param excludeId          The id of the Taxi being updated, which may hold the registrationNumber itself, or null
+     * @return true if a different Taxi has the registrationNumber
+     */
+    boolean registrationNumberTaken(String registrationNumber, Long excludeId) {
+        TypedQuery<Long> query = excludeId == null
+                ? em.createNamedQuery(Taxi.FIND_ID_BY_REG, Long.class)
+                : em.createNamedQuery(Taxi.FIND_OTHER_ID_BY_REG, Long.class).setParameter("id", excludeId);
+        return !query.setParameter("registrationNumber", registrationNumber).setMaxResults(1).getResultList().isEmpty();
+    }
+
+    /**
+     * <p>Returns a single Taxi object, specified by a String registrationNumber.</p>
      *
      * @param registrationNumber The registrationNumber field of the Taxi to be returned
-     * @return The first Taxi with the specified registrationNumber
+     * @return The Taxi with the specified registrationNumber
+     * @throws NoResultException If there is no Taxi with the specified registrationNumber
      */
     Taxi findByRegistrationNumber(String registrationNumber) {
-        TypedQuery<Taxi> query = em.createNamedQuery(Taxi.FIND_BY_REG, Taxi.class).setParameter("registrationNumber", registrationNumber);
-        return query.getSingleResult();
+        Taxi taxi = findByNaturalId(registrationNumber);
+        if (taxi == null) {
+            throw new NoResultException("No Taxi with registrationNumber " + registrationNumber);
+        }
+        return taxi;
     }
 
     /**
@@ -98,7 +190,7 @@ public class TaxiRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Taxi create(Taxi taxi) throws Exception {
-        log.info("TaxiRepository.create() - Creating " + taxi.getRegistrationNumber() + "-" + taxi.getSeatNumber());
+        log.debug("TaxiRepository.create", "registrationNumber", taxi.getRegistrationNumber());
 
         // Write the taxi to the database.
         em.persist(taxi);
@@ -120,12 +212,13 @@ public class TaxiRepository {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Taxi update(Taxi taxi) throws Exception {
-        log.info("TaxiRepository.update() - Updating " +  taxi.getRegistrationNumber() + "-" + taxi.getSeatNumber());
+        log.debug("TaxiRepository.update", "id", taxi.getId());
 
-        // Either update the Taxi or add it if it can't be found.
-        em.merge(taxi);
+        // Either update the Taxi or add it if it can't be found. Flush so a stale version is reported here.
+        Taxi merged = em.merge(taxi);
+        em.flush();
 
-        return taxi;
+        return merged;
     }
 
     /**
@@ -136,7 +229,7 @@ public class TaxiRepository {
      * @throws Exception
      */
     Taxi delete(Taxi taxi) throws Exception {
-        log.info("TaxiRepository.delete() - Deleting " +  taxi.getRegistrationNumber() + "-" + taxi.getSeatNumber());
+        log.debug("TaxiRepository.delete", "id", taxi.getId());
 
         if (taxi.getId() != null) {
             /*
@@ -155,7 +248,7 @@ public class TaxiRepository {
             em.remove(em.merge(taxi));
 
         } else {
-            log.info("TaxiRepository.delete() - No ID was found so can't Delete.");
+            log.debug("TaxiRepository.delete.noId");
         }
 
         return taxi;
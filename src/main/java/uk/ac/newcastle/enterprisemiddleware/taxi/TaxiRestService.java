@@ -8,22 +8,31 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.jboss.resteasy.reactive.Cache;
 import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
 import uk.ac.newcastle.enterprisemiddleware.booking.UniqueTaxiIdException;
+import uk.ac.newcastle.enterprisemiddleware.util.ContinuationToken;
+import uk.ac.newcastle.enterprisemiddleware.util.EntityTags;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonExporter;
+import uk.ac.newcastle.enterprisemiddleware.util.ResponseCache;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.persistence.OptimisticLockException;
 import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
 
 
 /**
@@ -50,11 +59,17 @@ import java.util.logging.Logger;
 public class TaxiRestService {
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     TaxiService service;
 
+    @Inject
+    NdjsonExporter exporter;
+
+    @Inject
+    ResponseCache responseCache;
+
     /**
      * <p>Returns all taxis. They are sorted by the numerical order of the registration number.     </p>
      *
@@ -62,30 +77,137 @@ public class TaxiRestService {
      *
      * <p>Examples: <pre>GET api/taxis?registration=1945693</pre>, <pre>GET api/taxis?registration=1945693</pre></p>
      *
+     * <p>Without a registration number the Taxis are returned one page at a time. The page size is set with the
+     * <code>limit</code> query parameter and the next page is requested by passing the value of the
+     * {@link ContinuationToken#HEADER} response header back as the <code>after</code> query parameter.</p>
+     *
      * @return A Response containing a list of Taxis
      */
     @GET
-    @Operation(summary = "Fetch all Taxis", description = "Returns a JSON array of all stored Taxi objects.")
-    public Response retrieveAllTaxis(@QueryParam("registrationNumber") String registrationNumber) {
+    @Operation(summary = "Fetch all Taxis", description = "Returns a JSON array of stored Taxi objects, one page at a time.")
+    public Response retrieveAllTaxis(@QueryParam("registrationNumber") String registrationNumber,
+                                     @QueryParam("limit") Integer limit, @QueryParam("after") String after) {
+        int pageSize = ContinuationToken.clampLimit(limit);
+        String key = registrationNumber != null ? ResponseCache.TAXIS + "registration=" + registrationNumber
+                : ResponseCache.TAXIS + "page?limit=" + pageSize + (after == null ? "" : "&after=" + after);
+        ResponseCache.Entry cached = responseCache.get(key);
+        if (cached != null) {
+            return cached.toResponse();
+        }
+        long generation = responseCache.generation();
+
         //Create an empty collection to contain the intersection of Taxis to be returned
         List<Taxi> taxis;
+        String continuation = null;
 
         if (registrationNumber == null) {
-            taxis = service.findAllOrderedByRegistration();
+            String afterRegistration = after == null ? null : ContinuationToken.decode(after, 1)[0];
+            taxis = service.findPageOrderedByRegistration(afterRegistration, pageSize);
+            if (taxis.size() == pageSize) {
+                continuation = ContinuationToken.encode(taxis.get(taxis.size() - 1).getRegistrationNumber());
+            }
         } else {
-            taxis = (List<Taxi>) service.findByRegistrationNumber(registrationNumber);
+            taxis = service.findOptionalByRegistrationNumber(registrationNumber).map(List::of).orElse(List.of());
         }
-        return Response.ok(taxis).build();
+        return responseCache.putPage(key, generation, taxis, continuation).toResponse();
+    }
+
+    /**
+     * <p>Returns the same pages as {@link #retrieveAllTaxis}, as read-only views.</p>
+     *
+     * <p>The views are selected directly into DTOs, so no entity is loaded, tracked or dirty checked.</p>
+     *
+     * <p>Example: <pre>GET api/taxis/views?limit=100</pre></p>
+     *
+     * @return A Response containing a list of TaxiView objects
+     */
+    @GET
+    @Path("/views")
+    @Operation(summary = "Fetch Taxi views", description = "Returns a JSON array of read-only Taxi views, one page at a time.")
+    public Response retrieveTaxiViews(@QueryParam("limit") Integer limit, @QueryParam("after") String after) {
+        int pageSize = ContinuationToken.clampLimit(limit);
+        String afterRegistration = after == null ? null : ContinuationToken.decode(after, 1)[0];
+        List<TaxiView> views = service.findViewPage(afterRegistration, pageSize);
+
+        Response.ResponseBuilder builder = Response.ok(views);
+        if (views.size() == pageSize) {
+            builder.header(ContinuationToken.HEADER,
+                    ContinuationToken.encode(views.get(views.size() - 1).getRegistrationNumber()));
+        }
+        return builder.build();
+    }
+
+    /**
+     * <p>Export all the Taxis as newline delimited JSON, one Taxi per line.</p>
+     *
+     * <p>The Taxis are streamed from the database as they are read, so the response starts straight away and the
+     * export uses the same amount of memory however many Taxis are stored.</p>
+     *
+     * <p>Example: <pre>GET api/taxis/export</pre></p>
+     *
+     * @return A Response streaming every Taxi
+     */
+    @GET
+    @Path("/export")
+    @Produces(NdjsonExporter.APPLICATION_NDJSON)
+    @Operation(summary = "Export all Taxis", description = "Streams every stored Taxi object as newline delimited JSON.")
+    public Response exportTaxis() {
+        return Response.ok(exporter.export(Taxi.FIND_ALL, Taxi.class)).build();
+    }
+
+    /**
+     * <p>Return the Taxis that are free on the given date and have at least the given number of seats.</p>
+     *
+     * <p>The answer is read from the in-memory {@link TaxiAvailabilityIndex}, not from the database.</p>
+     *
+     * <p>Example: <pre>GET api/taxis/available?date=2023-01-31&minSeats=4</pre></p>
+     *
+     * @param date     The date the Taxi is needed on, in the format yyyy-MM-dd
+     * @param minSeats The minimum number of seats, optional
+     * @return A Response containing a list of available Taxis
+     */
+    @GET
+    @Path("/available")
+    @Operation(summary = "Fetch available Taxis", description = "Returns a JSON array of the Taxis with no booking on the given date.")
+    @APIResponses(value = {
+            @APIResponse(responseCode = "200", description = "Available Taxis returned"),
+            @APIResponse(responseCode = "400", description = "Missing or invalid date")
+    })
+    public Response retrieveAvailableTaxis(
+            @Parameter(description = "Date the Taxi is needed on (yyyy-MM-dd)", required = true)
+            @QueryParam("date")
+            String date,
+            @Parameter(description = "Minimum number of seats")
+            @QueryParam("minSeats")
+            Integer minSeats) {
+
+        if (date == null) {
+            throw new RestServiceException("The date query parameter is required", Response.Status.BAD_REQUEST);
+        }
+        LocalDate day;
+        try {
+            day = LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("date", "The date must be in the format yyyy-MM-dd");
+            throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        }
+
+        return Response.ok(service.findAvailable(day, minSeats == null ? 0 : minSeats)).build();
     }
 
     /**
      * <p>Search for and return a Taxi identified by id.</p>
      *
+     * <p>The response carries an ETag and a Last-Modified header. A client polling the Taxi sends them back as
+     * <code>If-None-Match</code> or <code>If-Modified-Since</code> and gets 304 without a body while the Taxi is
+     * unchanged.</p>
+     *
      * @param taxiId The long parameter value provided as a Taxi's id
      * @return A Response containing a single Taxi
      */
     @GET
-    @Cache
+    @Cache(maxAge = 0, mustRevalidate = true)
     @Path("/{id:[0-9]+}")
     @Operation(
             summary = "Fetch a Taxi by id",
@@ -94,22 +216,31 @@ public class TaxiRestService {
 
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Taxi found"),
+            @APIResponse(responseCode = "304", description = "Taxi not modified"),
             @APIResponse(responseCode = "404", description = "Taxi with id not found")
     })
     public Response retrieveCustomerById(
             @Parameter(description = "Id of Customer to be fetched")
             @Schema(minimum = "0", required = true)
             @PathParam("id")
-            long taxiId) {
-
-        Taxi taxi = service.findById(taxiId);
-        if (taxi == null) {
-            // Verify that the customer exists. Return 404, if not present.
-            throw new RestServiceException("No Customer with the id " + taxiId + " was found!", Response.Status.NOT_FOUND);
+            long taxiId,
+            @Context Request request) {
+
+        String key = ResponseCache.TAXIS + taxiId;
+        ResponseCache.Entry cached = responseCache.get(key);
+        if (cached == null) {
+            long generation = responseCache.generation();
+            Taxi taxi = service.findById(taxiId);
+            if (taxi == null) {
+                // Verify that the customer exists. Return 404, if not present.
+                throw new RestServiceException("No Customer with the id " + taxiId + " was found!", Response.Status.NOT_FOUND);
+            }
+            cached = responseCache.putEntity(key, generation, taxi, EntityTags.of(taxi.getId(), taxi.getVersion()),
+                    taxi.getLastModified());
         }
-        log.info("findById " + taxiId + ": found Customer = " + taxi);
+        log.debug("TaxiRestService.retrieveTaxiById", "id", taxiId);
 
-        return Response.ok(taxi).build();
+        return cached.toResponse(request);
     }
 
     /**
@@ -119,7 +250,7 @@ public class TaxiRestService {
      * @return A Response containing a single Taxi
      */
     @GET
-    @Cache
+    @Cache(maxAge = 0, mustRevalidate = true)
     @Path("/{registrationNumber:[a-zA-Z0-9] {7}$}")
     @Operation(
             summary = "Fetch a Taxi by registration number",
@@ -128,22 +259,22 @@ public class TaxiRestService {
 
     @APIResponses(value = {
             @APIResponse(responseCode = "200", description = "Taxi found"),
+            @APIResponse(responseCode = "304", description = "Taxi not modified"),
             @APIResponse(responseCode = "404", description = "Taxi with id not found")
     })
     public Response retrieveCustomerBy1Id(
             @Parameter(description = "Id of Customer to be fetched")
             @Schema(minimum = "0", required = true)
             @PathParam("registrationNumber")
-            String registrationNumber) {
+            String registrationNumber,
+            @Context Request request) {
 
-        Taxi taxi = service.findByRegistrationNumber(registrationNumber);
-        if (taxi == null) {
-            // Verify that the customer exists. Return 404, if not present.
-            throw new RestServiceException("No Customer with the registration number " + registrationNumber + " was found!", Response.Status.NOT_FOUND);
-        }
-        log.info("findByRegistrationNumber " + registrationNumber + ": found Customer = " + taxi);
+        // Verify that the taxi exists. Return 404, if not present.
+        Taxi taxi = service.findOptionalByRegistrationNumber(registrationNumber).orElseThrow(() ->
+                new RestServiceException("No Taxi with the registration number " + registrationNumber + " was found!", Response.Status.NOT_FOUND));
+        log.debug("TaxiRestService.retrieveTaxiByRegistrationNumber", "registrationNumber", registrationNumber);
 
-        return Response.ok(taxi).build();
+        return EntityTags.get(request, taxi, EntityTags.of(taxi.getId(), taxi.getVersion()), taxi.getLastModified());
     }
 
     /**
@@ -177,7 +308,7 @@ public class TaxiRestService {
             // Verify that the taxi exists. Return 404, if not present.
             throw new RestServiceException("No Taxi with the seat number " + seatNumber + " was found!", Response.Status.NOT_FOUND);
         }
-        log.info("findBySeatNumber " + seatNumber + ": found Taxi = " + taxi);
+        log.debug("TaxiRestService.retrieveTaxiBySeatNumber", "seatNumber", seatNumber);
 
         return Response.ok(taxi).build();
     }
@@ -240,7 +371,7 @@ public class TaxiRestService {
             throw new RestServiceException(e);
         }
 
-        log.info("createTaxi completed. Taxi = " + taxi);
+        log.debug("TaxiRestService.createTaxi", "id", taxi.getId());
         return builder.build();
     }
 
@@ -248,6 +379,10 @@ public class TaxiRestService {
      * <p>Updates the taxi with the ID provided in the database. Performs validation, and will return a JAX-RS response
      * with either 200 (ok), or with a map of fields, and related errors.</p>
      *
+     * <p>An <code>If-Match</code> header that does not hold the Taxi's current ETag fails the update with 412. A
+     * <code>version</code> in the body older than the stored one fails it with 409, so a client cannot overwrite a
+     * change it has not seen. Without either the update is applied to the stored version.</p>
+     *
      * @param taxi The Taxi object, constructed automatically from JSON input, to be <i>updated</i> via
      *             {@link TaxiService#update(Taxi)}
      * @param id   The long parameter value provided as the id of the Taxi to be updated
@@ -261,6 +396,7 @@ public class TaxiRestService {
             @APIResponse(responseCode = "400", description = "Invalid Taxi supplied in request body"),
             @APIResponse(responseCode = "404", description = "Taxi with id not found"),
             @APIResponse(responseCode = "409", description = "Taxi details supplied in request body conflict with another existing Taxi"),
+            @APIResponse(responseCode = "412", description = "Taxi changed since the version named by If-Match"),
             @APIResponse(responseCode = "500", description = "An unexpected error occurred whilst processing the request")
     })
     @Transactional
@@ -270,7 +406,8 @@ public class TaxiRestService {
             @PathParam("id")
             long id,
             @Parameter(description = "JSON representation of Taxi object to be updated in the database", required = true)
-            Taxi taxi) {
+            Taxi taxi,
+            @Context Request request) {
 
         if (taxi == null || taxi.getId() == null) {
             throw new RestServiceException("Invalid Taxi supplied in request body", Response.Status.BAD_REQUEST);
@@ -284,19 +421,27 @@ public class TaxiRestService {
                     responseObj, Response.Status.CONFLICT);
         }
 
-        if (service.findById(taxi.getId()) == null) {
+        Taxi current = service.findById(taxi.getId());
+        if (current == null) {
             // Verify that the taxi exists. Return 404, if not present.
             throw new RestServiceException("No Taxi with the id " + id + " was found!", Response.Status.NOT_FOUND);
         }
 
+        EntityTags.checkPreconditions(request, "Taxi", EntityTags.of(current.getId(), current.getVersion()),
+                current.getLastModified());
+        if (taxi.getVersion() == null) {
+            taxi.setVersion(current.getVersion());
+        }
+
         Response.ResponseBuilder builder;
 
         try {
             // Apply the changes the Taxi.
-            service.update(taxi);
+            Taxi updated = service.update(taxi);
 
-            // Create an OK Response and pass the taxi back in case it is needed.
-            builder = Response.ok(taxi);
+            // Create an OK Response and pass the taxi back, with its new version, in case it is needed.
+            builder = EntityTags.withValidators(Response.ok(updated),
+                    EntityTags.of(updated.getId(), updated.getVersion()), updated.getLastModified());
 
 
         } catch (ConstraintViolationException ce) {
@@ -317,12 +462,18 @@ public class TaxiRestService {
             Map<String, String> responseObj = new HashMap<>();
             responseObj.put("registration", "The registration area code provided is not recognised, please provide another");
             throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, e);
+        } catch (OptimisticLockException e) {
+            // Handle an update based on an older version of the Taxi
+            Map<String, String> responseObj = new HashMap<>();
+            responseObj.put("version", "The Taxi has been changed since this version, please fetch it again");
+            throw new RestServiceException("Taxi details supplied in request body conflict with a newer version of the Taxi",
+                    responseObj, Response.Status.CONFLICT, e);
         } catch (Exception e) {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
 
-        log.info("createTaxi completed. Taxi = " + taxi);
+        log.debug("TaxiRestService.updateTaxi", "id", taxi.getId());
         return builder.build();
     }
 
@@ -367,7 +518,7 @@ public class TaxiRestService {
             // Handle generic exceptions
             throw new RestServiceException(e);
         }
-        log.info("deleteTaxi completed. Taxi = " + taxi);
+        log.debug("TaxiRestService.deleteTaxi", "id", taxi.getId());
         return builder.build();
     }
 }
\ No newline at end of file
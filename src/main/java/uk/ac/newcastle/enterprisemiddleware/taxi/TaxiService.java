@@ -2,18 +2,22 @@ package uk.ac.newcastle.enterprisemiddleware.taxi;
 
 
 import org.eclipse.microprofile.rest.client.inject.RestClient;
-import uk.ac.newcastle.enterprisemiddleware.area.Area;
 import uk.ac.newcastle.enterprisemiddleware.area.AreaService;
-import uk.ac.newcastle.enterprisemiddleware.area.InvalidAreaCodeException;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingEvent;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingEventLog;
+import uk.ac.newcastle.enterprisemiddleware.util.ResponseCache;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+import uk.ac.newcastle.enterprisemiddleware.util.TransactionCallbacks;
 
 import javax.enterprise.context.Dependent;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.validation.ConstraintViolationException;
-import javax.ws.rs.ClientErrorException;
 import javax.ws.rs.core.Response;
+import java.time.LocalDate;
 import java.util.List;
-import java.util.logging.Logger;
+import java.util.Optional;
 
 /**
  * <p>This Service assumes the Control responsibility in the ECB pattern.</p>
@@ -34,7 +38,7 @@ public class TaxiService {
 
     @Inject
     @Named("logger")
-    Logger log;
+    StructuredLogger log;
 
     @Inject
     TaxiValidator validator;
@@ -42,6 +46,18 @@ public class TaxiService {
     @Inject
     TaxiRepository crud;
 
+    @Inject
+    TaxiAvailabilityIndex availabilityIndex;
+
+    @Inject
+    TransactionCallbacks transactionCallbacks;
+
+    @Inject
+    ResponseCache responseCache;
+
+    @Inject
+    BookingEventLog bookingEventLog;
+
     //Removed temporarily due to non-existing AreaService
     @RestClient
     AreaService areaService;
@@ -55,6 +71,26 @@ public class TaxiService {
         return crud.findAllOrderedByRegistration();
     }
 
+    /**
+     * <p>Returns one page of persisted {@link Taxi} objects, sort by number order of registration number.<p/>
+     *
+     * @param registrationNumber The registrationNumber of the last Taxi on the previous page, or null for the first page
+     * @param limit              The maximum number of Taxis to return
+     * @return List of Taxi objects
+     */
+    List<Taxi> findPageOrderedByRegistration(String registrationNumber, int limit) {
+        return crud.findPageOrderedByRegistration(registrationNumber, limit);
+    }
+
+    /**
+     * <p>Returns one page of read-only {@link TaxiView} objects, sorted by registration number.<p/>
+     *
+     * @return List of TaxiView objects
+     */
+    List<TaxiView> findViewPage(String registrationNumber, int limit) {
+        return crud.findViewPage(registrationNumber, limit);
+    }
+
     /**
      * <p>Returns a single Taxi object, specified by a Long id.<p/>
      *
@@ -77,6 +113,16 @@ public class TaxiService {
         return crud.findByRegistrationNumber(registrationNumber);
     }
 
+    /**
+     * <p>Returns the Taxi with the given registration number, if there is one.</p>
+     *
+     * @param registrationNumber The registrationNumber field of the Taxi to be returned
+     * @return The Taxi with the specified registration number, or an empty Optional
+     */
+    Optional<Taxi> findOptionalByRegistrationNumber(String registrationNumber) {
+        return crud.findOptionalByRegistrationNumber(registrationNumber);
+    }
+
     /**
      * <p>Returns a single Taxi object, specified by an int seatNumber.<p/>
      *
@@ -88,6 +134,19 @@ public class TaxiService {
     }
 
 
+    /**
+     * <p>Returns the Taxis with at least minSeats seats that are not booked on the given date.<p/>
+     *
+     * <p>The answer comes from the {@link TaxiAvailabilityIndex} and does not query the database.<p/>
+     *
+     * @param date     The date the Taxi is needed on
+     * @param minSeats The minimum number of seats
+     * @return List of available Taxi objects
+     */
+    List<Taxi> findAvailable(LocalDate date, int minSeats) {
+        return availabilityIndex.findAvailable(date, minSeats);
+    }
+
     /**
      * <p>Writes the provided Taxi object to the application database.<p/>
      *
@@ -98,11 +157,16 @@ public class TaxiService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Taxi create(Taxi taxi) throws Exception {
-        log.info("TaxiService.create() - Creating " + taxi.getRegistrationNumber() + " " + taxi.getSeatNumber());
+        log.debug("TaxiService.create", "registrationNumber", taxi.getRegistrationNumber());
         // Check to make sure the data fits with the parameters in the Taxi model and passes validation.
         validator.validateTaxi(taxi);
         // Write the taxi to the database.
-        return crud.create(taxi);
+        Taxi created = crud.create(taxi);
+        transactionCallbacks.afterCommit(() -> {
+            availabilityIndex.putTaxi(created);
+            responseCache.invalidateRegion(ResponseCache.TAXIS);
+        });
+        return created;
     }
 
     /**
@@ -115,13 +179,18 @@ public class TaxiService {
      * @throws ConstraintViolationException, ValidationException, Exception
      */
     Taxi update(Taxi taxi) throws Exception {
-        log.info("TaxiService.update() - Updating " + taxi.getRegistrationNumber() + " " + taxi.getSeatNumber());
+        log.debug("TaxiService.update", "id", taxi.getId());
 
         // Check to make sure the data fits with the parameters in the Taxi model and passes validation.
         validator.validateTaxi(taxi);
 
         // Either update the taxi or add it if it can't be found.
-        return crud.update(taxi);
+        Taxi updated = crud.update(taxi);
+        transactionCallbacks.afterCommit(() -> {
+            availabilityIndex.putTaxi(updated);
+            responseCache.invalidateRegion(ResponseCache.TAXIS);
+        });
+        return updated;
     }
 
     /**
@@ -132,14 +201,25 @@ public class TaxiService {
      * @throws Exception
      */
     Taxi delete(Taxi taxi) throws Exception {
-        log.info("delete() - Deleting " + taxi.toString());
+        log.debug("TaxiService.delete", "id", taxi.getId());
 
         Taxi deletedTaxi = null;
 
         if (taxi.getId() != null) {
+            List<Booking> bookings = taxi.getTaxiId() == null ? List.of() : List.copyOf(taxi.getTaxiId());
             deletedTaxi = crud.delete(taxi);
+            for (Booking booking : bookings) {
+                bookingEventLog.record(BookingEvent.Type.DELETED, booking);
+            }
+            Long taxiId = taxi.getId();
+            // The taxi's bookings are removed with it, and they are part of their customers' JSON.
+            transactionCallbacks.afterCommit(() -> {
+                availabilityIndex.removeTaxi(taxiId);
+                responseCache.invalidateRegion(ResponseCache.TAXIS);
+                responseCache.invalidateRegion(ResponseCache.CUSTOMERS);
+            });
         } else {
-            log.info("delete() - No ID was found so can't Delete.");
+            log.debug("TaxiService.delete.noId");
         }
 
         return deletedTaxi;
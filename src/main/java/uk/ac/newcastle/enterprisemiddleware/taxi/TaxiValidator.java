@@ -2,7 +2,6 @@ package uk.ac.newcastle.enterprisemiddleware.taxi;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
-import javax.persistence.NoResultException;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.validation.ValidationException;
@@ -65,27 +64,7 @@ public class TaxiValidator {
      * @return boolean which represents whether the registrationNumber was found, and if so if it belongs to the user with id
      */
     boolean registrationNumberAlreadyExists(String registrationNumber, Long id) {
-        Taxi taxi = null;
-        Taxi taxiWithID = null;
-        try {
-            taxi = crud.findByRegistrationNumber(registrationNumber);
-        } catch (NoResultException e) {
-            e.printStackTrace();
-            // ignore
-        }
-
-        if (taxi != null && id != null) {
-            try {
-                taxiWithID = crud.findById(id);
-                if (taxiWithID != null && taxiWithID.getRegistrationNumber().equals(registrationNumber)) {
-                    taxi = null;
-                }
-            } catch (NoResultException e) {
-                e.printStackTrace();
-                // ignore
-            }
-        }
-        return taxi != null;
+        return crud.registrationNumberTaken(registrationNumber, id);
     }
 }
 
@@ -0,0 +1,40 @@
+package uk.ac.newcastle.enterprisemiddleware.taxi;
+
+/**
+ * <p>Read-only view of a Taxi, as listed by <code>GET api/taxis/views</code>.</p>
+ *
+ * <p>Views are created by a constructor expression directly from the selected columns, so no entity is loaded.</p>
+ *
+ * @author Yi Zhang
+ * @see Taxi#FIND_VIEWS
+ */
+public class TaxiView {
+
+    private final Long id;
+    private final String registrationNumber;
+    private final int seatNumber;
+    private final String phoneNumber;
+
+    public TaxiView(Long id, String registrationNumber, int seatNumber, String phoneNumber) {
+        this.id = id;
+        this.registrationNumber = registrationNumber;
+        this.seatNumber = seatNumber;
+        this.phoneNumber = phoneNumber;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getRegistrationNumber() {
+        return registrationNumber;
+    }
+
+    public int getSeatNumber() {
+        return seatNumber;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+}
@@ -0,0 +1,187 @@
+package uk.ac.newcastle.enterprisemiddleware.travelAgent;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.DynamicUpdate;
+
+import javax.persistence.*;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * <p>Durable state of one travel agent booking saga.</p>
+ *
+ * <p>A saga books a taxi locally and a flight and a hotel remotely. Each step is recorded here, in its own short
+ * transaction, as soon as it succeeds, so the saga knows which bookings exist and must be cancelled if a later step
+ * fails. A compensation clears the id of the step it undid. Sagas left {@link Status#STARTED} or
+ * {@link Status#COMPENSATING} by a restart are picked up again by {@link TravelAgentSaga}.</p>
+ *
+ * <p>The original request is kept as JSON so an interrupted saga can be resumed.</p>
+ *
+ * <p>The steps run concurrently, each in its own transaction, so each one writes only its own booking id column with
+ * an UPDATE of that column, and changes to the loaded entity only write the columns that changed. A step can then
+ * never overwrite the id another step has just recorded with the null it read.</p>
+ *
+ * @author Yi Zhang
+ * @see TravelAgentSaga
+ */
+@Entity
+@DynamicUpdate
+@NamedQueries({
+        @NamedQuery(name = SagaLog.FIND_BY_STATUS, query = "SELECT s FROM SagaLog s WHERE s.status IN :statuses ORDER BY s.id"),
+        @NamedQuery(name = SagaLog.SET_TAXI_BOOKING, query = "UPDATE SagaLog s SET s.taxiBookingId = :bookingId WHERE s.id = :id"),
+        @NamedQuery(name = SagaLog.SET_FLIGHT_BOOKING, query = "UPDATE SagaLog s SET s.flightBookingId = :bookingId WHERE s.id = :id"),
+        @NamedQuery(name = SagaLog.SET_HOTEL_BOOKING, query = "UPDATE SagaLog s SET s.hotelBookingId = :bookingId WHERE s.id = :id")
+})
+@Table(name = "saga_log", indexes = {
+        @Index(name = "idx_saga_log_status", columnList = "status, id")
+})
+public class SagaLog implements Serializable {
+
+    private static final long serialVersionUID = 3391046528714L;
+
+    public static final String FIND_BY_STATUS = "SagaLog.findByStatus";
+    public static final String SET_TAXI_BOOKING = "SagaLog.setTaxiBooking";
+    public static final String SET_FLIGHT_BOOKING = "SagaLog.setFlightBooking";
+    public static final String SET_HOTEL_BOOKING = "SagaLog.setHotelBooking";
+
+    public enum Status {
+        /** Steps are being run. */
+        STARTED,
+        /** Every step succeeded and the TravelAgentBooking was written. */
+        COMPLETED,
+        /** A step failed and the steps that succeeded are being cancelled. */
+        COMPENSATING,
+        /** Every step that succeeded has been cancelled. */
+        COMPENSATED
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "saga_log_seq")
+    @SequenceGenerator(name = "saga_log_seq", sequenceName = "saga_log_seq", allocationSize = 20)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private Status status;
+
+    @Column(name = "customer_id")
+    private Long customerId;
+
+    @Column(name = "taxi_booking_id")
+    private Long taxiBookingId;
+
+    @Column(name = "flight_booking_id")
+    private Long flightBookingId;
+
+    @Column(name = "hotel_booking_id")
+    private Long hotelBookingId;
+
+    @Column(name = "travel_agent_booking_id")
+    private Long travelAgentBookingId;
+
+    @Column(name = "failure", length = 1000)
+    private String failure;
+
+    @JsonIgnore
+    @Lob
+    @Column(name = "payload")
+    private String payload;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "updated_at")
+    private Date updatedAt;
+
+    @PrePersist
+    @PreUpdate
+    void touch() {
+        updatedAt = new Date();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public Long getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(Long customerId) {
+        this.customerId = customerId;
+    }
+
+    public Long getTaxiBookingId() {
+        return taxiBookingId;
+    }
+
+    public void setTaxiBookingId(Long taxiBookingId) {
+        this.taxiBookingId = taxiBookingId;
+    }
+
+    public Long getFlightBookingId() {
+        return flightBookingId;
+    }
+
+    public void setFlightBookingId(Long flightBookingId) {
+        this.flightBookingId = flightBookingId;
+    }
+
+    public Long getHotelBookingId() {
+        return hotelBookingId;
+    }
+
+    public void setHotelBookingId(Long hotelBookingId) {
+        this.hotelBookingId = hotelBookingId;
+    }
+
+    public Long getTravelAgentBookingId() {
+        return travelAgentBookingId;
+    }
+
+    public void setTravelAgentBookingId(Long travelAgentBookingId) {
+        this.travelAgentBookingId = travelAgentBookingId;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    public void setFailure(String failure) {
+        this.failure = failure;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    @Override
+    public String toString() {
+        return "SagaLog{" +
+                "id=" + id +
+                ", status=" + status +
+                ", taxiBookingId=" + taxiBookingId +
+                ", flightBookingId=" + flightBookingId +
+                ", hotelBookingId=" + hotelBookingId +
+                ", travelAgentBookingId=" + travelAgentBookingId +
+                '}';
+    }
+}
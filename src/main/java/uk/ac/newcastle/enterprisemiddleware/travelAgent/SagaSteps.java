@@ -0,0 +1,239 @@
+package uk.ac.newcastle.enterprisemiddleware.travelAgent;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingService;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.control.ActivateRequestContext;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.persistence.EntityManager;
+import javax.transaction.Transactional;
+import java.util.List;
+
+/**
+ * <p>The local steps of a {@link TravelAgentSaga}, each run in its own short transaction.</p>
+ *
+ * <p>Every method starts a new transaction, so no database connection is held while the saga waits for the remote
+ * flight and hotel services. A step that changes local data records the change in the {@link SagaLog} in the same
+ * transaction, so the log and the data can never disagree.</p>
+ *
+ * <p>The steps are called from the saga's worker threads, so each one activates a request context for the
+ * request scoped repositories it uses.</p>
+ *
+ * @author Yi Zhang
+ * @see TravelAgentSaga
+ */
+@ApplicationScoped
+public class SagaSteps {
+
+    @Inject
+    @Named("logger")
+    StructuredLogger log;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @Inject
+    BookingService bookingService;
+
+    @Inject
+    TravelAgentBookingRepository crud;
+
+    /**
+     * <p>Records the start of a saga, keeping the request so the saga can be resumed after a restart.</p>
+     *
+     * @param request The travel agent booking request
+     * @return The new SagaLog
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public SagaLog begin(TravelAgent request) {
+        SagaLog saga = new SagaLog();
+        saga.setStatus(SagaLog.Status.STARTED);
+        saga.setCustomerId(request.getCustomer().getId());
+        try {
+            saga.setPayload(mapper.writeValueAsString(request));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("The travel agent request cannot be stored", e);
+        }
+        em.persist(saga);
+        return saga;
+    }
+
+    @ActivateRequestContext
+    public SagaLog find(Long sagaId) {
+        return em.find(SagaLog.class, sagaId);
+    }
+
+    /**
+     * <p>Returns the sagas which were still running or compensating when the application stopped.</p>
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public List<SagaLog> findUnfinished() {
+        return em.createNamedQuery(SagaLog.FIND_BY_STATUS, SagaLog.class)
+                .setParameter("statuses", List.of(SagaLog.Status.STARTED, SagaLog.Status.COMPENSATING))
+                .getResultList();
+    }
+
+    /**
+     * <p>Rebuilds the original request of a saga from its log.</p>
+     */
+    public TravelAgent payload(SagaLog saga) {
+        try {
+            return mapper.readValue(saga.getPayload(), TravelAgent.class);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("The request of saga " + saga.getId() + " cannot be read", e);
+        }
+    }
+
+    /**
+     * <p>Books the taxi and records the booking in the saga log, in one transaction.</p>
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void bookTaxi(Long sagaId, Booking booking) throws Exception {
+        booking.setId(null);
+        Booking created = bookingService.create(booking);
+        setBookingId(SagaLog.SET_TAXI_BOOKING, sagaId, created.getId());
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void recordFlight(Long sagaId, Long flightBookingId) {
+        setBookingId(SagaLog.SET_FLIGHT_BOOKING, sagaId, flightBookingId);
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void recordHotel(Long sagaId, Long hotelBookingId) {
+        setBookingId(SagaLog.SET_HOTEL_BOOKING, sagaId, hotelBookingId);
+    }
+
+    /**
+     * <p>Writes the TravelAgentBooking tying the three bookings together and marks the saga as completed.</p>
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public SagaLog complete(Long sagaId) throws Exception {
+        SagaLog saga = em.find(SagaLog.class, sagaId);
+        if (saga.getStatus() == SagaLog.Status.COMPLETED) {
+            return saga;
+        }
+
+        TravelAgentBooking travelAgentBooking = new TravelAgentBooking();
+        travelAgentBooking.setCustomerId(saga.getCustomerId());
+        travelAgentBooking.setTaxiBookingId(saga.getTaxiBookingId());
+        travelAgentBooking.setFlightBookingId(saga.getFlightBookingId());
+        travelAgentBooking.setHotelBookingId(saga.getHotelBookingId());
+        crud.create(travelAgentBooking);
+
+        saga.setTravelAgentBookingId(travelAgentBooking.getId());
+        saga.setStatus(SagaLog.Status.COMPLETED);
+        log.debug("SagaSteps.complete", "sagaId", saga.getId(), "travelAgentBookingId", saga.getTravelAgentBookingId());
+        return saga;
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public SagaLog markCompensating(Long sagaId, String failure) {
+        SagaLog saga = em.find(SagaLog.class, sagaId);
+        saga.setStatus(SagaLog.Status.COMPENSATING);
+        if (failure != null) {
+            saga.setFailure(truncate(failure));
+        }
+        return saga;
+    }
+
+    /**
+     * <p>Adds the failure of a compensation to the failures already recorded for the saga.</p>
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void recordFailure(Long sagaId, String failure) {
+        SagaLog saga = em.find(SagaLog.class, sagaId);
+        saga.setFailure(truncate(saga.getFailure() == null ? failure : saga.getFailure() + "; " + failure));
+    }
+
+    /**
+     * <p>Cancels the taxi booking of the saga and clears it from the log, in one transaction.</p>
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void cancelTaxi(Long sagaId) throws Exception {
+        SagaLog saga = em.find(SagaLog.class, sagaId);
+        if (saga.getTaxiBookingId() == null) {
+            return;
+        }
+        Booking booking = bookingService.findById(saga.getTaxiBookingId());
+        if (booking != null) {
+            bookingService.delete(booking);
+        }
+        setBookingId(SagaLog.SET_TAXI_BOOKING, sagaId, null);
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void clearFlight(Long sagaId) {
+        setBookingId(SagaLog.SET_FLIGHT_BOOKING, sagaId, null);
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void clearHotel(Long sagaId) {
+        setBookingId(SagaLog.SET_HOTEL_BOOKING, sagaId, null);
+    }
+
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public SagaLog markCompensated(Long sagaId) {
+        SagaLog saga = em.find(SagaLog.class, sagaId);
+        saga.setStatus(SagaLog.Status.COMPENSATED);
+        log.info("SagaSteps.markCompensated", "sagaId", saga.getId());
+        return saga;
+    }
+
+    /**
+     * <p>Removes a TravelAgentBooking and its taxi booking, once its remote bookings have been cancelled.</p>
+     */
+    @Transactional(Transactional.TxType.REQUIRES_NEW)
+    @ActivateRequestContext
+    public void removeTravelAgentBooking(Long travelAgentBookingId) throws Exception {
+        TravelAgentBooking travelAgentBooking = crud.findById(travelAgentBookingId);
+        if (travelAgentBooking == null) {
+            return;
+        }
+        if (travelAgentBooking.getTaxiBookingId() != null) {
+            Booking booking = bookingService.findById(travelAgentBooking.getTaxiBookingId());
+            if (booking != null) {
+                bookingService.delete(booking);
+            }
+        }
+        crud.delete(travelAgentBooking);
+    }
+
+    /*
+     * Writes one booking id column of the saga and nothing else, so steps running at the same time keep each
+     * other's ids.
+     */
+    private void setBookingId(String query, Long sagaId, Long bookingId) {
+        int updated = em.createNamedQuery(query)
+                .setParameter("bookingId", bookingId)
+                .setParameter("id", sagaId)
+                .executeUpdate();
+        if (updated != 1) {
+            throw new IllegalStateException("There is no saga " + sagaId);
+        }
+    }
+
+    private static String truncate(String failure) {
+        return failure.length() > 1000 ? failure.substring(0, 1000) : failure;
+    }
+}
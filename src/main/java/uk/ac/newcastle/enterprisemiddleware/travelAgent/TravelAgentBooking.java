@@ -14,11 +14,18 @@ import java.io.Serializable;
 @Entity
 @NamedQueries({
         @NamedQuery(name = TravelAgentBooking.FIND_ALL, query = "SELECT c FROM TravelAgentBooking c ORDER BY c.customerId"),
-        @NamedQuery(name = TravelAgentBooking.FIND_BY_CUSTOMER, query = "SELECT c FROM TravelAgentBooking c WHERE c.customerId = :customerId")
+        @NamedQuery(name = TravelAgentBooking.FIND_BY_CUSTOMER, query = "SELECT c FROM TravelAgentBooking c WHERE c.customerId = :customerId"),
+        @NamedQuery(name = TravelAgentBooking.FIND_VIEWS, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.travelAgent.TravelAgentBookingView(" +
+                "c.id, c.customerId, c.taxiBookingId, c.flightBookingId, c.hotelBookingId) FROM TravelAgentBooking c ORDER BY c.id ASC"),
+        @NamedQuery(name = TravelAgentBooking.FIND_VIEWS_AFTER, query = "SELECT NEW uk.ac.newcastle.enterprisemiddleware.travelAgent.TravelAgentBookingView(" +
+                "c.id, c.customerId, c.taxiBookingId, c.flightBookingId, c.hotelBookingId) FROM TravelAgentBooking c " +
+                "WHERE c.id > :id ORDER BY c.id ASC")
 
 })
 @XmlRootElement
-@Table(name = "Travel_Agent_Booking")
+@Table(name = "Travel_Agent_Booking", indexes = {
+        @Index(name = "idx_travel_agent_booking_customer", columnList = "customer_id")
+})
 public class TravelAgentBooking implements Serializable {
     /**
      * Default value included to remove warning. Remove or modify at will.
@@ -27,6 +34,8 @@ public class TravelAgentBooking implements Serializable {
 
     public static final String FIND_ALL = "TravelAgentBooking.findAll";
     public static final String FIND_BY_CUSTOMER="TravelBooking.findByCustomer";
+    public static final String FIND_VIEWS = "TravelAgentBooking.findViews";
+    public static final String FIND_VIEWS_AFTER = "TravelAgentBooking.findViewsAfter";
 
     @Id
     @TableGenerator(name = "TRAVEL_AGENT_ID", table = "PK_TRAVEL_AGENT_GENERATE_TABLE")
@@ -4,12 +4,16 @@
  **/
 package uk.ac.newcastle.enterprisemiddleware.travelAgent;
 
+import uk.ac.newcastle.enterprisemiddleware.util.Metered;
+import uk.ac.newcastle.enterprisemiddleware.util.ReadOnlyQueries;
+
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.TypedQuery;
 import java.util.List;
 
+@Metered
 @RequestScoped
 public class TravelAgentBookingRepository {
     @Inject
@@ -19,6 +23,23 @@ public class TravelAgentBookingRepository {
         TypedQuery<TravelAgentBooking> query = em.createNamedQuery(TravelAgentBooking.FIND_ALL, TravelAgentBooking.class);
         return query.getResultList();
     }
+
+    /**
+     * <p>Returns one page of read-only {@link TravelAgentBookingView} objects, sorted by id. No entities are
+     * created.</p>
+     *
+     * @param id    The id of the last TravelAgentBooking on the previous page, or null for the first page
+     * @param limit The maximum number of views to return
+     * @return List of at most limit TravelAgentBookingView objects
+     */
+    List<TravelAgentBookingView> findViewPage(Long id, int limit) {
+        TypedQuery<TravelAgentBookingView> query = id == null
+                ? em.createNamedQuery(TravelAgentBooking.FIND_VIEWS, TravelAgentBookingView.class)
+                : em.createNamedQuery(TravelAgentBooking.FIND_VIEWS_AFTER, TravelAgentBookingView.class)
+                        .setParameter("id", id);
+        return ReadOnlyQueries.readOnly(query).setMaxResults(limit).getResultList();
+    }
+
     public TravelAgentBooking findById(Long id) {
 
         return em.find(TravelAgentBooking.class, id);
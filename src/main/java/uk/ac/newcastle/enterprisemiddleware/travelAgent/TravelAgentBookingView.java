@@ -0,0 +1,48 @@
+package uk.ac.newcastle.enterprisemiddleware.travelAgent;
+
+/**
+ * <p>Read-only view of a TravelAgentBooking, as listed by <code>GET api/travelAgent/views</code>.</p>
+ *
+ * <p>Views are created by a constructor expression directly from the selected columns, so no entity is loaded and
+ * the taxi Booking is not touched.</p>
+ *
+ * @author Yi Zhang
+ * @see TravelAgentBooking#FIND_VIEWS
+ */
+public class TravelAgentBookingView {
+
+    private final Long id;
+    private final Long customerId;
+    private final Long taxiBookingId;
+    private final Long flightBookingId;
+    private final Long hotelBookingId;
+
+    public TravelAgentBookingView(Long id, Long customerId, Long taxiBookingId, Long flightBookingId,
+                                  Long hotelBookingId) {
+        this.id = id;
+        this.customerId = customerId;
+        this.taxiBookingId = taxiBookingId;
+        this.flightBookingId = flightBookingId;
+        this.hotelBookingId = hotelBookingId;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getCustomerId() {
+        return customerId;
+    }
+
+    public Long getTaxiBookingId() {
+        return taxiBookingId;
+    }
+
+    public Long getFlightBookingId() {
+        return flightBookingId;
+    }
+
+    public Long getHotelBookingId() {
+        return hotelBookingId;
+    }
+}
@@ -4,33 +4,42 @@
  **/
 package uk.ac.newcastle.enterprisemiddleware.travelAgent;
 
+import io.smallrye.mutiny.TimeoutException;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.eclipse.microprofile.rest.client.inject.RestClient;
-import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
-import uk.ac.newcastle.enterprisemiddleware.booking.BookingService;
+import uk.ac.newcastle.enterprisemiddleware.booking.UniqueTaxiIdException;
 import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
 import uk.ac.newcastle.enterprisemiddleware.customer.CustomerService;
 import uk.ac.newcastle.enterprisemiddleware.flight.FlightBooking;
 import uk.ac.newcastle.enterprisemiddleware.flight.FlightService;
 import uk.ac.newcastle.enterprisemiddleware.hotel.HotelBooking;
 import uk.ac.newcastle.enterprisemiddleware.hotel.HotelService;
+import uk.ac.newcastle.enterprisemiddleware.util.ContinuationToken;
+import uk.ac.newcastle.enterprisemiddleware.util.NdjsonExporter;
 import uk.ac.newcastle.enterprisemiddleware.util.RestServiceException;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
 
 import javax.inject.Inject;
-import javax.transaction.Transactional;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
 import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.net.URI;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.logging.Logger;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Path("/travelAgent")
 @Consumes(MediaType.APPLICATION_JSON)
@@ -38,22 +47,34 @@ import java.util.logging.Logger;
 public class TravelAgentRestService {
 
     @Inject
-    Logger log;
-    @Inject
-    BookingService bookingservice;
-
+    StructuredLogger log;
     @Inject
     CustomerService customerservice;
 
     @Inject
     TravelAgentBookingRepository crud;
 
+    @Inject
+    NdjsonExporter exporter;
+
     @RestClient
     FlightService flightService;
 
     @RestClient
     HotelService hotelService;
 
+    @ConfigProperty(name = "travel-agent.leg-timeout", defaultValue = "PT3S")
+    Duration legTimeout;
+
+    @ConfigProperty(name = "travel-agent.saga-wait", defaultValue = "PT10S")
+    Duration sagaWait;
+
+    @Inject
+    TravelAgentSaga saga;
+
+    @Inject
+    SagaSteps sagaSteps;
+
     @GET
     @Operation(summary = "Fetch all TravelAgent", description = "Returns a JSON array of all stored TravelAgent objects.")
     public Response retrieveAll() {
@@ -63,6 +84,38 @@ public class TravelAgentRestService {
         return Response.ok(travelAgentBookings).build();
     }
 
+    /**
+     * <p>Returns read-only views of the TravelAgent bookings, sorted by id, one page at a time.</p>
+     *
+     * <p>The views are selected directly into DTOs, so no entity is loaded, tracked or dirty checked.</p>
+     *
+     * <p>Example: <pre>GET api/travelAgent/views?limit=100</pre></p>
+     *
+     * @return A Response containing a list of TravelAgentBookingView objects
+     */
+    @GET
+    @Path("/views")
+    @Operation(summary = "Fetch TravelAgent views", description = "Returns a JSON array of read-only TravelAgent views, one page at a time.")
+    public Response retrieveViews(@QueryParam("limit") Integer limit, @QueryParam("after") String after) {
+        int pageSize = ContinuationToken.clampLimit(limit);
+        Long afterId = after == null ? null : ContinuationToken.parseLong(ContinuationToken.decode(after, 1)[0]);
+        List<TravelAgentBookingView> views = crud.findViewPage(afterId, pageSize);
+
+        Response.ResponseBuilder builder = Response.ok(views);
+        if (views.size() == pageSize) {
+            builder.header(ContinuationToken.HEADER, ContinuationToken.encode(views.get(views.size() - 1).getId()));
+        }
+        return builder.build();
+    }
+
+    @GET
+    @Path("/export")
+    @Produces(NdjsonExporter.APPLICATION_NDJSON)
+    @Operation(summary = "Export all TravelAgent", description = "Streams every stored TravelAgent object as newline delimited JSON.")
+    public Response exportAll() {
+        return Response.ok(exporter.export(TravelAgentBooking.FIND_ALL, TravelAgentBooking.class)).build();
+    }
+
     @GET
     @Path("/customerId/{customerId:[0-9]+}")
     @Operation(summary = "Fetch all TravelAgent", description = "Returns a JSON array of all stored TravelAgent objects.")
@@ -88,11 +141,13 @@ public class TravelAgentRestService {
     @APIResponses(value = {
             @APIResponse(responseCode = "201", description = "TravelAgent delete successfully.")
     })
-    @Transactional
     public Response deleteTravelAgentBooking(
             @Parameter
             Long id) {
         TravelAgentBooking travelAgentBooking = crud.findById(id);
+        if (travelAgentBooking == null) {
+            throw new RestServiceException("No TravelAgent with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
         Customer customer = customerservice.findById(travelAgentBooking.getCustomerId());
         if (customer == null) {
             throw new RestServiceException("TravelAgent not exsit", Response.Status.BAD_REQUEST);
@@ -100,11 +155,14 @@ public class TravelAgentRestService {
         Response.ResponseBuilder builder;
 
         try {
-            flightService.deleteFlightBooking(travelAgentBooking.getFlightBookingId());
-            hotelService.deleteHotelBooking(travelAgentBooking.getHotelBookingId());
-            Booking booking = bookingservice.findById(travelAgentBooking.getHotelBookingId());
-            bookingservice.delete(booking);
-            crud.delete(travelAgentBooking);
+            // Cancel the flight and hotel bookings at the same time, without holding a transaction open.
+            CompletableFuture<FlightBooking> flight = withLegTimeout(
+                    flightService.deleteFlightBooking(travelAgentBooking.getFlightBookingId()));
+            CompletableFuture<HotelBooking> hotel = withLegTimeout(
+                    hotelService.deleteHotelBooking(travelAgentBooking.getHotelBookingId()));
+            await(flight);
+            await(hotel);
+            sagaSteps.removeTravelAgentBooking(travelAgentBooking.getId());
 
             builder = Response.ok(travelAgentBooking);
 
@@ -125,7 +183,13 @@ public class TravelAgentRestService {
 
     @POST
     @Operation(description = "Add a new TravelAgent to the database")
-    @Transactional
+    @APIResponses(value = {
+            @APIResponse(responseCode = "201", description = "TravelAgent created successfully."),
+            @APIResponse(responseCode = "202", description = "TravelAgent is still being booked, poll the saga in the Location header."),
+            @APIResponse(responseCode = "400", description = "Invalid TravelAgent supplied in request body"),
+            @APIResponse(responseCode = "409", description = "The taxi is already booked on that date"),
+            @APIResponse(responseCode = "504", description = "The flight or hotel service did not respond in time")
+    })
     public Response createTravelAgent(
             @Parameter(description =
                     "JSON representation of TravelAgent object to be added to the database", required = true)
@@ -137,39 +201,81 @@ public class TravelAgentRestService {
         if (travelagent.getCustomer() == null) {
             throw new RestServiceException("TravelAgent not exsit", Response.Status.BAD_REQUEST);
         }
-        Response.ResponseBuilder builder;
-
-        try {
-            log.info(travelagent.toString());
-
-            Booking bk = travelagent.getTaxiBooking();
-            bk.setId(null);
-            Booking booking = bookingservice.create(bk);
-            log.info(booking.toString());
+        if (travelagent.getTaxiBooking() == null || travelagent.getFlightBooking() == null
+                || travelagent.getHotelBooking() == null) {
+            throw new RestServiceException("Taxi, flight and hotel bookings are all required", Response.Status.BAD_REQUEST);
+        }
 
-            log.info("flight-------------------------------------------");
-            log.info(travelagent.getFlightBooking().toString());
+        log.debug("TravelAgentRestService.createTravelAgent", "travelAgent", StructuredLogger.lazy(travelagent::toString));
+        TravelAgentSaga.Started started = saga.start(travelagent);
 
-            FlightBooking flightBooking = flightService.createFlightBooking(travelagent.getFlightBooking());
+        try {
+            SagaLog done = started.getOutcome().get(sagaWait.toMillis(), TimeUnit.MILLISECONDS);
+            return Response.status(Response.Status.CREATED)
+                    .entity(crud.findById(done.getTravelAgentBookingId()))
+                    .build();
+        } catch (java.util.concurrent.TimeoutException e) {
+            // The saga carries on in the background; the client can follow it with the saga resource.
+            return Response.accepted(started.getSaga())
+                    .location(URI.create("/travelAgent/saga/" + started.getSaga().getId()))
+                    .build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestServiceException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UniqueTaxiIdException) {
+                Map<String, String> responseObj = new HashMap<>();
+                responseObj.put("taxiId", "That taxi is already booked on that date, please choose another taxi or date");
+                throw new RestServiceException("Bad Request", responseObj, Response.Status.CONFLICT, (Exception) cause);
+            } else if (cause instanceof ConstraintViolationException) {
+                Map<String, String> responseObj = new HashMap<>();
+                for (ConstraintViolation<?> violation : ((ConstraintViolationException) cause).getConstraintViolations()) {
+                    responseObj.put(violation.getPropertyPath().toString(), violation.getMessage());
+                }
+                throw new RestServiceException("Bad Request", responseObj, Response.Status.BAD_REQUEST, (Exception) cause);
+            } else if (cause instanceof TimeoutException) {
+                throw new RestServiceException("A flight or hotel booking did not respond in time",
+                        Response.Status.GATEWAY_TIMEOUT, (Exception) cause);
+            }
+            throw new RestServiceException(cause instanceof Exception ? (Exception) cause : e);
+        }
+    }
 
-            log.info("hotel-------------------------------------------");
-            log.info(travelagent.getHotelBooking().toString());
+    @GET
+    @Path("/saga/{id:[0-9]+}")
+    @Operation(summary = "Fetch a TravelAgent saga", description = "Returns the progress of a TravelAgent booking.")
+    public Response retrieveSaga(
+            @Parameter(description = "Id of the saga to be fetched")
+            @Schema(minimum = "0", required = true)
+            @PathParam("id")
+            long id) {
 
-            HotelBooking hotelBooking = hotelService.createHotelBooking(travelagent.getHotelBooking());
+        SagaLog sagaLog = saga.find(id);
+        if (sagaLog == null) {
+            throw new RestServiceException("No saga with the id " + id + " was found!", Response.Status.NOT_FOUND);
+        }
+        return Response.ok(sagaLog).build();
+    }
 
-            TravelAgentBooking travelAgentBooking = new TravelAgentBooking();
-            travelAgentBooking.setId(null);
-            travelAgentBooking.setCustomerId(travelagent.getCustomer().getId());
-            travelAgentBooking.setFlightBookingId(flightBooking.getId());
-            travelAgentBooking.setHotelBookingId(hotelBooking.getId());
-            travelAgentBooking.setTaxiBookingId(booking.getId());
-            travelAgentBooking = crud.create(travelAgentBooking);
+    /**
+     * <p>Subscribes to a remote booking call, failing it if no response arrives within the leg timeout.</p>
+     */
+    private <T> CompletableFuture<T> withLegTimeout(Uni<T> call) {
+        return call.ifNoItem().after(legTimeout).fail().subscribeAsCompletionStage();
+    }
 
-            builder = Response.status(Response.Status.CREATED).entity(travelAgentBooking);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RestServiceException(e);
+    /**
+     * <p>Waits for a remote booking call and rethrows its failure as is.</p>
+     */
+    private static <T> T await(CompletableFuture<T> leg) throws Exception {
+        try {
+            return leg.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
-        return builder.build();
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,265 @@
+package uk.ac.newcastle.enterprisemiddleware.travelAgent;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Uni;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.eclipse.microprofile.rest.client.inject.RestClient;
+import uk.ac.newcastle.enterprisemiddleware.flight.FlightService;
+import uk.ac.newcastle.enterprisemiddleware.hotel.HotelService;
+import uk.ac.newcastle.enterprisemiddleware.util.StructuredLogger;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Named;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Orchestrates a travel agent booking as a saga over the local taxi booking and the remote flight and hotel
+ * bookings.</p>
+ *
+ * <p>The three steps run concurrently. The remote calls are non-blocking, and every local step runs in its own
+ * short transaction on the saga's worker pool (see {@link SagaSteps}), so no database connection is held while a
+ * remote service is waited on. Each successful step is recorded in the {@link SagaLog}. If any step fails, the steps
+ * recorded so far are compensated: the flight and hotel bookings are deleted remotely and the taxi booking is
+ * deleted locally.</p>
+ *
+ * <p>On startup, sagas left unfinished by a restart are resumed. A saga that was still running has its missing
+ * steps retried from the stored request, and a saga that was compensating carries on compensating. A compensation
+ * which fails is left in the log and retried on the next start.</p>
+ *
+ * @author Yi Zhang
+ * @see SagaLog
+ */
+@ApplicationScoped
+public class TravelAgentSaga {
+
+    @Inject
+    @Named("logger")
+    StructuredLogger log;
+
+    @Inject
+    SagaSteps steps;
+
+    @RestClient
+    FlightService flightService;
+
+    @RestClient
+    HotelService hotelService;
+
+    @ConfigProperty(name = "travel-agent.leg-timeout", defaultValue = "PT3S")
+    Duration legTimeout;
+
+    @ConfigProperty(name = "travel-agent.saga-threads", defaultValue = "16")
+    int threads;
+
+    private ExecutorService executor;
+
+    void onStart(@Observes StartupEvent event) {
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "travel-agent-saga-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::recover);
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * <p>Starts a saga for the given request.</p>
+     *
+     * <p>The saga is recorded before this method returns. The returned future completes with the completed
+     * SagaLog, or exceptionally with the failure that caused the saga to be compensated.</p>
+     *
+     * @param request The travel agent booking request
+     * @return The SagaLog as first recorded, and the future outcome of the saga
+     */
+    public Started start(TravelAgent request) {
+        SagaLog saga = steps.begin(request);
+        return new Started(saga, run(saga, request));
+    }
+
+    /**
+     * <p>Returns the current state of a saga, or null if there is none with the given id.</p>
+     */
+    public SagaLog find(Long sagaId) {
+        return steps.find(sagaId);
+    }
+
+    private CompletableFuture<SagaLog> run(SagaLog saga, TravelAgent request) {
+        Long sagaId = saga.getId();
+
+        CompletableFuture<Void> taxi = saga.getTaxiBookingId() != null ? CompletableFuture.completedFuture(null)
+                : CompletableFuture.runAsync(() -> {
+                    try {
+                        steps.bookTaxi(sagaId, request.getTaxiBooking());
+                    } catch (RuntimeException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, executor);
+
+        CompletableFuture<Void> flight = saga.getFlightBookingId() != null ? CompletableFuture.completedFuture(null)
+                : leg(flightService.createFlightBooking(request.getFlightBooking()))
+                .thenAcceptAsync(booking -> {
+                    try {
+                        steps.recordFlight(sagaId, booking.getId());
+                    } catch (RuntimeException e) {
+                        // The booking exists remotely but not in the log, so cancel it now or it would be lost.
+                        cancelFlight(booking.getId());
+                        throw e;
+                    }
+                }, executor);
+
+        CompletableFuture<Void> hotel = saga.getHotelBookingId() != null ? CompletableFuture.completedFuture(null)
+                : leg(hotelService.createHotelBooking(request.getHotelBooking()))
+                .thenAcceptAsync(booking -> {
+                    try {
+                        steps.recordHotel(sagaId, booking.getId());
+                    } catch (RuntimeException e) {
+                        cancelHotel(booking.getId());
+                        throw e;
+                    }
+                }, executor);
+
+        return CompletableFuture.allOf(taxi, flight, hotel).handleAsync((done, failure) -> {
+            if (failure == null) {
+                try {
+                    return steps.complete(sagaId);
+                } catch (Exception e) {
+                    failure = e;
+                }
+            }
+            Throwable cause = unwrap(failure);
+            compensate(sagaId, cause);
+            throw new CompletionException(cause);
+        }, executor);
+    }
+
+    /**
+     * <p>Undoes every step recorded in the log of the saga. Each step is undone on its own, so one that fails does
+     * not stop the others. A failure is logged and added to the saga's failures, and the saga is left compensating,
+     * so the next start retries the steps that are still recorded.</p>
+     */
+    private void compensate(Long sagaId, Throwable cause) {
+        SagaLog saga = steps.markCompensating(sagaId, cause == null ? null : String.valueOf(cause));
+        log.warn("TravelAgentSaga.compensate", cause, "sagaId", saga.getId());
+
+        boolean undone = true;
+        if (saga.getFlightBookingId() != null) {
+            try {
+                flightService.deleteFlightBooking(saga.getFlightBookingId()).await().atMost(legTimeout);
+                steps.clearFlight(sagaId);
+            } catch (RuntimeException e) {
+                undone = false;
+                compensationFailed(sagaId, "flight", e);
+            }
+        }
+        if (saga.getHotelBookingId() != null) {
+            try {
+                hotelService.deleteHotelBooking(saga.getHotelBookingId()).await().atMost(legTimeout);
+                steps.clearHotel(sagaId);
+            } catch (RuntimeException e) {
+                undone = false;
+                compensationFailed(sagaId, "hotel", e);
+            }
+        }
+        try {
+            steps.cancelTaxi(sagaId);
+        } catch (Exception e) {
+            undone = false;
+            compensationFailed(sagaId, "taxi", e);
+        }
+
+        if (!undone) {
+            log.error("TravelAgentSaga.compensate.failed", null, "sagaId", sagaId, "retry", "next start");
+            return;
+        }
+        try {
+            steps.markCompensated(sagaId);
+        } catch (RuntimeException e) {
+            log.error("TravelAgentSaga.compensate.failed", e, "sagaId", sagaId, "retry", "next start");
+        }
+    }
+
+    private void compensationFailed(Long sagaId, String step, Exception e) {
+        log.error("TravelAgentSaga.compensate.stepFailed", e, "sagaId", sagaId, "step", step);
+        try {
+            steps.recordFailure(sagaId, "Cancelling the " + step + " booking failed: " + e);
+        } catch (RuntimeException recordFailure) {
+            log.error("TravelAgentSaga.compensate.recordFailed", recordFailure, "sagaId", sagaId, "step", step);
+        }
+    }
+
+    private void recover() {
+        try {
+            for (SagaLog saga : steps.findUnfinished()) {
+                log.info("TravelAgentSaga.recover", "sagaId", saga.getId(), "status", saga.getStatus());
+                if (saga.getStatus() == SagaLog.Status.COMPENSATING) {
+                    compensate(saga.getId(), null);
+                } else {
+                    run(saga, steps.payload(saga));
+                }
+            }
+        } catch (RuntimeException e) {
+            log.error("TravelAgentSaga.recover.failed", e);
+        }
+    }
+
+    private <T> CompletableFuture<T> leg(Uni<T> call) {
+        return call.ifNoItem().after(legTimeout).fail().subscribeAsCompletionStage();
+    }
+
+    private void cancelFlight(Long id) {
+        flightService.deleteFlightBooking(id).ifNoItem().after(legTimeout).fail().subscribe().with(
+                deleted -> log.info("TravelAgentSaga.cancelFlight", "flightBookingId", id),
+                failure -> log.error("TravelAgentSaga.cancelFlight.failed", failure, "flightBookingId", id));
+    }
+
+    private void cancelHotel(Long id) {
+        hotelService.deleteHotelBooking(id).ifNoItem().after(legTimeout).fail().subscribe().with(
+                deleted -> log.info("TravelAgentSaga.cancelHotel", "hotelBookingId", id),
+                failure -> log.error("TravelAgentSaga.cancelHotel.failed", failure, "hotelBookingId", id));
+    }
+
+    private static Throwable unwrap(Throwable failure) {
+        while (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        return failure;
+    }
+
+    /**
+     * <p>A saga which has been recorded, and its future outcome.</p>
+     */
+    public static final class Started {
+        private final SagaLog saga;
+        private final CompletableFuture<SagaLog> outcome;
+
+        private Started(SagaLog saga, CompletableFuture<SagaLog> outcome) {
+            this.saga = saga;
+            this.outcome = outcome;
+        }
+
+        public SagaLog getSaga() {
+            return saga;
+        }
+
+        public CompletableFuture<SagaLog> getOutcome() {
+            return outcome;
+        }
+    }
+}
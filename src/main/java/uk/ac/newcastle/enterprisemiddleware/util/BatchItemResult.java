@@ -0,0 +1,64 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+/**
+ * <p>The outcome of one item of a batch request.</p>
+ *
+ * <p>A batch endpoint answers with one of these per item, in request order. The status is the HTTP status the item
+ * would have got if it had been posted on its own, so clients can handle batch and single requests the same way.</p>
+ *
+ * @author Yi Zhang
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchItemResult {
+
+    private final int index;
+    private final int status;
+    private final Long id;
+    private final Map<String, String> reasons;
+
+    private BatchItemResult(int index, Response.Status status, Long id, Map<String, String> reasons) {
+        this.index = index;
+        this.status = status.getStatusCode();
+        this.id = id;
+        this.reasons = reasons;
+    }
+
+    /**
+     * <p>Returns the result of an item which was written with the given id.</p>
+     */
+    public static BatchItemResult created(int index, Long id) {
+        return new BatchItemResult(index, Response.Status.CREATED, id, null);
+    }
+
+    /**
+     * <p>Returns the result of an item which was rejected, with the reasons keyed by field name.</p>
+     */
+    public static BatchItemResult rejected(int index, Response.Status status, Map<String, String> reasons) {
+        return new BatchItemResult(index, status, null, reasons);
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Map<String, String> getReasons() {
+        return reasons;
+    }
+
+    public boolean isCreated() {
+        return status == Response.Status.CREATED.getStatusCode();
+    }
+}
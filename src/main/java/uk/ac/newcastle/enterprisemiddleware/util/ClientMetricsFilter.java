@@ -0,0 +1,53 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Times the calls made by the rest clients with a <code>rest.client.requests</code> timer, tagged with the remote
+ * resource (the first segment of the path, e.g. <code>flightBookings</code>), the HTTP method and the status.</p>
+ *
+ * <p>Register it on a rest client interface with <code>@RegisterProvider(ClientMetricsFilter.class)</code>. Calls that
+ * fail before a response arrives (connection refused, timeouts) are not seen here; they are counted by the
+ * <code>http.client.requests</code> timer Quarkus records for every outbound request.</p>
+ *
+ * @author Yi Zhang
+ */
+public class ClientMetricsFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    static final String TIMER = "rest.client.requests";
+
+    private static final String START = ClientMetricsFilter.class.getName() + ".start";
+
+    @Override
+    public void filter(ClientRequestContext request) {
+        request.setProperty(START, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ClientRequestContext request, ClientResponseContext response) {
+        Object start = request.getProperty(START);
+        if (start == null) {
+            return;
+        }
+        Timer.builder(TIMER)
+                .description("Time spent calling the remote area, flight and hotel APIs")
+                .tag("resource", resource(request.getUri().getPath()))
+                .tag("method", request.getMethod())
+                .tag("status", String.valueOf(response.getStatus()))
+                .register(Metrics.globalRegistry)
+                .record(System.nanoTime() - (Long) start, TimeUnit.NANOSECONDS);
+    }
+
+    private static String resource(String path) {
+        int from = path.startsWith("/") ? 1 : 0;
+        int to = path.indexOf('/', from);
+        return to < 0 ? path.substring(from) : path.substring(from, to);
+    }
+}
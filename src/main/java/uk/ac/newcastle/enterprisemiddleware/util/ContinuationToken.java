@@ -0,0 +1,105 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * <p>Opaque cursor used for keyset (seek) pagination of the list endpoints.</p>
+ *
+ * <p>A token carries the ORDER BY key values of the last row of a page. The next page is read with a
+ * "WHERE key &gt; :lastKey" query so the database never has to skip over rows already returned, and the cost of
+ * each page stays the same however deep into the table the client reads.</p>
+ *
+ * <p>Clients must treat the token as an opaque string and pass it back unchanged in the <code>after</code> query
+ * parameter. The token for the next page is returned in the {@link #HEADER} response header and is absent on the
+ * last page.</p>
+ *
+ * @author Yi Zhang
+ */
+public final class ContinuationToken {
+
+    public static final String HEADER = "X-Continuation-Token";
+
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+
+    private static final String SEPARATOR = ".";
+
+    private ContinuationToken() {
+    }
+
+    /**
+     * <p>Encodes the given key values into a token. Each value is written with its {@code toString()} form.</p>
+     *
+     * @param keys The ORDER BY key values of the last row in the current page
+     * @return The URL safe token
+     */
+    public static String encode(Object... keys) {
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
+                token.append(SEPARATOR);
+            }
+            token.append(encoder.encodeToString(String.valueOf(keys[i]).getBytes(StandardCharsets.UTF_8)));
+        }
+        return token.toString();
+    }
+
+    /**
+     * <p>Decodes a token produced by {@link #encode(Object...)}.</p>
+     *
+     * @param token The token supplied by the client
+     * @param arity The number of key values the token is expected to hold
+     * @return The key values, in the order they were encoded
+     * @throws RestServiceException with status 400 if the token is malformed
+     */
+    public static String[] decode(String token, int arity) {
+        String[] parts = token.split("\\" + SEPARATOR, -1);
+        if (parts.length != arity) {
+            throw new RestServiceException("Invalid continuation token", Response.Status.BAD_REQUEST);
+        }
+        Base64.Decoder decoder = Base64.getUrlDecoder();
+        String[] keys = new String[arity];
+        try {
+            for (int i = 0; i < arity; i++) {
+                keys[i] = new String(decoder.decode(parts[i]), StandardCharsets.UTF_8);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new RestServiceException("Invalid continuation token", Response.Status.BAD_REQUEST, e);
+        }
+        return keys;
+    }
+
+    /**
+     * <p>Parses a numeric key value taken from a decoded token.</p>
+     *
+     * @param key The decoded key value
+     * @return The key as a Long
+     * @throws RestServiceException with status 400 if the value is not a number
+     */
+    public static Long parseLong(String key) {
+        try {
+            return Long.valueOf(key);
+        } catch (NumberFormatException e) {
+            throw new RestServiceException("Invalid continuation token", Response.Status.BAD_REQUEST, e);
+        }
+    }
+
+    /**
+     * <p>Applies the default and upper bound to a client supplied page size.</p>
+     *
+     * @param limit The requested page size, or null if none was given
+     * @return A page size between 1 and {@link #MAX_LIMIT}
+     */
+    public static int clampLimit(Integer limit) {
+        if (limit == null) {
+            return DEFAULT_LIMIT;
+        }
+        if (limit < 1) {
+            throw new RestServiceException("The limit must be a positive number", Response.Status.BAD_REQUEST);
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+}
@@ -0,0 +1,113 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.util.Date;
+
+/**
+ * <p>HTTP validators for the endpoints that return or update a single entity.</p>
+ *
+ * <p>The strong ETag of an entity is built from its id and its JPA version, which Hibernate increments on every
+ * update, so it changes exactly when the stored entity does and nothing has to be serialised or hashed to compute
+ * it. Last-Modified is the time of the last change, truncated to the second precision of HTTP dates.</p>
+ *
+ * <p>A GET whose <code>If-None-Match</code> (or <code>If-Modified-Since</code>) still matches is answered with 304 and
+ * no body. A PUT whose <code>If-Match</code> (or <code>If-Unmodified-Since</code>) no longer matches is refused with
+ * 412.</p>
+ *
+ * @author Yi Zhang
+ */
+public final class EntityTags {
+
+    private EntityTags() {
+    }
+
+    /**
+     * <p>Returns the strong entity tag of the given version of an entity.</p>
+     *
+     * @param id      The id of the entity
+     * @param version The version of the entity
+     * @return The entity tag
+     */
+    public static EntityTag of(Long id, Long version) {
+        return new EntityTag(id + "." + (version == null ? 0 : version));
+    }
+
+    /**
+     * <p>Returns the strong entity tag of an entity whose representation also includes other entities, which do not
+     * change its version.</p>
+     *
+     * @param id      The id of the entity
+     * @param version The version of the entity
+     * @param related A number that changes whenever the included entities do
+     * @return The entity tag
+     */
+    public static EntityTag of(Long id, Long version, long related) {
+        return new EntityTag(id + "." + (version == null ? 0 : version) + "." + Long.toHexString(related));
+    }
+
+    /**
+     * <p>Answers a conditional GET. Returns 304 without a body if the client's copy is current, or 412 for a failed
+     * <code>If-Match</code>. Otherwise returns 200 with the entity and its validators.</p>
+     *
+     * @param request      The request being answered
+     * @param entity       The entity to return
+     * @param tag          The entity tag of the entity
+     * @param lastModified The time of the last change to the entity, or null
+     * @return The Response
+     */
+    public static Response get(Request request, Object entity, EntityTag tag, Date lastModified) {
+        Date modified = toSeconds(lastModified);
+        Response.ResponseBuilder builder = evaluate(request, tag, modified);
+        if (builder == null) {
+            builder = Response.ok(entity);
+        }
+        return validators(builder, tag, modified).build();
+    }
+
+    /**
+     * <p>Checks the preconditions of an update against the stored entity, before it is changed.</p>
+     *
+     * @param request      The update request
+     * @param name         The kind of entity, for the error message
+     * @param tag          The entity tag of the stored entity
+     * @param lastModified The time of the last change to the stored entity, or null
+     * @throws RestServiceException with status 412 if a precondition fails
+     */
+    public static void checkPreconditions(Request request, String name, EntityTag tag, Date lastModified) {
+        if (evaluate(request, tag, toSeconds(lastModified)) != null) {
+            throw new RestServiceException("The " + name + " has changed since it was read",
+                    Response.Status.PRECONDITION_FAILED);
+        }
+    }
+
+    /**
+     * <p>Adds the validators of an entity to a response.</p>
+     *
+     * @param builder      The response
+     * @param tag          The entity tag of the entity
+     * @param lastModified The time of the last change to the entity, or null
+     * @return The response, for chaining
+     */
+    public static Response.ResponseBuilder withValidators(Response.ResponseBuilder builder, EntityTag tag,
+                                                          Date lastModified) {
+        return validators(builder, tag, toSeconds(lastModified));
+    }
+
+    static Response.ResponseBuilder evaluate(Request request, EntityTag tag, Date lastModified) {
+        return lastModified == null ? request.evaluatePreconditions(tag) : request.evaluatePreconditions(lastModified, tag);
+    }
+
+    static Response.ResponseBuilder validators(Response.ResponseBuilder builder, EntityTag tag, Date lastModified) {
+        builder.tag(tag);
+        if (lastModified != null) {
+            builder.lastModified(lastModified);
+        }
+        return builder;
+    }
+
+    static Date toSeconds(Date date) {
+        return date == null ? null : new Date(date.getTime() / 1000 * 1000);
+    }
+}
@@ -0,0 +1,22 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.interceptor.InterceptorBinding;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Times every call to the methods of the annotated bean with a <code>repository.calls</code> timer, tagged with
+ * the class, the method and the exception thrown, if any.</p>
+ *
+ * @author Yi Zhang
+ * @see MeteredInterceptor
+ */
+@Inherited
+@InterceptorBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Metered {
+}
@@ -0,0 +1,44 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+
+import javax.enterprise.inject.Produces;
+import javax.inject.Singleton;
+import java.time.Duration;
+
+/**
+ * <p>Publishes latency histograms for the timers used to find where request time goes.</p>
+ *
+ * <p>Micrometer only publishes counts, totals and maxima by default. For the HTTP server and client timers and the
+ * {@link Metered} repository timer this adds histogram buckets between 1ms and 30s, from which Prometheus can compute
+ * any percentile across instances.</p>
+ *
+ * @author Yi Zhang
+ */
+public class MetricsConfiguration {
+
+    @Produces
+    @Singleton
+    public MeterFilter latencyHistograms() {
+        return new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                String name = id.getName();
+                if (name.equals("http.server.requests")
+                        || name.equals("http.client.requests")
+                        || name.equals(ClientMetricsFilter.TIMER)
+                        || name.equals(MeteredInterceptor.TIMER)) {
+                    return DistributionStatisticConfig.builder()
+                            .percentilesHistogram(true)
+                            .minimumExpectedValue((double) Duration.ofMillis(1).toNanos())
+                            .maximumExpectedValue((double) Duration.ofSeconds(30).toNanos())
+                            .build()
+                            .merge(config);
+                }
+                return config;
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.hibernate.FlushMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * <p>Streams the result of a named query to the client as newline delimited JSON (one entity per line).</p>
+ *
+ * <p>The rows are read through a forward only database cursor in their own read-only Hibernate session, and each
+ * entity is written to the response as soon as it is read. The session is cleared every {@link #CLEAR_INTERVAL} rows
+ * so the persistence context never holds more than one chunk of entities. This keeps the memory used by an export
+ * flat no matter how many rows the table holds, and the client starts receiving data from the first row.</p>
+ *
+ * @author Yi Zhang
+ */
+@ApplicationScoped
+public class NdjsonExporter {
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private static final int FETCH_SIZE = 500;
+    private static final int CLEAR_INTERVAL = 500;
+
+    @Inject
+    @Named("logger")
+    StructuredLogger log;
+
+    @Inject
+    SessionFactory sessionFactory;
+
+    @Inject
+    ObjectMapper mapper;
+
+    /**
+     * <p>Returns a StreamingOutput which writes every result of the given named query as one line of JSON.</p>
+     *
+     * @param namedQuery The name of the query selecting the entities to export
+     * @param type       The entity class selected by the query
+     * @return The StreamingOutput to be used as a Response entity
+     */
+    public <T> StreamingOutput export(String namedQuery, Class<T> type) {
+        return output -> {
+            long count = 0;
+            try (Session session = sessionFactory.openSession();
+                 JsonGenerator generator = mapper.getFactory().createGenerator(output)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+
+                try (ScrollableResults results = session.createNamedQuery(namedQuery, type)
+                        .setReadOnly(true)
+                        .setFetchSize(FETCH_SIZE)
+                        .scroll(ScrollMode.FORWARD_ONLY)) {
+                    while (results.next()) {
+                        generator.writeObject(results.get(0));
+                        generator.writeRaw('\n');
+
+                        if (++count % CLEAR_INTERVAL == 0) {
+                            // Push the chunk to the client and drop the entities already written.
+                            generator.flush();
+                            session.clear();
+                        }
+                    }
+                }
+                generator.flush();
+            }
+            log.debug("NdjsonExporter.export", "type", type.getSimpleName(), "rows", count);
+        };
+    }
+}
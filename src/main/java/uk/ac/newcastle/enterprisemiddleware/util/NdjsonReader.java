@@ -0,0 +1,53 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Reads a request body of newline delimited JSON (one object per line), the upload counterpart of
+ * {@link NdjsonExporter}.</p>
+ *
+ * <p>The objects are read one at a time from the stream, so a large upload is never held as one JSON document.</p>
+ *
+ * @author Yi Zhang
+ */
+@ApplicationScoped
+public class NdjsonReader {
+
+    @Inject
+    ObjectMapper mapper;
+
+    /**
+     * <p>Reads every object of the stream.</p>
+     *
+     * @param body     The request body
+     * @param type     The class of the objects
+     * @param maxItems The most objects accepted
+     * @return List of the objects, in stream order
+     * @throws RestServiceException 400 if a line is not valid JSON for the type, or 413 if there are too many lines
+     */
+    public <T> List<T> readAll(InputStream body, Class<T> type, int maxItems) {
+        List<T> items = new ArrayList<>();
+        try (MappingIterator<T> iterator = mapper.readerFor(type).readValues(body)) {
+            while (iterator.hasNextValue()) {
+                if (items.size() == maxItems) {
+                    throw new RestServiceException("A batch may hold at most " + maxItems + " items",
+                            Response.Status.REQUEST_ENTITY_TOO_LARGE);
+                }
+                items.add(iterator.nextValue());
+            }
+        } catch (IOException e) {
+            throw new RestServiceException("Line " + (items.size() + 1) + " is not a valid "
+                    + type.getSimpleName(), Response.Status.BAD_REQUEST, e);
+        }
+        return items;
+    }
+}
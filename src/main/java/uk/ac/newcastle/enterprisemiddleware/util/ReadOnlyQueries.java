@@ -0,0 +1,28 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import org.hibernate.FlushMode;
+import org.hibernate.annotations.QueryHints;
+
+import javax.persistence.TypedQuery;
+
+/**
+ * <p>Hints for the queries behind the read-only listing endpoints.</p>
+ *
+ * <p>The view queries select DTOs with constructor expressions, so no entity is created and nothing is added to the
+ * persistence context. The hints make sure that running them does not flush or dirty check whatever the session
+ * already holds (flush mode MANUAL), that any entity they do return is not snapshotted (read-only), and that their
+ * results do not displace entries of the query cache.</p>
+ *
+ * @author Yi Zhang
+ */
+public final class ReadOnlyQueries {
+
+    private ReadOnlyQueries() {
+    }
+
+    public static <T> TypedQuery<T> readOnly(TypedQuery<T> query) {
+        return query.setHint(QueryHints.READ_ONLY, true)
+                .setHint(QueryHints.FLUSH_MODE, FlushMode.MANUAL)
+                .setHint(QueryHints.CACHEABLE, false);
+    }
+}
@@ -3,7 +3,6 @@ package uk.ac.newcastle.enterprisemiddleware.util;
 import javax.enterprise.inject.Produces;
 import javax.enterprise.inject.spi.InjectionPoint;
 import javax.inject.Named;
-import java.util.logging.Logger;
 
 /**
  * This class uses CDI to alias Java EE resources, such as the persistence context, to CDI beans
@@ -25,8 +24,8 @@ public class Resources {
 
     @Produces
     @Named("logger")
-    public Logger produceLog(InjectionPoint injectionPoint) {
-        return Logger.getLogger(injectionPoint.getMember().getDeclaringClass().getName());
+    public StructuredLogger produceLog(InjectionPoint injectionPoint) {
+        return StructuredLogger.getLogger(injectionPoint.getMember().getDeclaringClass().getName());
     }
 //
 //    @Produces
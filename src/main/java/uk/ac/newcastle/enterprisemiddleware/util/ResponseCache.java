@@ -0,0 +1,327 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.io.UncheckedIOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>In-process cache of the JSON bodies of the most requested GET endpoints.</p>
+ *
+ * <p>A body is serialised once, when it is first requested, and kept as bytes under a key made of the route and its
+ * parameters. A hit writes the stored bytes as they are, so neither the database nor Jackson is involved. An entry
+ * for a single entity keeps its validators, so conditional requests are answered from the cache too.</p>
+ *
+ * <p>The cache is bounded by the total size of the bodies it holds, <code>response-cache.max-bytes</code>. It is split
+ * into <code>response-cache.segments</code> segments, each holding the keys that hash to it within an equal share of
+ * that budget and evicting its least recently used entries first. A lookup locks only the segment of its key, so
+ * requests for different keys do not wait on each other. Keys start with a region ({@link #TAXIS},
+ * {@link #CUSTOMERS}), and the services drop a key or a whole region once a write to it has committed. A body read
+ * while an invalidation ran is returned but not stored, so a read racing a commit cannot put an old body back.</p>
+ *
+ * <p>Lookups are counted by <code>response.cache.requests</code>, tagged with result hit or miss, and evictions by
+ * <code>response.cache.evictions</code>. The hit ratio, the number of entries and their size are gauges.</p>
+ *
+ * @author Yi Zhang
+ */
+@ApplicationScoped
+public class ResponseCache {
+
+    public static final String TAXIS = "taxis:";
+    public static final String CUSTOMERS = "customers:";
+
+    /*
+     * What an entry costs besides its body: the key, the entry and the map node.
+     */
+    private static final int ENTRY_OVERHEAD = 160;
+
+    @Inject
+    ObjectMapper mapper;
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "response-cache.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "response-cache.max-bytes", defaultValue = "16777216")
+    long maxBytes;
+
+    @ConfigProperty(name = "response-cache.segments", defaultValue = "16")
+    int segmentCount;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private Segment[] segments;
+
+    private Counter hits;
+
+    private Counter misses;
+
+    private Counter evictions;
+
+    @PostConstruct
+    void init() {
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maxBytes / segmentCount);
+        }
+        hits = Counter.builder("response.cache.requests").tag("result", "hit").register(registry);
+        misses = Counter.builder("response.cache.requests").tag("result", "miss").register(registry);
+        evictions = Counter.builder("response.cache.evictions").register(registry);
+        Gauge.builder("response.cache.hit.ratio", this, ResponseCache::hitRatio).register(registry);
+        Gauge.builder("response.cache.entries", this, ResponseCache::entryCount).register(registry);
+        Gauge.builder("response.cache.size", this, ResponseCache::size).baseUnit("bytes").register(registry);
+    }
+
+    /**
+     * <p>Returns the entry stored under the key, or null on a miss.</p>
+     *
+     * @param key The route and parameters of the request
+     * @return The entry, or null
+     */
+    public Entry get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        Entry entry = segmentFor(key).get(key);
+        (entry == null ? misses : hits).increment();
+        return entry;
+    }
+
+    /**
+     * <p>Returns the current generation, which every invalidation increments. It is read before the database, and
+     * passed back to a put, which is ignored if an invalidation has run in between.</p>
+     *
+     * @return The current generation
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * <p>Serialises a single entity and stores it with its validators.</p>
+     *
+     * @param key          The route and parameters of the request
+     * @param generation   The {@link #generation()} read before the entity was loaded
+     * @param entity       The entity
+     * @param tag          The entity tag of the entity
+     * @param lastModified The time of the last change to the entity, or null
+     * @return The entry, whether it was stored or not
+     */
+    public Entry putEntity(String key, long generation, Object entity, EntityTag tag, Date lastModified) {
+        return put(key, generation, new Entry(serialize(entity), tag, EntityTags.toSeconds(lastModified), null));
+    }
+
+    /**
+     * <p>Serialises a page of a listing and stores it with its continuation token.</p>
+     *
+     * @param key          The route and parameters of the request
+     * @param generation   The {@link #generation()} read before the page was loaded
+     * @param page         The page
+     * @param continuation The value of the {@link ContinuationToken#HEADER} header, or null on the last page
+     * @return The entry, whether it was stored or not
+     */
+    public Entry putPage(String key, long generation, Object page, String continuation) {
+        return put(key, generation, new Entry(serialize(page), null, null, continuation));
+    }
+
+    /**
+     * <p>Drops the entry stored under the key.</p>
+     *
+     * @param key The route and parameters of the request
+     */
+    public void invalidate(String key) {
+        // The generation moves first, so a put that has not yet reached the segment is ignored.
+        generation.incrementAndGet();
+        segmentFor(key).remove(key);
+    }
+
+    /**
+     * <p>Drops every entry whose key starts with the region.</p>
+     *
+     * @param region {@link #TAXIS} or {@link #CUSTOMERS}
+     */
+    public void invalidateRegion(String region) {
+        generation.incrementAndGet();
+        for (Segment segment : segments) {
+            segment.removeRegion(region);
+        }
+    }
+
+    private Entry put(String key, long generation, Entry entry) {
+        if (enabled) {
+            evictions.increment(segmentFor(key).put(key, generation, entry));
+        }
+        return entry;
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        return segments[Math.floorMod(hash ^ (hash >>> 16), segments.length)];
+    }
+
+    private byte[] serialize(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private double hitRatio() {
+        double lookups = hits.count() + misses.count();
+        return lookups == 0 ? 0 : hits.count() / lookups;
+    }
+
+    private int entryCount() {
+        int count = 0;
+        for (Segment segment : segments) {
+            count += segment.entryCount();
+        }
+        return count;
+    }
+
+    private long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /*
+     * A share of the cache with a lock of its own, holding its entries in access order.
+     */
+    private final class Segment {
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxBytes;
+        private long bytes;
+
+        private Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        private synchronized Entry get(String key) {
+            return entries.get(key);
+        }
+
+        /*
+         * Stores the entry unless an invalidation has run since the generation was read, and returns the number of
+         * entries evicted to make room for it. The generation is compared under the lock an invalidation needs to
+         * remove the key, so the two cannot interleave.
+         */
+        private synchronized int put(String key, long generation, Entry entry) {
+            // A body bigger than an eighth of the segment would push out too much to be worth keeping.
+            if (generation != ResponseCache.this.generation.get() || entry.size > maxBytes / 8) {
+                return 0;
+            }
+            Entry previous = entries.put(key, entry);
+            bytes += entry.size - (previous == null ? 0 : previous.size);
+
+            // The map is in access order, so iteration starts at the least recently used entry.
+            int evicted = 0;
+            Iterator<Entry> it = entries.values().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                bytes -= it.next().size;
+                it.remove();
+                evicted++;
+            }
+            return evicted;
+        }
+
+        private synchronized void remove(String key) {
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                bytes -= entry.size;
+            }
+        }
+
+        private synchronized void removeRegion(String region) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> entry = it.next();
+                if (entry.getKey().startsWith(region)) {
+                    bytes -= entry.getValue().size;
+                    it.remove();
+                }
+            }
+        }
+
+        private synchronized int entryCount() {
+            return entries.size();
+        }
+
+        private synchronized long size() {
+            return bytes;
+        }
+    }
+
+    /**
+     * <p>A serialised body with the headers that go with it.</p>
+     */
+    public static final class Entry {
+        private final byte[] body;
+        private final EntityTag tag;
+        private final Date lastModified;
+        private final String continuation;
+        private final int size;
+
+        private Entry(byte[] body, EntityTag tag, Date lastModified, String continuation) {
+            this.body = body;
+            this.tag = tag;
+            this.lastModified = lastModified;
+            this.continuation = continuation;
+            this.size = body.length + ENTRY_OVERHEAD;
+        }
+
+        /**
+         * <p>Returns the stored body as a 200 response.</p>
+         *
+         * @return The Response
+         */
+        public Response toResponse() {
+            Response.ResponseBuilder builder = Response.ok(body, MediaType.APPLICATION_JSON_TYPE);
+            if (tag != null) {
+                EntityTags.validators(builder, tag, lastModified);
+            }
+            if (continuation != null) {
+                builder.header(ContinuationToken.HEADER, continuation);
+            }
+            return builder.build();
+        }
+
+        /**
+         * <p>Answers a conditional GET from the stored validators, with 304 and no body if the client's copy is
+         * current, and with the stored body otherwise.</p>
+         *
+         * @param request The request being answered
+         * @return The Response
+         */
+        public Response toResponse(Request request) {
+            if (tag != null) {
+                Response.ResponseBuilder builder = EntityTags.evaluate(request, tag, lastModified);
+                if (builder != null) {
+                    return EntityTags.validators(builder, tag, lastModified).build();
+                }
+            }
+            return toResponse();
+        }
+    }
+}
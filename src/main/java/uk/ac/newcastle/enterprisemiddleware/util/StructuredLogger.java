@@ -0,0 +1,167 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Logging facade that writes each line as a JSON object of an event name and key/value fields, e.g.
+ * <code>{"event":"BookingService.create","taxiId":3,"bookDate":"2030-01-01"}</code>.</p>
+ *
+ * <p>Nothing is built unless the level is enabled: the level check comes first, the debug and info methods take a
+ * fixed number of fields so no varargs array is allocated, and a value given as a {@link Supplier} is only evaluated
+ * when the line is written. Pass expensive values, such as an entity's toString, as a Supplier.</p>
+ *
+ * <p>Debug is written at {@link Level#FINE}, which Quarkus shows as DEBUG. Instances are produced by
+ * {@link Resources#produceLog} for injection with <code>@Inject @Named("logger")</code>.</p>
+ *
+ * @author Yi Zhang
+ */
+public final class StructuredLogger {
+
+    private final Logger delegate;
+
+    private StructuredLogger(Logger delegate) {
+        this.delegate = delegate;
+    }
+
+    public static StructuredLogger getLogger(String name) {
+        return new StructuredLogger(Logger.getLogger(name));
+    }
+
+    /**
+     * <p>Wraps a value that should only be computed if the line is written, e.g.
+     * <code>log.debug("TaxiService.delete", "taxi", lazy(taxi::toString))</code>.</p>
+     */
+    public static Supplier<?> lazy(Supplier<?> value) {
+        return value;
+    }
+
+    public boolean isDebugEnabled() {
+        return delegate.isLoggable(Level.FINE);
+    }
+
+    public void debug(String event) {
+        if (delegate.isLoggable(Level.FINE)) {
+            delegate.log(Level.FINE, render(event));
+        }
+    }
+
+    public void debug(String event, String key, Object value) {
+        if (delegate.isLoggable(Level.FINE)) {
+            delegate.log(Level.FINE, render(event, key, value));
+        }
+    }
+
+    public void debug(String event, String key1, Object value1, String key2, Object value2) {
+        if (delegate.isLoggable(Level.FINE)) {
+            delegate.log(Level.FINE, render(event, key1, value1, key2, value2));
+        }
+    }
+
+    public void debug(String event, String key1, Object value1, String key2, Object value2,
+                      String key3, Object value3) {
+        if (delegate.isLoggable(Level.FINE)) {
+            delegate.log(Level.FINE, render(event, key1, value1, key2, value2, key3, value3));
+        }
+    }
+
+    public void info(String event) {
+        if (delegate.isLoggable(Level.INFO)) {
+            delegate.log(Level.INFO, render(event));
+        }
+    }
+
+    public void info(String event, String key, Object value) {
+        if (delegate.isLoggable(Level.INFO)) {
+            delegate.log(Level.INFO, render(event, key, value));
+        }
+    }
+
+    public void info(String event, String key1, Object value1, String key2, Object value2) {
+        if (delegate.isLoggable(Level.INFO)) {
+            delegate.log(Level.INFO, render(event, key1, value1, key2, value2));
+        }
+    }
+
+    public void info(String event, String key1, Object value1, String key2, Object value2,
+                     String key3, Object value3) {
+        if (delegate.isLoggable(Level.INFO)) {
+            delegate.log(Level.INFO, render(event, key1, value1, key2, value2, key3, value3));
+        }
+    }
+
+    /**
+     * <p>Logs a warning with the given exception. The fields are given as alternating keys and values.</p>
+     */
+    public void warn(String event, Throwable thrown, Object... fields) {
+        if (delegate.isLoggable(Level.WARNING)) {
+            delegate.log(Level.WARNING, render(event, fields), thrown);
+        }
+    }
+
+    /**
+     * <p>Logs an error with the given exception. The fields are given as alternating keys and values.</p>
+     */
+    public void error(String event, Throwable thrown, Object... fields) {
+        if (delegate.isLoggable(Level.SEVERE)) {
+            delegate.log(Level.SEVERE, render(event, fields), thrown);
+        }
+    }
+
+    static String render(String event, Object... fields) {
+        StringBuilder json = new StringBuilder(64).append("{\"event\":");
+        appendString(json, event);
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            json.append(',');
+            appendString(json, String.valueOf(fields[i]));
+            json.append(':');
+            appendValue(json, fields[i + 1]);
+        }
+        return json.append('}').toString();
+    }
+
+    private static void appendValue(StringBuilder json, Object value) {
+        if (value instanceof Supplier) {
+            value = ((Supplier<?>) value).get();
+        }
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else {
+            appendString(json, value.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,72 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * <p>Runs work once the current JTA transaction has finished.</p>
+ *
+ * <p>In-memory state that mirrors the database (indexes, caches, event streams) must only change once the database
+ * change is durable, otherwise a rollback would leave the two out of step. When no transaction is active the work
+ * is run straight away.</p>
+ *
+ * @author Yi Zhang
+ */
+@ApplicationScoped
+public class TransactionCallbacks {
+
+    @Inject
+    TransactionSynchronizationRegistry registry;
+
+    /**
+     * <p>Runs the action after the current transaction commits. The action is dropped if the transaction rolls back.</p>
+     *
+     * @param action The work to run
+     */
+    public void afterCommit(Runnable action) {
+        int status = registry.getTransactionStatus();
+        if (status == Status.STATUS_NO_TRANSACTION) {
+            action.run();
+        } else if (status == Status.STATUS_ACTIVE) {
+            registry.registerInterposedSynchronization(new AfterCompletion(action, true));
+        }
+    }
+
+    /**
+     * <p>Runs the action after the current transaction completes, whether it committed or rolled back.</p>
+     *
+     * @param action The work to run
+     */
+    public void afterCompletion(Runnable action) {
+        int status = registry.getTransactionStatus();
+        if (status == Status.STATUS_ACTIVE || status == Status.STATUS_MARKED_ROLLBACK) {
+            registry.registerInterposedSynchronization(new AfterCompletion(action, false));
+        } else {
+            action.run();
+        }
+    }
+
+    private static final class AfterCompletion implements Synchronization {
+        private final Runnable action;
+        private final boolean commitOnly;
+
+        private AfterCompletion(Runnable action, boolean commitOnly) {
+            this.action = action;
+            this.commitOnly = commitOnly;
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (!commitOnly || status == Status.STATUS_COMMITTED) {
+                action.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+-- Schema as it was generated by Hibernate from the entity mappings before migrations were introduced.
+
+CREATE SEQUENCE customer_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE booking_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE saga_log_seq START WITH 1 INCREMENT BY 20;
+
+CREATE TABLE customer (
+    id           BIGINT       NOT NULL,
+    birth_date   DATE,
+    email        VARCHAR(255) NOT NULL,
+    first_name   VARCHAR(25)  NOT NULL,
+    last_name    VARCHAR(25)  NOT NULL,
+    phone_number VARCHAR(255) NOT NULL,
+    CONSTRAINT pk_customer PRIMARY KEY (id),
+    CONSTRAINT uk_customer_email UNIQUE (email)
+);
+
+CREATE TABLE taxi (
+    id                  BIGINT GENERATED BY DEFAULT AS IDENTITY,
+    phone_number        VARCHAR(255) NOT NULL,
+    registration_number VARCHAR(255) NOT NULL,
+    seat_number         INTEGER      NOT NULL,
+    CONSTRAINT pk_taxi PRIMARY KEY (id),
+    CONSTRAINT uk_taxi_registration_number UNIQUE (registration_number),
+    CONSTRAINT ck_taxi_seat_number CHECK (seat_number >= 2 AND seat_number <= 20)
+);
+
+CREATE TABLE Booking (
+    id          BIGINT NOT NULL,
+    book_date   DATE,
+    customer_id BIGINT NOT NULL,
+    taxi_id     BIGINT NOT NULL,
+    customerId  BIGINT,
+    taxiId      BIGINT,
+    CONSTRAINT pk_booking PRIMARY KEY (id),
+    CONSTRAINT uk_booking_taxi_customer UNIQUE (taxi_id, customer_id),
+    CONSTRAINT uk_booking_taxi_date UNIQUE (taxi_id, book_date),
+    CONSTRAINT fk_booking_customer FOREIGN KEY (customer_id) REFERENCES customer (id),
+    CONSTRAINT fk_booking_taxi FOREIGN KEY (taxi_id) REFERENCES taxi (id),
+    CONSTRAINT fk_booking_customer_entity FOREIGN KEY (customerId) REFERENCES customer (id),
+    CONSTRAINT fk_booking_taxi_entity FOREIGN KEY (taxiId) REFERENCES taxi (id)
+);
+
+CREATE TABLE PK_TRAVEL_AGENT_GENERATE_TABLE (
+    sequence_name VARCHAR(255) NOT NULL,
+    next_val      BIGINT,
+    CONSTRAINT pk_travel_agent_generate_table PRIMARY KEY (sequence_name)
+);
+
+CREATE TABLE Travel_Agent_Booking (
+    id                BIGINT NOT NULL,
+    customer_id       BIGINT,
+    flight_booking_id BIGINT,
+    hotel_booking_id  BIGINT,
+    taxi_booking_id   BIGINT,
+    booking_id        BIGINT,
+    CONSTRAINT pk_travel_agent_booking PRIMARY KEY (id),
+    CONSTRAINT fk_travel_agent_booking_booking FOREIGN KEY (booking_id) REFERENCES Booking (id)
+);
+
+CREATE TABLE saga_log (
+    id                      BIGINT      NOT NULL,
+    status                  VARCHAR(16) NOT NULL,
+    customer_id             BIGINT,
+    taxi_booking_id         BIGINT,
+    flight_booking_id       BIGINT,
+    hotel_booking_id        BIGINT,
+    travel_agent_booking_id BIGINT,
+    failure                 VARCHAR(1000),
+    payload                 CLOB,
+    updated_at              TIMESTAMP,
+    CONSTRAINT pk_saga_log PRIMARY KEY (id)
+);
@@ -0,0 +1,21 @@
+-- One index per query that filters or sorts on columns without a unique constraint. The names match the @Index
+-- definitions on the entities.
+
+-- Customer.findAll and Customer.findAllAfter page in (last_name, first_name, id) order, and findAllByLastName
+-- filters on the leading column.
+CREATE INDEX idx_customer_name ON customer (last_name, first_name, id);
+-- CustomerRepository.findAllByFirstName
+CREATE INDEX idx_customer_first_name ON customer (first_name);
+
+-- TaxiRepository.findAllBySeatNumber
+CREATE INDEX idx_taxi_seat_number ON taxi (seat_number);
+
+-- Booking.findAll and Booking.findAllAfter page in (customer_id, id) order. Queries on book_date always filter on
+-- taxi_id too and are served by uk_booking_taxi_date.
+CREATE INDEX idx_booking_customer ON Booking (customer_id, id);
+
+-- TravelAgentBooking.findAll and TravelAgentBooking.findByCustomer
+CREATE INDEX idx_travel_agent_booking_customer ON Travel_Agent_Booking (customer_id);
+
+-- SagaLog.findByStatus, run at startup to resume interrupted sagas
+CREATE INDEX idx_saga_log_status ON saga_log (status, id);
@@ -0,0 +1,9 @@
+-- Booking.customer and Booking.taxi were mapped to their own customerId and taxiId columns, which were never
+-- written. They now read customer_id and taxi_id, so the unused columns are dropped.
+ALTER TABLE Booking DROP CONSTRAINT fk_booking_customer_entity;
+ALTER TABLE Booking DROP CONSTRAINT fk_booking_taxi_entity;
+ALTER TABLE Booking DROP COLUMN customerId;
+ALTER TABLE Booking DROP COLUMN taxiId;
+
+-- Booking.findWithTaxiBetween and Booking.findViewsBetween select a range of dates in (book_date, id) order.
+CREATE INDEX idx_booking_book_date ON Booking (book_date, id);
@@ -0,0 +1,10 @@
+-- Customer, Taxi and Booking carry a version for optimistic locking and the time of their last change. Together
+-- they are the ETag and Last-Modified validators of the single-entity endpoints. Existing rows start at version 0.
+ALTER TABLE customer ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE customer ADD COLUMN last_modified TIMESTAMP DEFAULT LOCALTIMESTAMP NOT NULL;
+
+ALTER TABLE taxi ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE taxi ADD COLUMN last_modified TIMESTAMP DEFAULT LOCALTIMESTAMP NOT NULL;
+
+ALTER TABLE Booking ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
+ALTER TABLE Booking ADD COLUMN last_modified TIMESTAMP DEFAULT LOCALTIMESTAMP NOT NULL;
@@ -0,0 +1,12 @@
+-- Outbox of booking changes. An event is written in the transaction that changes the booking and is streamed on
+-- /bookings/stream once that transaction commits. The id orders the events and is the id a client resumes from.
+CREATE SEQUENCE booking_event_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE booking_event (
+    id         BIGINT        NOT NULL,
+    type       VARCHAR(16)   NOT NULL,
+    booking_id BIGINT        NOT NULL,
+    payload    VARCHAR(4000) NOT NULL,
+    created_at TIMESTAMP     NOT NULL,
+    CONSTRAINT pk_booking_event PRIMARY KEY (id)
+);
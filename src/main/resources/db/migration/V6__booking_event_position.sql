@@ -0,0 +1,5 @@
+-- Ids are taken from the sequence before the transaction commits, so events can commit out of id order. The stream
+-- position is given to each event after it has committed, one at a time, so it follows the commit order. Clients
+-- resume from it. It stays NULL until the event has been published.
+ALTER TABLE booking_event ADD COLUMN stream_position BIGINT;
+CREATE UNIQUE INDEX uk_booking_event_stream_position ON booking_event (stream_position);
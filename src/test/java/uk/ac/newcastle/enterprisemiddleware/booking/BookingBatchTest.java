@@ -0,0 +1,263 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import io.quarkus.arc.Arc;
+import io.quarkus.arc.ManagedContext;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.taxi.Taxi;
+import uk.ac.newcastle.enterprisemiddleware.taxi.TaxiAvailabilityIndex;
+import uk.ac.newcastle.enterprisemiddleware.util.BatchItemResult;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.UserTransaction;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <p>Checks that a batch of Bookings is written without its items waiting on each other's reservations, and with a
+ * number of SQL statements that does not grow with the size of the chunk.</p>
+ *
+ * @author Yi Zhang
+ */
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class BookingBatchTest {
+
+    @Inject
+    BookingService service;
+
+    @Inject
+    BookingReservationGuard reservationGuard;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    EntityManagerFactory entityManagerFactory;
+
+    @Inject
+    UserTransaction transaction;
+
+    @Test
+    public void testItemsSharingAStripeAreBothWritten() throws Exception {
+        List<Customer> customers = seedCustomers("stripe", 2);
+        Taxi taxi = seedTaxis("ST", 1).get(0);
+
+        // Two dates of the same taxi whose keys hash onto the same stripe. They are booked by two customers, so the
+        // bookings do not clash.
+        LocalDate first = LocalDate.now().plusYears(7);
+        int stripe = stripeOf(taxi, first);
+        LocalDate second = first.plusDays(1);
+        while (stripeOf(taxi, second) != stripe) {
+            second = second.plusDays(1);
+        }
+
+        List<Booking> books = List.of(
+                booking(customers.get(0).getId(), taxi.getId(), first),
+                booking(customers.get(1).getId(), taxi.getId(), second));
+        List<BatchItemResult> results = service.createBatch(books);
+
+        // Taking the stripe once per item would make the second item time out on the first one's reservation.
+        assertTrue(results.get(0).isCreated(), "first booking: " + results.get(0));
+        assertTrue(results.get(1).isCreated(), "second booking: " + results.get(1));
+    }
+
+    @Test
+    public void testBookingOnAnotherTaxiIsNotHeldUpByABatch() throws Exception {
+        LocalDate date = LocalDate.now().plusYears(11);
+        List<Booking> batch = bookings("convoy", 500, date);
+        List<Customer> customers = seedCustomers("single", 20);
+        List<Taxi> taxis = seedTaxis("SG", 20);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // An uncommitted booking of the batch's last taxi and date keeps the batch waiting in its insert.
+            Booking last = batch.get(batch.size() - 1);
+            Future<?> blocker = pool.submit(inRequest(() -> {
+                transaction.begin();
+                try {
+                    em.persist(booking(last.getCustomerId(), last.getTaxiId(), date));
+                    em.flush();
+                    blocking.countDown();
+                    release.await();
+                } finally {
+                    transaction.rollback();
+                }
+                return null;
+            }));
+            assertTrue(blocking.await(10, TimeUnit.SECONDS), "the blocking booking was not written");
+            Future<List<BatchItemResult>> written = pool.submit(inRequest(() -> service.createBatch(batch)));
+            Thread.sleep(200);
+            assertFalse(written.isDone(), "the batch did not wait for the blocking booking");
+
+            // Bookings of other taxis must not wait for the batch.
+            for (int i = 0; i < taxis.size(); i++) {
+                transaction.begin();
+                try {
+                    service.create(booking(customers.get(i).getId(), taxis.get(i).getId(), date));
+                    transaction.commit();
+                } catch (Exception e) {
+                    transaction.rollback();
+                    throw new AssertionError("booking " + i + " failed while the batch was written", e);
+                }
+            }
+
+            release.countDown();
+            blocker.get(10, TimeUnit.SECONDS);
+            for (BatchItemResult result : written.get(60, TimeUnit.SECONDS)) {
+                assertTrue(result.isCreated(), result.getIndex() + ": " + result.getReasons());
+            }
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testChunkOvertakenByAnotherBookingIsWrittenAgain() throws Exception {
+        LocalDate date = LocalDate.now().plusYears(13);
+        List<Booking> batch = bookings("overtaken", 10, date);
+        Booking last = batch.get(batch.size() - 1);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        CountDownLatch blocking = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            // Written after the batch has checked for clashes, and committed while the batch waits to insert.
+            Future<?> competitor = pool.submit(inRequest(() -> {
+                transaction.begin();
+                em.persist(booking(last.getCustomerId(), last.getTaxiId(), date));
+                em.flush();
+                blocking.countDown();
+                release.await();
+                transaction.commit();
+                return null;
+            }));
+            assertTrue(blocking.await(10, TimeUnit.SECONDS), "the competing booking was not written");
+            ExecutorService batchPool = Executors.newSingleThreadExecutor();
+            try {
+                Future<List<BatchItemResult>> written = batchPool.submit(inRequest(() -> service.createBatch(batch)));
+                Thread.sleep(200);
+                release.countDown();
+                competitor.get(10, TimeUnit.SECONDS);
+
+                List<BatchItemResult> results = written.get(60, TimeUnit.SECONDS);
+                for (BatchItemResult result : results.subList(0, batch.size() - 1)) {
+                    assertTrue(result.isCreated(), result.getIndex() + ": " + result.getReasons());
+                }
+                assertEquals(409, results.get(batch.size() - 1).getStatus());
+            } finally {
+                batchPool.shutdownNow();
+            }
+        } finally {
+            release.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    /*
+     * The repositories are request scoped, so a thread of the test's own needs a request context, as a request has.
+     */
+    private static <T> Callable<T> inRequest(Callable<T> work) {
+        return () -> {
+            ManagedContext requestContext = Arc.container().requestContext();
+            requestContext.activate();
+            try {
+                return work.call();
+            } finally {
+                requestContext.terminate();
+            }
+        };
+    }
+
+    @Test
+    public void testStatementCountDoesNotGrowWithTheChunk() throws Exception {
+        long few = statements(bookings("few", 2, LocalDate.now().plusYears(8)));
+        long many = statements(bookings("many", 40, LocalDate.now().plusYears(9)));
+
+        // Allow for the pooled sequences fetching their next block of ids.
+        assertTrue(many <= few + 2, "2 bookings took " + few + " statements, 40 took " + many);
+    }
+
+    private int stripeOf(Taxi taxi, LocalDate date) {
+        return reservationGuard.stripeOf(taxi.getId(), TaxiAvailabilityIndex.epochDay(java.sql.Date.valueOf(date)));
+    }
+
+    private long statements(List<Booking> books) throws Exception {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        for (BatchItemResult result : service.createBatch(books)) {
+            assertTrue(result.isCreated(), String.valueOf(result));
+        }
+        return statistics.getPrepareStatementCount();
+    }
+
+    /*
+     * Creates one Customer and one Taxi per Booking, all on the same date, so no two Bookings clash.
+     */
+    private List<Booking> bookings(String name, int count, LocalDate date) throws Exception {
+        List<Customer> customers = seedCustomers(name, count);
+        List<Taxi> taxis = seedTaxis(name.substring(0, 2).toUpperCase(), count);
+        List<Booking> books = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            books.add(booking(customers.get(i).getId(), taxis.get(i).getId(), date));
+        }
+        return books;
+    }
+
+    private static Booking booking(Long customerId, Long taxiId, LocalDate date) {
+        Booking booking = new Booking();
+        booking.setCustomerId(customerId);
+        booking.setTaxiId(taxiId);
+        booking.setBookDate(java.sql.Date.valueOf(date));
+        return booking;
+    }
+
+    private List<Customer> seedCustomers(String name, int count) throws Exception {
+        List<Customer> customers = new ArrayList<>(count);
+        transaction.begin();
+        for (int i = 0; i < count; i++) {
+            Customer customer = new Customer("Batch", "Test", name + i + "@batch.com",
+                    String.format("0%010d", 6_000_000_000L + i));
+            em.persist(customer);
+            customers.add(customer);
+        }
+        transaction.commit();
+        return customers;
+    }
+
+    private List<Taxi> seedTaxis(String prefix, int count) throws Exception {
+        List<Taxi> taxis = new ArrayList<>(count);
+        transaction.begin();
+        for (int i = 0; i < count; i++) {
+            Taxi taxi = new Taxi();
+            taxi.setRegistrationNumber(String.format("%s%05d", prefix, i));
+            taxi.setSeatNumber(4);
+            taxi.setPhoneNumber(String.format("0%010d", 5_000_000_000L + i));
+            em.persist(taxi);
+            taxis.add(taxi);
+        }
+        transaction.commit();
+        return taxis;
+    }
+}
@@ -0,0 +1,310 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.helpers.test.AssertSubscriber;
+import io.smallrye.mutiny.subscription.BackPressureFailure;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.taxi.Taxi;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.UserTransaction;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * <p>Checks what a client of <code>GET /bookings/stream</code> receives: committed changes only, named and numbered
+ * by their stream position, the missed events once each on reconnection, and a failed stream rather than a blocked
+ * writer when it reads too slowly.</p>
+ *
+ * @author Yi Zhang
+ */
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class BookingEventStreamTest {
+
+    private static final long WAIT_SECONDS = 10;
+
+    @TestHTTPResource("/bookings/stream")
+    URI streamUri;
+
+    @Inject
+    BookingService service;
+
+    @Inject
+    BookingEventBroadcaster broadcaster;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    UserTransaction transaction;
+
+    @ConfigProperty(name = "booking-events.buffer-size")
+    int bufferSize;
+
+    private final List<Client> clients = new ArrayList<>();
+
+    // Each test gets a new instance, so the count that keeps emails and registrations unique is shared.
+    private static int seeded;
+
+    private int subscribers;
+
+    @BeforeEach
+    public void countSubscribers() {
+        subscribers = broadcaster.subscriberCount();
+    }
+
+    @AfterEach
+    public void disconnect() throws InterruptedException {
+        for (Client client : clients) {
+            client.close();
+        }
+        clients.clear();
+        // A client that goes away must not be left registered.
+        awaitSubscribers(subscribers);
+    }
+
+    @Test
+    public void testCommittedCreateIsSent() throws Exception {
+        Client client = connect(null);
+        Booking created = create(true);
+
+        Event event = client.next();
+        assertEquals("BookingCreated", event.name);
+        assertEquals(String.valueOf(positionOf(created)), event.id);
+        assertTrue(event.data.contains("\"id\":" + created.getId()), event.data);
+    }
+
+    @Test
+    public void testRolledBackCreateIsNotSent() throws Exception {
+        Client client = connect(null);
+        Booking rolledBack = create(false);
+        Booking committed = create(true);
+
+        // Events are sent in order, so anything sent for the rolled back Booking would arrive first.
+        Event event = client.next();
+        assertEquals(String.valueOf(positionOf(committed)), event.id);
+        assertEquals(0L, countEvents(rolledBack));
+    }
+
+    @Test
+    public void testReconnectingClientIsSentTheMissedEventsOnce() throws Exception {
+        Booking first = create(true);
+        Booking second = create(true);
+        Booking third = create(true);
+        long firstPosition = positionOf(first);
+        long secondPosition = positionOf(second);
+        long thirdPosition = positionOf(third);
+
+        Client client = connect(firstPosition);
+        // Written while the missed events may still be read, so it can arrive both live and in the replay.
+        Booking fourth = create(true);
+
+        assertEquals(String.valueOf(secondPosition), client.next().id);
+        assertEquals(String.valueOf(thirdPosition), client.next().id);
+        assertEquals(String.valueOf(positionOf(fourth)), client.next().id);
+        assertNull(client.events.poll(500, TimeUnit.MILLISECONDS), "no event is sent twice");
+    }
+
+    @Test
+    public void testSlowClientIsFailedWithoutBlockingTheWriter() throws Exception {
+        int before = broadcaster.subscriberCount();
+        AssertSubscriber<BookingEvent> subscriber = broadcaster.stream(null)
+                .subscribe().withSubscriber(AssertSubscriber.create(0));
+        awaitSubscribers(before + 1);
+
+        // The subscriber requests nothing, so every event is left in its buffer.
+        for (int i = 0; i < bufferSize + 2; i++) {
+            BookingEvent event = new BookingEvent();
+            event.setType(BookingEvent.Type.UPDATED);
+            event.setBookingId((long) i);
+            event.setPayload("{}");
+            event.setStreamPosition((long) i);
+            broadcaster.publish(event);
+        }
+
+        subscriber.awaitFailure();
+        assertTrue(subscriber.getFailure() instanceof BackPressureFailure, String.valueOf(subscriber.getFailure()));
+        awaitSubscribers(before);
+    }
+
+    /*
+     * Opens the stream and waits until the broadcaster has registered it, so no event written afterwards is missed.
+     */
+    private Client connect(Long lastEventId) throws Exception {
+        int before = broadcaster.subscriberCount();
+        HttpRequest.Builder request = HttpRequest.newBuilder(streamUri).header("Accept", "text/event-stream");
+        if (lastEventId != null) {
+            request.header("Last-Event-ID", String.valueOf(lastEventId));
+        }
+        Client client = new Client(request.build());
+        clients.add(client);
+        awaitSubscribers(before + 1);
+        return client;
+    }
+
+    private void awaitSubscribers(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (broadcaster.subscriberCount() != count) {
+            if (System.nanoTime() - deadline > 0) {
+                fail("expected " + count + " subscribers, found " + broadcaster.subscriberCount());
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    /*
+     * Creates a Booking for a new Customer and Taxi, and commits or rolls back its transaction.
+     */
+    private Booking create(boolean commit) throws Exception {
+        int n = seeded++;
+        transaction.begin();
+        Customer customer = new Customer("Event", "Stream", "event" + n + "@stream.com",
+                String.format("0%010d", 4_000_000_000L + n));
+        em.persist(customer);
+        Taxi taxi = new Taxi();
+        taxi.setRegistrationNumber(String.format("EV%05d", n));
+        taxi.setSeatNumber(4);
+        taxi.setPhoneNumber(String.format("0%010d", 3_000_000_000L + n));
+        em.persist(taxi);
+        transaction.commit();
+
+        Booking booking = new Booking();
+        booking.setCustomerId(customer.getId());
+        booking.setTaxiId(taxi.getId());
+        booking.setBookDate(java.sql.Date.valueOf(LocalDate.now().plusYears(10)));
+        transaction.begin();
+        try {
+            service.create(booking);
+        } finally {
+            if (commit) {
+                transaction.commit();
+            } else {
+                transaction.rollback();
+            }
+        }
+        return booking;
+    }
+
+    /*
+     * Waits for the relay to give the Booking's event its stream position.
+     */
+    private long positionOf(Booking booking) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+        while (true) {
+            transaction.begin();
+            try {
+                List<Long> positions = em.createQuery(
+                                "SELECT e.streamPosition FROM BookingEvent e WHERE e.bookingId = :bookingId", Long.class)
+                        .setParameter("bookingId", booking.getId())
+                        .getResultList();
+                if (!positions.isEmpty() && positions.get(0) != null) {
+                    return positions.get(0);
+                }
+            } finally {
+                transaction.rollback();
+            }
+            if (System.nanoTime() - deadline > 0) {
+                fail("no stream position for booking " + booking.getId());
+            }
+            Thread.sleep(20);
+        }
+    }
+
+    private long countEvents(Booking booking) throws Exception {
+        transaction.begin();
+        try {
+            return em.createQuery("SELECT COUNT(e) FROM BookingEvent e WHERE e.bookingId = :bookingId", Long.class)
+                    .setParameter("bookingId", booking.getId())
+                    .getSingleResult();
+        } finally {
+            transaction.rollback();
+        }
+    }
+
+    private static final class Event {
+        private String id;
+        private String name;
+        private String data;
+    }
+
+    /**
+     * <p>A server-sent event client, reading the stream on a thread of its own.</p>
+     */
+    private static final class Client {
+        private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+        private final Thread reader;
+        private volatile Stream<String> lines;
+
+        private Client(HttpRequest request) {
+            reader = new Thread(() -> read(request), "booking-event-stream-test");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        private void read(HttpRequest request) {
+            try {
+                lines = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build().send(request, HttpResponse.BodyHandlers.ofLines()).body();
+                Event event = new Event();
+                for (String line : (Iterable<String>) lines::iterator) {
+                    if (line.isEmpty()) {
+                        if (event.data != null) {
+                            events.add(event);
+                        }
+                        event = new Event();
+                    } else if (line.startsWith("id:")) {
+                        event.id = value(line);
+                    } else if (line.startsWith("event:")) {
+                        event.name = value(line);
+                    } else if (line.startsWith("data:")) {
+                        event.data = event.data == null ? value(line) : event.data + "\n" + value(line);
+                    }
+                }
+            } catch (Exception e) {
+                // The stream was closed by the test.
+            }
+        }
+
+        private static String value(String line) {
+            String value = line.substring(line.indexOf(':') + 1);
+            return value.startsWith(" ") ? value.substring(1) : value;
+        }
+
+        private Event next() throws InterruptedException {
+            Event event = events.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+            assertNotNull(event, "no event within " + WAIT_SECONDS + "s");
+            return event;
+        }
+
+        private void close() {
+            Stream<String> current = lines;
+            if (current != null) {
+                current.close();
+            }
+            reader.interrupt();
+        }
+    }
+}
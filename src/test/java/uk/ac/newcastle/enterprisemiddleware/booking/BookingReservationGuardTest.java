@@ -0,0 +1,174 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * <p>Concurrency stress test for {@link BookingReservationGuard}.</p>
+ *
+ * <p>Checks that competing attempts on one taxi and date are serialised, that a blocked attempt fails fast, and that
+ * attempts on different taxis scale with the number of threads instead of queueing behind each other.</p>
+ *
+ * @author Yi Zhang
+ */
+class BookingReservationGuardTest {
+
+    private static final long DAY = 19000;
+
+    @Test
+    void stripeCountIsRoundedUpToAPowerOfTwo() {
+        assertEquals(64, new BookingReservationGuard(50).stripeCount());
+        assertEquals(64, new BookingReservationGuard(64).stripeCount());
+        assertTrue(new BookingReservationGuard().stripeCount() >= 64);
+    }
+
+    @Test
+    void secondAttemptOnSameTaxiAndDateTimesOut() throws Exception {
+        BookingReservationGuard guard = new BookingReservationGuard(64);
+
+        BookingReservationGuard.Reservation first = guard.tryReserve(1L, DAY, 10, TimeUnit.MILLISECONDS);
+        assertNotNull(first);
+        assertNull(guard.tryReserve(1L, DAY, 10, TimeUnit.MILLISECONDS));
+
+        // Closing twice must not hand out a second permit.
+        first.close();
+        first.close();
+        BookingReservationGuard.Reservation second = guard.tryReserve(1L, DAY, 10, TimeUnit.MILLISECONDS);
+        assertNotNull(second);
+        assertNull(guard.tryReserve(1L, DAY, 10, TimeUnit.MILLISECONDS));
+        second.close();
+    }
+
+    @Test
+    void onlyOneHolderPerTaxiAndDateUnderContention() throws Exception {
+        BookingReservationGuard guard = new BookingReservationGuard(64);
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        AtomicInteger reserved = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < 200; i++) {
+                        BookingReservationGuard.Reservation reservation =
+                                guard.tryReserve(7L, DAY, 1, TimeUnit.SECONDS);
+                        if (reservation == null) {
+                            continue;
+                        }
+                        try {
+                            int now = holders.incrementAndGet();
+                            maxHolders.accumulateAndGet(now, Math::max);
+                            reserved.incrementAndGet();
+                            holders.decrementAndGet();
+                        } finally {
+                            reservation.close();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertEquals(1, maxHolders.get());
+        assertTrue(reserved.get() > 0);
+    }
+
+    @Test
+    void unrelatedTaxisDoNotShareAStripe() throws Exception {
+        BookingReservationGuard guard = new BookingReservationGuard(64);
+        int holder = guard.stripeOf(1L, DAY);
+        long other = 2L;
+        while (guard.stripeOf(other, DAY) == holder) {
+            other++;
+        }
+
+        BookingReservationGuard.Reservation first = guard.tryReserve(1L, DAY, 10, TimeUnit.MILLISECONDS);
+        BookingReservationGuard.Reservation second = guard.tryReserve(other, DAY, 10, TimeUnit.MILLISECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        first.close();
+        second.close();
+    }
+
+    @Test
+    void throughputScalesWithThreadsForDifferentTaxis() throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        assumeTrue(cores >= 2, "needs at least two cores");
+
+        BookingReservationGuard guard = new BookingReservationGuard(1024);
+        int threads = Math.min(cores, 8);
+        int perThread = 400;
+
+        long single = run(guard, 1, perThread * threads);
+        long parallel = run(guard, threads, perThread);
+
+        // Each attempt holds its stripe for the same fixed time, so with no convoy the parallel run takes roughly
+        // 1/threads of the time. Allow plenty of slack for scheduling noise on shared machines.
+        assertTrue(parallel * 2 < single,
+                "expected " + threads + " threads to be well over twice as fast: single=" + single
+                        + "ns parallel=" + parallel + "ns");
+    }
+
+    /**
+     * Runs the given number of threads, each reserving a range of taxis of its own, and returns the elapsed time.
+     */
+    private static long run(BookingReservationGuard guard, int threads, int perThread) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long firstTaxi = (long) t * perThread;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        BookingReservationGuard.Reservation reservation =
+                                guard.tryReserve(firstTaxi + i, DAY, 5, TimeUnit.SECONDS);
+                        assertNotNull(reservation);
+                        try {
+                            // Stand in for the existence check and insert done while the reservation is held.
+                            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+                        } finally {
+                            reservation.close();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            return System.nanoTime() - begin;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package uk.ac.newcastle.enterprisemiddleware.booking;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.taxi.Taxi;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.transaction.UserTransaction;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <p>Checks that listing Bookings with their Customer and Taxi costs the same number of SQL statements whether a
+ * few or many Bookings are returned, i.e. that the associations are not loaded one Booking at a time.</p>
+ *
+ * <p>The second-level cache is emptied before each measurement, so a Customer or Taxi that was not fetched with
+ * its Booking shows up as an extra statement.</p>
+ *
+ * @author Yi Zhang
+ */
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class BookingStatementCountTest {
+
+    private static final Date FROM = java.sql.Date.valueOf(LocalDate.now().plusYears(5));
+    private static final Date TO = java.sql.Date.valueOf(LocalDate.now().plusYears(5).plusDays(1));
+
+    @Inject
+    BookingService service;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    EntityManagerFactory entityManagerFactory;
+
+    @Inject
+    UserTransaction transaction;
+
+    @Test
+    public void testStatementCountDoesNotGrowWithResults() throws Exception {
+        seed(0, 2);
+        long pageFew = statements(() -> touch(service.findPageWithCustomerAndTaxi(null, null, 500), true));
+        long rangeFew = statements(() -> touch(service.findBetweenWithTaxi(FROM, TO, 500), false));
+        long viewsFew = statements(() -> service.findViewsBetween(FROM, TO, 500).size());
+
+        seed(2, 40);
+        long pageMany = statements(() -> touch(service.findPageWithCustomerAndTaxi(null, null, 500), true));
+        long rangeMany = statements(() -> touch(service.findBetweenWithTaxi(FROM, TO, 500), false));
+        long viewsMany = statements(() -> service.findViewsBetween(FROM, TO, 500).size());
+
+        assertEquals(1, pageFew);
+        assertEquals(pageFew, pageMany);
+        assertEquals(1, rangeFew);
+        assertEquals(rangeFew, rangeMany);
+        assertEquals(1, viewsFew);
+        assertEquals(viewsFew, viewsMany);
+        assertEquals(40, service.findViewsBetween(FROM, TO, 500).size());
+    }
+
+    /*
+     * Reads the associations that were asked for, as a serialiser or a report would, so any of them that was not
+     * fetched is loaded now.
+     */
+    private static int touch(List<Booking> bookings, boolean customers) {
+        int length = 0;
+        for (Booking booking : bookings) {
+            if (customers) {
+                length += booking.getCustomer().getLastName().length();
+            }
+            length += booking.getTaxi().getRegistrationNumber().length();
+        }
+        return length;
+    }
+
+    private long statements(Supplier<Integer> work) throws Exception {
+        entityManagerFactory.getCache().evictAll();
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        transaction.begin();
+        try {
+            statistics.clear();
+            assertTrue(work.get() >= 0);
+            return statistics.getPrepareStatementCount();
+        } finally {
+            transaction.rollback();
+        }
+    }
+
+    /*
+     * Creates a Customer, a Taxi and a Booking of that Taxi for that Customer for each index in [from, to).
+     */
+    private void seed(int from, int to) throws Exception {
+        transaction.begin();
+        for (int i = from; i < to; i++) {
+            Customer customer = new Customer("Fetch", "Count", "fetch" + i + "@count.com",
+                    String.format("0%010d", 7_000_000_000L + i));
+            em.persist(customer);
+
+            Taxi taxi = new Taxi();
+            taxi.setRegistrationNumber(String.format("FC%05d", i));
+            taxi.setSeatNumber(4);
+            taxi.setPhoneNumber(String.format("0%010d", 8_000_000_000L + i));
+            em.persist(taxi);
+
+            Booking booking = new Booking();
+            booking.setCustomerId(customer.getId());
+            booking.setTaxiId(taxi.getId());
+            booking.setBookDate(i % 2 == 0 ? FROM : TO);
+            em.persist(booking);
+        }
+        transaction.commit();
+    }
+}
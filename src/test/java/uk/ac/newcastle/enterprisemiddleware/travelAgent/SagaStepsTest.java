@@ -0,0 +1,128 @@
+package uk.ac.newcastle.enterprisemiddleware.travelAgent;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.taxi.Taxi;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.UserTransaction;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * <p>Checks that the steps of a saga, run at the same time in their own transactions, each keep the booking id they
+ * recorded.</p>
+ *
+ * @author Yi Zhang
+ */
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class SagaStepsTest {
+
+    private static final int SAGAS = 10;
+
+    @Inject
+    SagaSteps steps;
+
+    @Inject
+    EntityManager em;
+
+    @Inject
+    UserTransaction transaction;
+
+    @Test
+    public void testConcurrentStepsKeepEveryBookingId() throws Exception {
+        Customer customer = new Customer("Saga", "Steps", "saga@steps.com", "07000000000");
+        List<Taxi> taxis = new ArrayList<>();
+        transaction.begin();
+        em.persist(customer);
+        for (int i = 0; i < SAGAS; i++) {
+            Taxi taxi = new Taxi();
+            taxi.setRegistrationNumber(String.format("SS%05d", i));
+            taxi.setSeatNumber(4);
+            taxi.setPhoneNumber(String.format("0%010d", 9_000_000_000L + i));
+            em.persist(taxi);
+            taxis.add(taxi);
+        }
+        transaction.commit();
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        try {
+            for (int i = 0; i < SAGAS; i++) {
+                TravelAgent request = new TravelAgent();
+                request.setCustomer(customer);
+                Long sagaId = steps.begin(request).getId();
+
+                Booking booking = new Booking();
+                booking.setCustomerId(customer.getId());
+                booking.setTaxiId(taxis.get(i).getId());
+                booking.setBookDate(java.sql.Date.valueOf(LocalDate.now().plusYears(6).plusDays(i)));
+                Long flightId = 1000L + i;
+                Long hotelId = 2000L + i;
+
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<?>> futures = new ArrayList<>();
+                futures.add(pool.submit(step(start, () -> {
+                    steps.bookTaxi(sagaId, booking);
+                    return null;
+                })));
+                futures.add(pool.submit(step(start, () -> {
+                    steps.recordFlight(sagaId, flightId);
+                    return null;
+                })));
+                futures.add(pool.submit(step(start, () -> {
+                    steps.recordHotel(sagaId, hotelId);
+                    return null;
+                })));
+                start.countDown();
+                for (Future<?> future : futures) {
+                    future.get(30, TimeUnit.SECONDS);
+                }
+
+                SagaLog saga = steps.find(sagaId);
+                assertNotNull(saga.getTaxiBookingId(), "taxi booking of saga " + sagaId);
+                assertEquals(flightId, saga.getFlightBookingId());
+                assertEquals(hotelId, saga.getHotelBookingId());
+
+                SagaLog completed = steps.complete(sagaId);
+                TravelAgentBooking travelAgentBooking = find(completed.getTravelAgentBookingId());
+                assertEquals(saga.getTaxiBookingId(), travelAgentBooking.getTaxiBookingId());
+                assertEquals(flightId, travelAgentBooking.getFlightBookingId());
+                assertEquals(hotelId, travelAgentBooking.getHotelBookingId());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static Callable<Void> step(CountDownLatch start, Callable<Void> work) {
+        return () -> {
+            start.await();
+            return work.call();
+        };
+    }
+
+    private TravelAgentBooking find(Long id) throws Exception {
+        transaction.begin();
+        try {
+            return em.find(TravelAgentBooking.class, id);
+        } finally {
+            transaction.rollback();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.h2.H2DatabaseTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.internal.ast.ASTQueryTranslatorFactory;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.junit.jupiter.api.Test;
+import uk.ac.newcastle.enterprisemiddleware.booking.Booking;
+import uk.ac.newcastle.enterprisemiddleware.booking.BookingEvent;
+import uk.ac.newcastle.enterprisemiddleware.customer.Customer;
+import uk.ac.newcastle.enterprisemiddleware.taxi.Taxi;
+import uk.ac.newcastle.enterprisemiddleware.travelAgent.SagaLog;
+import uk.ac.newcastle.enterprisemiddleware.travelAgent.TravelAgentBooking;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <p>Runs EXPLAIN on the SQL of every named query and of the repositories' criteria queries against the schema
+ * created by the Flyway migrations, and fails if any of them reads a whole table.</p>
+ *
+ * <p>Named queries are read from the entities' annotations, so a query added later is checked without changing
+ * this test.</p>
+ *
+ * @author Yi Zhang
+ */
+@QuarkusTest
+@QuarkusTestResource(H2DatabaseTestResource.class)
+class QueryPlanTest {
+
+    /*
+     * These read from the start of the table on purpose: the exports, the first page of each listing, which stops at
+     * the page size, and the startup scan that fills the reservation index.
+     */
+    private static final Set<String> FULL_READS = Set.of(
+            Customer.FIND_ALL,
+            Customer.FIND_VIEWS,
+            Taxi.FIND_ALL,
+            Taxi.FIND_VIEWS,
+            Booking.FIND_ALL,
+            Booking.FIND_VIEWS,
+            Booking.FIND_TAXI_DATES,
+            TravelAgentBooking.FIND_ALL,
+            TravelAgentBooking.FIND_VIEWS);
+
+    @Inject
+    EntityManagerFactory entityManagerFactory;
+
+    @Inject
+    DataSource dataSource;
+
+    @Test
+    public void testNoRepositoryQueryScansATable() throws SQLException {
+        Map<String, String> queries = new LinkedHashMap<>();
+        for (Class<?> entity : List.of(Customer.class, Taxi.class, Booking.class, TravelAgentBooking.class,
+                SagaLog.class, BookingEvent.class)) {
+            for (NamedQuery query : entity.getAnnotation(NamedQueries.class).value()) {
+                queries.put(query.name(), query.query());
+            }
+        }
+        queries.put("CustomerRepository.findAllByFirstName", "SELECT c FROM Customer c WHERE c.firstName = :firstName");
+        queries.put("CustomerRepository.findAllByLastName", "SELECT c FROM Customer c WHERE c.lastName = :lastName");
+        queries.put("TaxiRepository.findAllBySeatNumber", "SELECT t FROM Taxi t WHERE t.seatNumber = :seatNumber");
+
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        List<String> scans = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection()) {
+            for (Map.Entry<String, String> query : queries.entrySet()) {
+                if (FULL_READS.contains(query.getKey())) {
+                    continue;
+                }
+                for (String sql : toSql(sessionFactory, query.getValue())) {
+                    String plan = explain(connection, sql);
+                    if (plan.contains("tableScan")) {
+                        scans.add(query.getKey() + ": " + plan);
+                    }
+                }
+            }
+        }
+        assertTrue(scans.isEmpty(), "Queries reading a whole table:\n" + String.join("\n", scans));
+    }
+
+    private static String[] toSql(SessionFactoryImplementor sessionFactory, String hql) {
+        // Collection parameters are expanded when the query is run. One element is enough to see the plan.
+        String single = hql.replaceAll("(?i)\\bIN\\s+:(\\w+)", "IN (:$1)");
+        QueryTranslator translator = new ASTQueryTranslatorFactory()
+                .createQueryTranslator(single, single, Collections.emptyMap(), sessionFactory, null);
+        translator.compile(Collections.emptyMap(), false);
+        return translator.collectSqlStrings().toArray(new String[0]);
+    }
+
+    private static String explain(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("EXPLAIN " + sql)) {
+            int parameters = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                statement.setObject(i, null);
+            }
+            try (ResultSet plan = statement.executeQuery()) {
+                StringBuilder text = new StringBuilder();
+                while (plan.next()) {
+                    text.append(plan.getString(1).replaceAll("\\s+", " "));
+                }
+                return text.toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package uk.ac.newcastle.enterprisemiddleware.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * <p>Checks the eviction, invalidation, metrics and segment budgets of {@link ResponseCache} without starting
+ * Quarkus.</p>
+ *
+ * @author Yi Zhang
+ */
+class ResponseCacheTest {
+
+    private SimpleMeterRegistry registry;
+    private ResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        // One segment, so the order of eviction across every key is known.
+        createCache(1, 16 * 1024);
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntryWhenFull() {
+        // Each entry is a little over 1KB, so the cache holds fourteen of them.
+        for (int i = 0; i < 14; i++) {
+            cache.putPage(ResponseCache.TAXIS + i, cache.generation(), body(), null);
+        }
+        assertNotNull(cache.get(ResponseCache.TAXIS + 0));
+
+        cache.putPage(ResponseCache.TAXIS + 14, cache.generation(), body(), null);
+
+        assertNotNull(cache.get(ResponseCache.TAXIS + 0));
+        assertNull(cache.get(ResponseCache.TAXIS + 1));
+        assertEquals(1.0, registry.get("response.cache.evictions").counter().count());
+    }
+
+    @Test
+    void invalidatesOneKeyOrARegion() {
+        cache.putPage(ResponseCache.TAXIS + 1, cache.generation(), body(), null);
+        cache.putPage(ResponseCache.TAXIS + 2, cache.generation(), body(), null);
+        cache.putPage(ResponseCache.CUSTOMERS + 1, cache.generation(), body(), null);
+
+        cache.invalidate(ResponseCache.TAXIS + 1);
+        assertNull(cache.get(ResponseCache.TAXIS + 1));
+        assertNotNull(cache.get(ResponseCache.TAXIS + 2));
+
+        cache.invalidateRegion(ResponseCache.TAXIS);
+        assertNull(cache.get(ResponseCache.TAXIS + 2));
+        assertNotNull(cache.get(ResponseCache.CUSTOMERS + 1));
+        assertEquals(1.0, registry.get("response.cache.entries").gauge().value());
+    }
+
+    @Test
+    void doesNotStoreABodyReadBeforeAnInvalidation() {
+        long generation = cache.generation();
+        cache.invalidate(ResponseCache.CUSTOMERS + 1);
+
+        assertNotNull(cache.putPage(ResponseCache.CUSTOMERS + 1, generation, body(), null));
+        assertNull(cache.get(ResponseCache.CUSTOMERS + 1));
+    }
+
+    @Test
+    void publishesTheHitRatio() {
+        cache.putPage(ResponseCache.TAXIS + 1, cache.generation(), body(), null);
+        cache.get(ResponseCache.TAXIS + 1);
+        cache.get(ResponseCache.TAXIS + 1);
+        cache.get(ResponseCache.TAXIS + 1);
+        cache.get(ResponseCache.TAXIS + 2);
+
+        assertEquals(0.75, registry.get("response.cache.hit.ratio").gauge().value(), 1e-9);
+    }
+
+    @Test
+    void keepsConcurrentWritersWithinTheBudget() throws Exception {
+        createCache(4, 64 * 1024);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int offset = t * 1000;
+                writers.add(pool.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        String key = ResponseCache.TAXIS + (offset + i % 40);
+                        if (cache.get(key) == null) {
+                            cache.putPage(key, cache.generation(), body(), null);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> writer : writers) {
+                writer.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // 320 keys of a little over 1KB each are more than four segments of 16KB can hold.
+        double size = registry.get("response.cache.size").gauge().value();
+        assertTrue(size <= 64 * 1024, "size " + size);
+        assertTrue(registry.get("response.cache.entries").gauge().value() > 0);
+        assertTrue(registry.get("response.cache.evictions").counter().count() > 0);
+    }
+
+    private void createCache(int segments, long maxBytes) {
+        registry = new SimpleMeterRegistry();
+        cache = new ResponseCache();
+        cache.mapper = new ObjectMapper();
+        cache.registry = registry;
+        cache.enabled = true;
+        cache.maxBytes = maxBytes;
+        cache.segmentCount = segments;
+        cache.init();
+    }
+
+    private static List<String> body() {
+        return Collections.nCopies(100, "0123456");
+    }
+}